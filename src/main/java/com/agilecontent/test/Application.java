@@ -2,9 +2,15 @@ package com.agilecontent.test;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
 
-@SpringBootApplication(exclude = {DataSourceAutoConfiguration.class })
+/**
+ * Entry point of the application. The database is only configured when the "jpa" profile is active:
+ * otherwise, DataSourceAutoConfiguration is excluded through the spring.autoconfigure.exclude property.
+ * 
+ * @author Carlos Melero
+ *
+ */
+@SpringBootApplication
 public class Application {
 
 	public static void main(String[] args) {
@@ -0,0 +1,33 @@
+package com.agilecontent.test.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Adds the binary formats the Users, pages and batches can be exchanged in, besides JSON: CBOR (application/cbor)
+ * and Smile (application/x-jackson-smile), chosen by the Accept and Content-Type headers. Both map the same models
+ * as JSON, through mappers built with the same settings as the JSON one, so nothing but the encoding changes. The
+ * builder must be Spring Boot's, which registers the ParameterNamesModule that the models' creators rely on.
+ * 
+ * @author Carlos Melero
+ *
+ */
+@Configuration
+public class ContentConfig {
+
+	@Bean
+	public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+		return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+	}
+
+	@Bean
+	public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+		return new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory()).build());
+	}
+}
@@ -0,0 +1,60 @@
+package com.agilecontent.test.config;
+
+import java.io.IOException;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.agilecontent.test.generators.LocalServerUserGenerator;
+import com.agilecontent.test.generators.RandomUserApiGenerator;
+import com.agilecontent.test.generators.SyntheticUserGenerator;
+import com.agilecontent.test.generators.UserGenerator;
+import com.agilecontent.test.metrics.UserMetrics;
+
+/**
+ * Selects the source of the random users through the "generator.backend" property:
+ * "randomuser" (default) calls the random user generator api, "synthetic" generates them in-process,
+ * and "local" calls an embedded stand-in of the api with configurable latency, errors and duplicates.
+ * 
+ * @author Carlos Melero
+ *
+ */
+@Configuration
+public class GeneratorConfig {
+
+	@Value("${generator.backend:randomuser}")
+	private String backend;
+
+	@Value("${generator.uri:https://randomuser.me/api/?results=}")
+	private String uri;
+
+	@Value("${generator.parallelism:4}")
+	private int parallelism;
+
+	@Value("${generator.seed:42}")
+	private long seed;
+
+	@Value("${generator.local.latency-ms:0}")
+	private long latencyMillis;
+
+	@Value("${generator.local.error-rate:0}")
+	private double errorRate;
+
+	@Value("${generator.local.duplicate-rate:0}")
+	private double duplicateRate;
+
+	@Bean
+	public UserGenerator userGenerator(UserMetrics metrics) throws IOException {
+		switch (backend) {
+		case "synthetic":
+			return new SyntheticUserGenerator(seed);
+		case "local":
+			return new LocalServerUserGenerator(seed, latencyMillis, errorRate, duplicateRate, parallelism, metrics);
+		case "randomuser":
+			return new RandomUserApiGenerator(uri, parallelism, metrics);
+		default:
+			throw new IllegalArgumentException("Unknown generator.backend '" + backend + "'");
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package com.agilecontent.test.config;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.agilecontent.test.metrics.UserMetrics;
+import com.agilecontent.test.repositories.UserRepository;
+import com.agilecontent.test.stores.ConcurrentUserStore;
+import com.agilecontent.test.stores.DurableUserStore;
+import com.agilecontent.test.stores.IndexedUserStore;
+import com.agilecontent.test.stores.JpaUserStore;
+import com.agilecontent.test.stores.OffHeapUserStore;
+import com.agilecontent.test.stores.UserStore;
+import com.agilecontent.test.stores.WriteBehindUserStore;
+
+/**
+ * Builds the store the users are kept in, selected through the "store.backend" property.
+ * 
+ * With "memory" (default), users live in memory only, unless "store.data-dir" points to a directory: then every
+ * mutation is logged to a write-ahead log there, the whole store is written to a snapshot every
+ * "store.snapshot.interval-seconds", and both are loaded back on startup.
+ * 
+ * With "offheap", users are kept the same way, but packed in direct buffers out of the heap (see OffHeapUserStore),
+ * which takes far less memory and garbage collection for large amounts of them.
+ * 
+ * With "jpa", users are kept in a database through JPA. The "jpa" profile (application-jpa.properties) selects it,
+ * along with an embedded H2 database and the JDBC batching settings. With "store.write-behind.enabled", the users
+ * are also kept in memory, which answers every request right away, and the database is written in the background.
+ * 
+ * With "store.indexes.enabled", the store is wrapped in an IndexedUserStore, which finds the users by email, domain
+ * and gender, searches them and sorts them, at the cost of several heap objects per user (which defeats "offheap")
+ * and of reading the whole store on startup (the whole table, with "jpa"). It is on by default with "memory", whose
+ * users are on the heap already, and off with "offheap" and "jpa". Without it, those endpoints answer 501.
+ * 
+ * @author Carlos Melero
+ *
+ */
+@Configuration
+public class StoreConfig {
+
+	@Value("${store.page-size:10}")
+	private int pageSize;
+
+	@Value("${store.offheap.slab-size:16777216}")
+	private int slabSize;
+
+	@Value("${store.data-dir:}")
+	private String dataDir;
+
+	@Value("${store.snapshot.interval-seconds:300}")
+	private long snapshotIntervalSeconds;
+
+	@Value("${store.jpa.batch-size:1000}")
+	private int batchSize;
+
+	@Value("${store.write-behind.enabled:false}")
+	private boolean writeBehind;
+
+	// Null when not set, to follow the default of the backend
+	@Value("${store.indexes.enabled:#{null}}")
+	private Boolean indexes;
+
+	@Value("${store.write-behind.capacity:10000}")
+	private int writeBehindCapacity;
+
+	@Value("${store.write-behind.flush-interval-ms:200}")
+	private long writeBehindFlushInterval;
+
+	@Bean
+	@ConditionalOnProperty(name = "store.backend", havingValue = "memory", matchIfMissing = true)
+	public UserStore userStore(UserMetrics metrics) throws IOException {
+		return indexed(durable(new ConcurrentUserStore(pageSize), metrics), true);
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "store.backend", havingValue = "offheap")
+	public UserStore offHeapUserStore(UserMetrics metrics) throws IOException {
+		OffHeapUserStore store = new OffHeapUserStore(pageSize, slabSize);
+		metrics.bindOffHeap(store);
+		return indexed(durable(store, metrics), false);
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "store.backend", havingValue = "jpa")
+	public UserStore jpaUserStore(UserRepository repository, EntityManagerFactory entityManagerFactory,
+			PlatformTransactionManager transactionManager, UserMetrics metrics) {
+		UserStore store = new JpaUserStore(repository, SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory),
+				transactionManager, pageSize, batchSize);
+		if (writeBehind)
+			store = new WriteBehindUserStore(new ConcurrentUserStore(pageSize), store, writeBehindCapacity, writeBehindFlushInterval, metrics);
+		return indexed(store, false);
+	}
+
+	/**
+	 * Indexes a store, if the indexes are enabled.
+	 * @param store The store to index
+	 * @param byDefault Whether the indexes are enabled for this backend when "store.indexes.enabled" is not set
+	 * @return The indexed store, or the same store if the indexes are disabled
+	 */
+	private UserStore indexed(UserStore store, boolean byDefault) {
+		return ((indexes != null) ? indexes : byDefault) ? new IndexedUserStore(store) : store;
+	}
+
+	/**
+	 * Makes an in-memory store durable, if a data directory is set.
+	 * @param store The in-memory store
+	 * @param metrics Where to record the log and snapshot meters
+	 * @return The durable store, or the same store if there is no data directory
+	 * @throws IOException If the data directory cannot be loaded
+	 */
+	private UserStore durable(UserStore store, UserMetrics metrics) throws IOException {
+		if (dataDir.isEmpty())
+			return store;
+		return new DurableUserStore(store, Paths.get(dataDir), snapshotIntervalSeconds, metrics);
+	}
+}
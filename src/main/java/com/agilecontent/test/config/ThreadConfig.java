@@ -0,0 +1,48 @@
+package com.agilecontent.test.config;
+
+import java.util.concurrent.ExecutorService;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.agilecontent.test.utils.VirtualThreadUtils;
+
+/**
+ * Opt-in execution of the requests on virtual threads, through the "spring.threads.virtual.enabled" property (false
+ * by default). Tomcat then hands every request to a new virtual thread instead of its pool of platform threads
+ * ("server.tomcat.max-threads"), so requests blocked on the random user generator no longer hold the threads the
+ * CRUD requests need. The UserService runs the calls to the generator on virtual threads too.
+ * Needs Java 21 or later at runtime: the application fails to start otherwise.
+ *
+ * @author Carlos Melero
+ *
+ */
+@Configuration
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class ThreadConfig {
+
+	private static final Logger log = LoggerFactory.getLogger(ThreadConfig.class);
+
+	// Not a bean, which would take the place of the task executor the exports run on
+	private final ExecutorService requestExecutor = VirtualThreadUtils.newVirtualThreadPerTaskExecutor("http-virtual-");
+
+	@Bean
+	public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadCustomizer() {
+		return factory -> factory.addProtocolHandlerCustomizers(protocolHandler -> {
+			protocolHandler.setExecutor(requestExecutor);
+			log.info("Requests run on virtual threads");
+		});
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		requestExecutor.shutdown();
+	}
+}
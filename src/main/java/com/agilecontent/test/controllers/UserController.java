@@ -1,19 +1,39 @@
 package com.agilecontent.test.controllers;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.UserBatchResult;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.models.UserPage;
+import com.agilecontent.test.services.GenerationJob;
+import com.agilecontent.test.services.GenerationJobs;
 import com.agilecontent.test.services.UserService;
+import com.agilecontent.test.stores.IndexedUserStore.SortedBy;
 import com.agilecontent.test.utils.ErrorUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Controller for the User Services. Supports the 4 basic CRUD operations, plus the random user generator api call.
@@ -22,11 +42,31 @@ import com.agilecontent.test.utils.ErrorUtils;
  *
  */
 @RestController
-@RequestMapping(path = "/user", produces = "application/json")
+@RequestMapping(path = "/user", produces = { UserController.JSON, UserController.CBOR, UserController.SMILE })
 public class UserController {
 	
+	/*
+	 * Formats of the Users, pages and batches, chosen by the Accept (and Content-Type) header: JSON by default, or
+	 * the binary CBOR and Smile, smaller and faster to encode and decode, for the calls between services.
+	 * See ContentConfig.
+	 */
+	static final String JSON = "application/json";
+
+	static final String CBOR = "application/cbor";
+
+	static final String SMILE = "application/x-jackson-smile";
+
+	// The same formats, in order of preference
+	private static final List<MediaType> FORMATS = MediaType.parseMediaTypes(Arrays.asList(JSON, CBOR, SMILE));
+
+	private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
 	@Autowired
 	private UserService userService;
+
+	private final ObjectMapper objectMapper;
+
+	private final GenerationJobs generationJobs;
 	
 	/**
 	 * Default constructor.
@@ -34,7 +74,31 @@ public class UserController {
 	 * @param userService The Service to make the CRUD operations to our User list
 	 */
 	public UserController(UserService userService) {
+		this(userService, new ObjectMapper());
+	}
+
+	/**
+	 * Constructor with the mapper used to stream the users.
+	 * 
+	 * @param userService The Service to make the CRUD operations to our User list
+	 * @param objectMapper The mapper used to serialize the users of the export
+	 */
+	public UserController(UserService userService, ObjectMapper objectMapper) {
+		this(userService, objectMapper, new GenerationJobs(userService));
+	}
+
+	/**
+	 * Constructor with the mapper used to stream the users and the runner of the generation jobs.
+	 * 
+	 * @param userService The Service to make the CRUD operations to our User list
+	 * @param objectMapper The mapper used to serialize the users of the export
+	 * @param generationJobs The runner of the random generations in the background
+	 */
+	@Autowired
+	public UserController(UserService userService, ObjectMapper objectMapper, GenerationJobs generationJobs) {
 		this.userService = userService;
+		this.objectMapper = objectMapper;
+		this.generationJobs = generationJobs;
 	}
 
 	/**
@@ -84,23 +148,199 @@ public class UserController {
 		return userService.getPreviousPage(page);
 	}
 
+	/**
+	 * Gets a page of N users following the given cursor. Unlike the other page operations, this one
+	 * does not use the shared page cursor, so every client can page through the users independently.
+	 * Users come in insertion order, unless sorted by username, name or email, ignoring case. Sorted pages come from
+	 * views kept sorted as users change, so nothing is sorted on request, and their cursors only work for the same sort.
+	 * Throws an IllegalArgumentException if the cursor or the sort are not valid.
+	 * Throws a 501 ResponseStatusException if sorted but the store is not indexed.
+	 * Answers 304 without a body if no user changed since the page was read, see notModified.
+	 * 
+	 * @param pageSize Amount of users per page
+	 * @param cursor The cursor returned along with the previous page; none to get the first page
+	 * @param sort The field to sort by: username, name or email; none for insertion order
+	 * @param request The request, for its conditional headers; null for none
+	 * @return The page of users, plus the cursor to get the next one (null if this was the last); null if not modified
+	 */
+	@RequestMapping(path = "/page/{size}", method = RequestMethod.GET)
+	public UserPage getPageAfter (
+			@PathVariable(value = "size")						Integer pageSize,
+			@RequestParam(value = "cursor", required = false)	String cursor,
+			@RequestParam(value = "sort", required = false)		String sort,
+			WebRequest request
+			) {
+		
+		SortedBy by = sortedBy(sort);
+		
+		if (notModified(request, userService.getVersion()))
+			return null;
+		
+		if (by == null)
+			return userService.getPage(cursor, pageSize);
+		
+		return withIndexes(() -> userService.getPageSortedBy(by, cursor, pageSize));
+	}
+
+	/**
+	 * Gets a page of N users holding an email, ignoring case, following the given cursor, the same way as getPageAfter.
+	 * Emails are usually unique, but nothing forces them to be: the random generators repeat them now and then.
+	 * Throws an IllegalArgumentException if the cursor is not valid.
+	 * Throws a 501 ResponseStatusException if the store is not indexed.
+	 * Answers 304 without a body if no user changed since the page was read, see notModified.
+	 * 
+	 * @param email The email to find the Users by
+	 * @param pageSize Amount of users per page
+	 * @param cursor The cursor returned along with the previous page; none to get the first page
+	 * @param request The request, for its conditional headers; null for none
+	 * @return The page of users, plus the cursor to get the next one (null if this was the last); null if not modified
+	 */
+	@RequestMapping(path = "/email/{email:.+}/{size}", method = RequestMethod.GET)
+	public UserPage getPageByEmail (
+			@PathVariable(value = "email")						String email,
+			@PathVariable(value = "size")						Integer pageSize,
+			@RequestParam(value = "cursor", required = false)	String cursor,
+			WebRequest request
+			) {
+		
+		if (notModified(request, userService.getVersion()))
+			return null;
+		
+		return withIndexes(() -> userService.getPageByEmail(email, cursor, pageSize));
+	}
+
+	/**
+	 * Gets a page of N users of a gender (male, female or other) following the given cursor, the same way as getPageAfter.
+	 * Throws an IllegalArgumentException if the gender or the cursor are not valid.
+	 * Throws a 501 ResponseStatusException if the store is not indexed.
+	 * Answers 304 without a body if no user changed since the page was read, see notModified.
+	 * 
+	 * @param gender The gender to find the Users by
+	 * @param pageSize Amount of users per page
+	 * @param cursor The cursor returned along with the previous page; none to get the first page
+	 * @param request The request, for its conditional headers; null for none
+	 * @return The page of users, plus the cursor to get the next one (null if this was the last); null if not modified
+	 */
+	@RequestMapping(path = "/gender/{gender}/{size}", method = RequestMethod.GET)
+	public UserPage getPageByGender (
+			@PathVariable(value = "gender")						String gender,
+			@PathVariable(value = "size")						Integer pageSize,
+			@RequestParam(value = "cursor", required = false)	String cursor,
+			WebRequest request
+			) {
+		
+		Gender g;
+		try {
+			g = Gender.valueOf(gender.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(String.format(ErrorUtils.ErrorMsg.INVALID_GENDER.getMsg(), gender));
+		}
+		
+		if (notModified(request, userService.getVersion()))
+			return null;
+		
+		return withIndexes(() -> userService.getPageByGender(g, cursor, pageSize));
+	}
+
+	/**
+	 * Gets a page of N users with an email of a domain (e.g. gmail.com) following the given cursor, the same way as getPageAfter.
+	 * Throws an IllegalArgumentException if the cursor is not valid.
+	 * Throws a 501 ResponseStatusException if the store is not indexed.
+	 * Answers 304 without a body if no user changed since the page was read, see notModified.
+	 * 
+	 * @param domain The email domain to find the Users by
+	 * @param pageSize Amount of users per page
+	 * @param cursor The cursor returned along with the previous page; none to get the first page
+	 * @param request The request, for its conditional headers; null for none
+	 * @return The page of users, plus the cursor to get the next one (null if this was the last); null if not modified
+	 */
+	@RequestMapping(path = "/domain/{domain:.+}/{size}", method = RequestMethod.GET)
+	public UserPage getPageByDomain (
+			@PathVariable(value = "domain")						String domain,
+			@PathVariable(value = "size")						Integer pageSize,
+			@RequestParam(value = "cursor", required = false)	String cursor,
+			WebRequest request
+			) {
+		
+		if (notModified(request, userService.getVersion()))
+			return null;
+		
+		return withIndexes(() -> userService.getPageByDomain(domain, cursor, pageSize));
+	}
+
+	/**
+	 * Searches Users as a query is typed: first the ones whose username starts with it, ignoring case, then the ones
+	 * whose name is the most similar to it, so partial and misspelt names are found too.
+	 * Throws a 501 ResponseStatusException if the store is not indexed.
+	 * 
+	 * @param query The (partial) username or name to search for
+	 * @param limit Maximum amount of users to return (10 by default, 100 at most)
+	 * @return The users found, the best matches first
+	 */
+	@RequestMapping(path = "/search", method = RequestMethod.GET)
+	public List<User> searchUsers (
+			@RequestParam(value = "q")											String query,
+			@RequestParam(value = "limit", required = false, defaultValue = "10")	Integer limit
+			) {
+		
+		return withIndexes(() -> userService.search(query, limit));
+	}
+
+	/**
+	 * Streams every User, in insertion order, either as a JSON array ("json") or as one JSON object per line
+	 * ("ndjson"). The users are written as they are read from the store, in chunks, on a task thread, so exporting
+	 * millions of them neither builds a list of them nor holds a request thread.
+	 * Throws an IllegalArgumentException if the format is not valid.
+	 * Answers 304 without a body if no user changed since they were exported, see notModified.
+	 * 
+	 * @param format The format of the export: json or ndjson
+	 * @param request The request, for its conditional headers; null for none
+	 * @return The streamed users; null if not modified
+	 */
+	@RequestMapping(path = "/export/{format}", method = RequestMethod.GET, produces = { "application/json", "application/x-ndjson" })
+	public ResponseEntity<StreamingResponseBody> exportUsers (
+			@PathVariable(value = "format")	String format,
+			WebRequest request
+			) {
+		
+		if (!format.equals("json") && !format.equals("ndjson"))
+			throw new IllegalArgumentException(String.format(ErrorUtils.ErrorMsg.INVALID_FORMAT.getMsg(), format));
+		
+		boolean ndjson = format.equals("ndjson");
+		// The format comes from the path, not from the Accept header
+		if (notModified(request, userService.getVersion(), ndjson ? NDJSON : MediaType.APPLICATION_JSON))
+			return null;
+		
+		return ResponseEntity.ok()
+				.contentType(ndjson ? NDJSON : MediaType.APPLICATION_JSON)
+				.body(new UserExport(userService.iterateAll(), objectMapper, ndjson));
+	}
+
 	/**
 	 * Gets a User, identified by their username.
 	 * Throws an IllegalArgumentException if no User is found.
+	 * Answers 304 without a body if the User did not change since it was read, see notModified.
 	 * 
 	 * @param username Field to identify the User by
-	 * @return The found User
+	 * @param request The request, for its conditional headers; null for none
+	 * @return The found User; null if not modified
 	 */
 	@RequestMapping(path = "/{username}", method = RequestMethod.GET)
 	public User getUser (
-			@PathVariable(value = "username")	String username
+			@PathVariable(value = "username")	String username,
+			WebRequest request
 			) {
 
+		// Read before the User, so that a change in between leaves the User with an older ETag, never a stale User with a newer one
+		long version = userService.getVersion(username);
 		User u = userService.getOne(username);
 		
 		if (u == null)
 			throw new IllegalArgumentException(String.format(ErrorUtils.ErrorMsg.USERNAME_NOT_FOUND.getMsg(), username));
 		
+		if (notModified(request, version))
+			return null;
+		
 		return u;
 	}
 
@@ -112,7 +352,7 @@ public class UserController {
 	 * @param user The info to create our User with
 	 * @return The created User
 	 */
-	@RequestMapping(path = "/{username}", method = RequestMethod.POST, consumes = "application/json")
+	@RequestMapping(path = "/{username}", method = RequestMethod.POST, consumes = { JSON, CBOR, SMILE })
 	public User createUser (
 			@PathVariable(value = "username")	String username,
 			@RequestBody 						User user
@@ -132,7 +372,7 @@ public class UserController {
 	 * @param user The info to update our User with
 	 * @return The updated User
 	 */
-	@RequestMapping(path = "/{username}", method = RequestMethod.PUT, consumes = "application/json")
+	@RequestMapping(path = "/{username}", method = RequestMethod.PUT, consumes = { JSON, CBOR, SMILE })
 	public User updateUser (
 			@PathVariable(value = "username")	String username,
 			@RequestBody 						User user
@@ -159,7 +399,69 @@ public class UserController {
 	}
 
 	/**
-	 * Generates a number of Users at random using the random user generator api.
+	 * Creates a batch of Users at once. Users whose username is taken or repeated within the batch (or null items) are not
+	 * created, which is told in the result instead of failing the whole batch.
+	 * Throws an IllegalArgumentException if the batch is too large.
+	 * 
+	 * @param users The Users to create
+	 * @return What happened to every User (CREATED, EXISTING or INVALID), in order
+	 */
+	@RequestMapping(path = "/batch/create", method = RequestMethod.POST, consumes = { JSON, CBOR, SMILE })
+	public UserBatchResult createUsers (
+			@RequestBody 						List<User> users
+			) {
+		
+		return userService.createAll(users);
+	}
+
+	/**
+	 * Creates or updates a batch of Users at once: the ones whose username exists are updated, the rest are created.
+	 * Throws an IllegalArgumentException if the batch is too large.
+	 * 
+	 * @param users The Users to create or update
+	 * @return What happened to every User (CREATED, UPDATED or INVALID), in order
+	 */
+	@RequestMapping(path = "/batch/upsert", method = RequestMethod.PUT, consumes = { JSON, CBOR, SMILE })
+	public UserBatchResult upsertUsers (
+			@RequestBody 						List<User> users
+			) {
+		
+		return userService.upsertAll(users);
+	}
+
+	/**
+	 * Deletes a batch of Users at once.
+	 * Throws an IllegalArgumentException if the batch is too large.
+	 * 
+	 * @param usernames The usernames of the Users to delete
+	 * @return What happened to every username (DELETED, NOT_FOUND or INVALID), in order
+	 */
+	@RequestMapping(path = "/batch/delete", method = RequestMethod.POST, consumes = { JSON, CBOR, SMILE })
+	public UserBatchResult deleteUsers (
+			@RequestBody 						List<String> usernames
+			) {
+		
+		return userService.deleteAll(usernames);
+	}
+
+	/**
+	 * Gets a batch of Users at once, identified by their usernames.
+	 * Throws an IllegalArgumentException if the batch is too large.
+	 * 
+	 * @param usernames The usernames to find the Users by
+	 * @return Every User found (FOUND), or NOT_FOUND, in order
+	 */
+	@RequestMapping(path = "/batch/get", method = RequestMethod.POST, consumes = { JSON, CBOR, SMILE })
+	public UserBatchResult getUsers (
+			@RequestBody 						List<String> usernames
+			) {
+		
+		return userService.getAll(usernames);
+	}
+
+	/**
+	 * Generates a number of Users at random using the random user generator api, waiting for them.
+	 * Large amounts are better generated in the background, see startGeneration.
 	 * 
 	 * @param number Amount of Users to generate
 	 * @return The list of generated Users
@@ -171,5 +473,191 @@ public class UserController {
 		
 		return userService.generateRandom(number);
 	}
-	
+
+	/**
+	 * Starts generating a number of Users at random in the background, and returns right away with the job to poll.
+	 * The Users are stored all at once when the job is done, and can be read then, see getGeneratedUsers.
+	 * Throws a 429 ResponseStatusException if too many jobs are running or queued already.
+	 * 
+	 * @param number Amount of Users to generate
+	 * @return The job, queued
+	 */
+	@RequestMapping(path = "/generate/{number}", method = RequestMethod.POST)
+	public ResponseEntity<GenerationJob> startGeneration(
+			@PathVariable(value = "number")	Integer number
+			) {
+		
+		try {
+			return ResponseEntity.status(HttpStatus.ACCEPTED).body(generationJobs.submit(number));
+		} catch (RejectedExecutionException e) {
+			throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, ErrorUtils.ErrorMsg.TOO_MANY_JOBS.getMsg());
+		}
+	}
+
+	/**
+	 * Gets a generation job: its status and the amount of Users generated so far. The Users are read apart, see
+	 * getGeneratedUsers, so polling stays cheap however many were requested.
+	 * Throws an IllegalArgumentException if the job does not exist (or finished long ago).
+	 * 
+	 * @param id The identifier of the job
+	 * @return The job
+	 */
+	@RequestMapping(path = "/generate/jobs/{id}", method = RequestMethod.GET)
+	public GenerationJob getGeneration(
+			@PathVariable(value = "id")	String id
+			) {
+		
+		GenerationJob job = generationJobs.get(id);
+		
+		if (job == null)
+			throw new IllegalArgumentException(String.format(ErrorUtils.ErrorMsg.JOB_NOT_FOUND.getMsg(), id));
+		
+		return job;
+	}
+
+	/**
+	 * Gets a page of N Users generated by a job once done, following the given cursor, the same way as getPageAfter.
+	 * Throws an IllegalArgumentException if the job does not exist (or finished long ago), or the cursor is not valid.
+	 * Throws a 409 ResponseStatusException if the job is not done.
+	 * 
+	 * @param id The identifier of the job
+	 * @param pageSize Amount of users per page
+	 * @param cursor The cursor returned along with the previous page; none to get the first page
+	 * @return The page of users, plus the cursor to get the next one (null if this was the last)
+	 */
+	@RequestMapping(path = "/generate/jobs/{id}/users/{size}", method = RequestMethod.GET)
+	public UserPage getGeneratedUsers(
+			@PathVariable(value = "id")							String id,
+			@PathVariable(value = "size")						Integer pageSize,
+			@RequestParam(value = "cursor", required = false)	String cursor
+			) {
+		
+		UserPage page = getGeneration(id).getPage(cursor, pageSize);
+		
+		if (page == null)
+			throw new ResponseStatusException(HttpStatus.CONFLICT, String.format(ErrorUtils.ErrorMsg.JOB_NOT_DONE.getMsg(), id));
+		
+		return page;
+	}
+
+	/**
+	 * Cancels a generation job, unless it is finished or storing its Users already. Nothing is stored when cancelled.
+	 * Throws an IllegalArgumentException if the job does not exist (or finished long ago).
+	 * 
+	 * @param id The identifier of the job
+	 * @return The job, CANCELLED if it was in time
+	 */
+	@RequestMapping(path = "/generate/jobs/{id}", method = RequestMethod.DELETE)
+	public GenerationJob cancelGeneration(
+			@PathVariable(value = "id")	String id
+			) {
+		
+		GenerationJob job = generationJobs.cancel(id);
+		
+		if (job == null)
+			throw new IllegalArgumentException(String.format(ErrorUtils.ErrorMsg.JOB_NOT_FOUND.getMsg(), id));
+		
+		return job;
+	}
+
+	/**
+	 * Parses the sort of a page, in any case.
+	 * Throws an IllegalArgumentException if the sort is not valid.
+	 * 
+	 * @param sort The field to sort by: username, name or email; none for insertion order
+	 * @return The sort, or null for insertion order
+	 */
+	private static SortedBy sortedBy(String sort) {
+		if (sort == null || sort.isEmpty())
+			return null;
+		try {
+			return SortedBy.valueOf(sort.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(String.format(ErrorUtils.ErrorMsg.INVALID_SORT.getMsg(), sort));
+		}
+	}
+
+	/**
+	 * Runs an operation that needs the indexes of the store.
+	 * Throws a 501 ResponseStatusException if the store is not indexed (see store.indexes.enabled).
+	 * 
+	 * @param operation The operation to run
+	 * @return The result of the operation
+	 */
+	private static <T> T withIndexes(Supplier<T> operation) {
+		try {
+			return operation.get();
+		} catch (UnsupportedOperationException e) {
+			throw new ResponseStatusException(HttpStatus.NOT_IMPLEMENTED, e.getMessage());
+		}
+	}
+
+	/**
+	 * Answers a conditional GET of a representation negotiated through the Accept header. Tags the response with a
+	 * strong ETag made of a version of the store (see UserService.getVersion) and the format the response is written
+	 * in, and tells whether the request's If-None-Match holds that ETag already. If it does, the response is a 304
+	 * without a body, and the caller returns null without reading, let alone serializing, anything. Versions must be
+	 * read before the Users they tag. Does nothing without a request or without a version.
+	 * 
+	 * @param request The request to answer
+	 * @param version The version of the Users to answer with
+	 * @return true if the client has them already
+	 */
+	private boolean notModified(WebRequest request, long version) {
+		if (request == null || version == 0)
+			return false;
+		
+		if (request instanceof NativeWebRequest) {
+			HttpServletResponse response = ((NativeWebRequest) request).getNativeResponse(HttpServletResponse.class);
+			if (response != null)
+				response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+		}
+		return notModified(request, version, negotiatedFormat(request));
+	}
+
+	/**
+	 * Answers a conditional GET of a representation in a known format, the same way as notModified(request, version).
+	 * 
+	 * @param request The request to answer
+	 * @param version The version of the Users to answer with
+	 * @param format The format the response is written in: each one is a different representation, with its own ETag
+	 * @return true if the client has them already
+	 */
+	private boolean notModified(WebRequest request, long version, MediaType format) {
+		if (request == null || version == 0)
+			return false;
+		
+		return request.checkNotModified(String.format("\"%x-%x-%s\"", userService.getVersionEpoch(), version, format.getSubtype()));
+	}
+
+	/**
+	 * Finds the format the message converters will pick for the response: the most specific, most preferred type of
+	 * the Accept header that one of the formats matches, JSON if none does (the request then fails with a 406 anyway).
+	 * 
+	 * @param request The request to answer
+	 * @return The format of the response
+	 */
+	private static MediaType negotiatedFormat(WebRequest request) {
+		String accept = request.getHeader(HttpHeaders.ACCEPT);
+		if (accept == null || accept.isEmpty())
+			return FORMATS.get(0);
+		
+		List<MediaType> accepted;
+		try {
+			accepted = MediaType.parseMediaTypes(accept);
+		} catch (InvalidMediaTypeException e) {
+			return FORMATS.get(0);
+		}
+		MediaType.sortBySpecificityAndQuality(accepted);
+		for (MediaType a : accepted) {
+			if (a.getQualityValue() == 0)
+				continue;
+			for (MediaType f : FORMATS) {
+				if (a.isCompatibleWith(f))
+					return f;
+			}
+		}
+		return FORMATS.get(0);
+	}
+
 }
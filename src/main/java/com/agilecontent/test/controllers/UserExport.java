@@ -0,0 +1,79 @@
+package com.agilecontent.test.controllers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.agilecontent.test.models.User;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Streamed response body holding every User, either as a JSON array or as NDJSON (one JSON object per line).
+ *
+ * Users are pulled from an iterator and written one at a time straight to the response, so no list of them is ever
+ * built: memory stays constant however many Users there are. The output is flushed every few Users, which sends them
+ * as one chunk of a chunked response. Writing blocks while the client does not keep up, and the iterator is not
+ * advanced meanwhile, so a slow client slows the export down instead of piling Users up in memory.
+ *
+ * @author Carlos Melero
+ *
+ */
+public class UserExport implements StreamingResponseBody {
+
+	/**
+	 * Amount of Users written between two flushes, i.e. in each chunk of the response.
+	 */
+	static final int FLUSH_EVERY = 256;
+
+	private final Iterator<User> users;
+
+	private final ObjectMapper objectMapper;
+
+	private final boolean ndjson;
+
+	/**
+	 * Parameterized constructor.
+	 *
+	 * @param users The Users to write, in order
+	 * @param objectMapper The mapper used to serialize every User
+	 * @param ndjson true to write NDJSON, false to write a JSON array
+	 */
+	public UserExport(Iterator<User> users, ObjectMapper objectMapper, boolean ndjson) {
+		this.users = users;
+		this.objectMapper = objectMapper;
+		this.ndjson = ndjson;
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		// Flushing is left to this loop, instead of happening after every User
+		ObjectWriter writer = objectMapper.writerFor(User.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+		try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+			// The response stream is closed by the container
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			if (ndjson)
+				generator.setRootValueSeparator(null);
+			else
+				generator.writeStartArray();
+
+			int written = 0;
+			while (users.hasNext()) {
+				writer.writeValue(generator, users.next());
+				if (ndjson)
+					generator.writeRaw('\n');
+				if (++written % FLUSH_EVERY == 0)
+					generator.flush();
+			}
+
+			if (!ndjson)
+				generator.writeEndArray();
+		}
+	}
+
+}
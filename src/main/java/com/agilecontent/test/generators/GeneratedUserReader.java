@@ -0,0 +1,151 @@
+package com.agilecontent.test.generators;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.utils.ErrorUtils;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Streaming parser for the responses of the random user generator api. Reads the JSON token by token and
+ * hands out each User as soon as its "results" element is complete, skipping every field we don't use.
+ * Neither the response text nor the intermediate GeneratedUser objects are ever kept in memory.
+ * 
+ * @author Carlos Melero
+ *
+ */
+public class GeneratedUserReader {
+
+	/**
+	 * Reads a response from a stream, decoded as UTF-8.
+	 * 
+	 * @param in The response body
+	 * @param sink Receives each User read, in order
+	 * @return The amount of Users read
+	 */
+	public static int read(InputStream in, Consumer<User> sink) {
+		return read(new InputStreamReader(in, StandardCharsets.UTF_8), sink);
+	}
+
+	/**
+	 * Reads a response from a Reader.
+	 * Throws a RuntimeException if the response is not valid, or if it is an error response.
+	 * 
+	 * @param in The response body
+	 * @param sink Receives each User read, in order
+	 * @return The amount of Users read
+	 */
+	public static int read(Reader in, Consumer<User> sink) {
+		int count = 0;
+		boolean results = false;
+
+		try (JsonReader reader = new JsonReader(in)) {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String field = reader.nextName();
+
+				if (field.equals("results")) {
+					reader.beginArray();
+					while (reader.hasNext()) {
+						sink.accept(readUser(reader));
+						count++;
+					}
+					reader.endArray();
+					results = true;
+				} else if (field.equals("error")) {
+					throw new RuntimeException(String.format(ErrorUtils.ErrorMsg.GENERATOR_ERROR.getMsg()));
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		} catch (IOException | IllegalStateException e) {
+			throw new RuntimeException(String.format(ErrorUtils.ErrorMsg.PARSING_ERROR.getMsg()), e);
+		}
+
+		// A response without results should not happen in theory, but it costs little to check
+		if (!results)
+			throw new RuntimeException(String.format(ErrorUtils.ErrorMsg.GENERATOR_ERROR.getMsg()));
+
+		return count;
+	}
+
+	/**
+	 * Reads one element of the "results" array.
+	 */
+	private static User readUser(JsonReader reader) throws IOException {
+		String username = null, first = null, last = null, email = null, gender = null, picture = null;
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+			case "gender":
+				gender = nextString(reader);
+				break;
+			case "email":
+				email = nextString(reader);
+				break;
+			case "name":
+				reader.beginObject();
+				while (reader.hasNext()) {
+					String field = reader.nextName();
+					if (field.equals("first"))
+						first = nextString(reader);
+					else if (field.equals("last"))
+						last = nextString(reader);
+					else
+						reader.skipValue();
+				}
+				reader.endObject();
+				break;
+			case "login":
+				username = readField(reader, "username");
+				break;
+			case "picture":
+				picture = readField(reader, "medium");
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		if (username == null)
+			throw new RuntimeException(String.format(ErrorUtils.ErrorMsg.PARSING_ERROR.getMsg()));
+
+		return new User(username, first + " " + last, email, User.Gender.fromGeneratedValue(gender), picture);
+	}
+
+	/**
+	 * Reads a nested object, keeping only one of its fields.
+	 */
+	private static String readField(JsonReader reader, String name) throws IOException {
+		String value = null;
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (reader.nextName().equals(name))
+				value = nextString(reader);
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+
+		return value;
+	}
+
+	private static String nextString(JsonReader reader) throws IOException {
+		if (reader.peek() == JsonToken.NULL) {
+			reader.nextNull();
+			return null;
+		}
+		return reader.nextString();
+	}
+
+}
@@ -0,0 +1,204 @@
+package com.agilecontent.test.generators;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.agilecontent.test.models.User;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the random user generator api, serving the same JSON format from an embedded HTTP server.
+ * Users come from the SyntheticUserGenerator, and the server can be configured to add latency to every response,
+ * to fail a share of the requests with a 503 error, and to repeat a share of the usernames it already served.
+ * This lets the random generation be benchmarked and soak-tested on an isolated machine.
+ * 
+ * It can also be run on its own: java LocalRandomUserServer [port] [latencyMillis] [errorRate] [duplicateRate]
+ * 
+ * @author Carlos Melero
+ *
+ */
+public class LocalRandomUserServer {
+
+	// Amount of recently served usernames kept to be repeated.
+	private static final int RECENT_USERNAMES = 8192;
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	private final long latencyMillis;
+
+	private final double errorRate;
+
+	private final double duplicateRate;
+
+	// Source of the seeds of every response.
+	private final AtomicLong seeds;
+
+	// Ring of recently served usernames, for the duplicates. Racy on purpose: any old username will do.
+	private final String[] recentUsernames = new String[RECENT_USERNAMES];
+
+	private final AtomicLong served = new AtomicLong();
+
+	/**
+	 * Parameterized constructor. The server does not listen until started.
+	 * 
+	 * @param port Port to listen at on the loopback interface, or 0 to pick any free one
+	 * @param seed The seed all the served Users derive from
+	 * @param latencyMillis Delay added before every response
+	 * @param errorRate Share of the requests, from 0 to 1, answered with an error
+	 * @param duplicateRate Share of the served Users, from 0 to 1, repeating an already served username
+	 * @throws IOException If the port cannot be bound
+	 */
+	public LocalRandomUserServer(int port, long seed, long latencyMillis, double errorRate, double duplicateRate) throws IOException {
+		this.latencyMillis = latencyMillis;
+		this.errorRate = errorRate;
+		this.duplicateRate = duplicateRate;
+		this.seeds = new AtomicLong(seed);
+
+		this.executor = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "local-random-user-server");
+			t.setDaemon(true);
+			return t;
+		});
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.server.createContext("/api/", this::handle);
+		this.server.setExecutor(executor);
+	}
+
+	/**
+	 * Starts listening.
+	 * @return This same server
+	 */
+	public LocalRandomUserServer start() {
+		server.start();
+		return this;
+	}
+
+	/**
+	 * Stops listening and releases the server threads.
+	 */
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Gets the base uri of the api, to which the amount of results is appended, like for randomuser.me.
+	 * @return The base uri
+	 */
+	public String getUri() {
+		return "http://localhost:" + server.getAddress().getPort() + "/api/?results=";
+	}
+
+	/**
+	 * Answers one request to the api.
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			SplittableRandom random = new SplittableRandom(seeds.getAndIncrement());
+
+			if (latencyMillis > 0)
+				Thread.sleep(latencyMillis);
+
+			if (random.nextDouble() < errorRate) {
+				byte[] body = "{\"error\":\"Uh oh, something has gone wrong.\"}".getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "application/json");
+				exchange.sendResponseHeaders(503, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+				return;
+			}
+
+			int results = Math.max(1, Math.min(RandomUserApiGenerator.MAX_RESULTS, parseResults(exchange.getRequestURI().getQuery())));
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, 0);
+
+			try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(new BufferedOutputStream(exchange.getResponseBody()), StandardCharsets.UTF_8))) {
+				writer.beginObject().name("results").beginArray();
+				for (int i = 0; i < results; i++)
+					writeUser(writer, SyntheticUserGenerator.next(random), random);
+				writer.endArray();
+				writer.name("info").beginObject().name("results").value(results).name("page").value(1).name("version").value("1.3").endObject();
+				writer.endObject();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Writes a User with the structure of the "results" elements of the random user generator api.
+	 */
+	private void writeUser(JsonWriter writer, User user, SplittableRandom random) throws IOException {
+		String username = user.getUsername();
+		long n = served.getAndIncrement();
+
+		if (n > 0 && random.nextDouble() < duplicateRate) {
+			String recent = recentUsernames[(int) (random.nextLong(Math.min(n, RECENT_USERNAMES)))];
+			if (recent != null)
+				username = recent;
+		} else {
+			recentUsernames[(int) (n % RECENT_USERNAMES)] = username;
+		}
+
+		String name = user.getName();
+		int space = name.indexOf(' ');
+
+		writer.beginObject();
+		writer.name("gender").value(user.getGender() == User.Gender.FEMALE ? "female" : "male");
+		writer.name("name").beginObject()
+			.name("first").value(name.substring(0, space))
+			.name("last").value(name.substring(space + 1))
+			.endObject();
+		writer.name("email").value(user.getEmail());
+		writer.name("login").beginObject().name("username").value(username).endObject();
+		writer.name("picture").beginObject().name("medium").value(user.getPicture()).endObject();
+		writer.endObject();
+	}
+
+	private static int parseResults(String query) {
+		if (query != null) {
+			for (String param : query.split("&")) {
+				if (param.startsWith("results=")) {
+					try {
+						return Integer.parseInt(param.substring("results=".length()));
+					} catch (NumberFormatException e) {
+						return 1;
+					}
+				}
+			}
+		}
+		return 1;
+	}
+
+	/**
+	 * Runs the server on its own until the process is killed.
+	 * 
+	 * @param args Optional port, latency in milliseconds, error rate and duplicate rate
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = (args.length > 0) ? Integer.parseInt(args[0]) : 9090;
+		long latency = (args.length > 1) ? Long.parseLong(args[1]) : 0;
+		double errorRate = (args.length > 2) ? Double.parseDouble(args[2]) : 0;
+		double duplicateRate = (args.length > 3) ? Double.parseDouble(args[3]) : 0;
+
+		LocalRandomUserServer server = new LocalRandomUserServer(port, 42L, latency, errorRate, duplicateRate).start();
+		System.out.println("Serving random users at " + server.getUri());
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.agilecontent.test.generators;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.agilecontent.test.metrics.UserMetrics;
+import com.agilecontent.test.models.User;
+
+/**
+ * UserGenerator that starts its own LocalRandomUserServer and calls it over HTTP, exactly like it would call the
+ * random user generator api. Exercises the whole network and parsing path without leaving the machine.
+ * 
+ * @author Carlos Melero
+ *
+ */
+public class LocalServerUserGenerator implements UserGenerator {
+
+	private final LocalRandomUserServer server;
+
+	private final RandomUserApiGenerator client;
+
+	/**
+	 * Parameterized constructor. Starts the server on any free port.
+	 * 
+	 * @param seed The seed all the served Users derive from
+	 * @param latencyMillis Delay added before every response
+	 * @param errorRate Share of the requests, from 0 to 1, answered with an error
+	 * @param duplicateRate Share of the served Users, from 0 to 1, repeating an already served username
+	 * @param maxConnections Maximum amount of pooled connections to the server
+	 * @throws IOException If the server cannot be started
+	 */
+	public LocalServerUserGenerator(long seed, long latencyMillis, double errorRate, double duplicateRate, int maxConnections) throws IOException {
+		this(seed, latencyMillis, errorRate, duplicateRate, maxConnections, UserMetrics.noop());
+	}
+
+	/**
+	 * Parameterized constructor. Starts the server on any free port.
+	 * 
+	 * @param seed The seed all the served Users derive from
+	 * @param latencyMillis Delay added before every response
+	 * @param errorRate Share of the requests, from 0 to 1, answered with an error
+	 * @param duplicateRate Share of the served Users, from 0 to 1, repeating an already served username
+	 * @param maxConnections Maximum amount of pooled connections to the server
+	 * @param metrics Where to record the time spent calling the server and parsing its responses
+	 * @throws IOException If the server cannot be started
+	 */
+	public LocalServerUserGenerator(long seed, long latencyMillis, double errorRate, double duplicateRate, int maxConnections,
+			UserMetrics metrics) throws IOException {
+		this.server = new LocalRandomUserServer(0, seed, latencyMillis, errorRate, duplicateRate).start();
+		this.client = new RandomUserApiGenerator(server.getUri(), maxConnections, metrics);
+	}
+
+	@Override
+	public int getMaxResults() {
+		return client.getMaxResults();
+	}
+
+	@Override
+	public List<User> generate(int number) {
+		return client.generate(number);
+	}
+
+	/**
+	 * Closes the connections and stops the server.
+	 */
+	@Override
+	public void close() {
+		client.close();
+		server.stop();
+	}
+
+}
@@ -0,0 +1,125 @@
+package com.agilecontent.test.generators;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import com.agilecontent.test.metrics.UserMetrics;
+import com.agilecontent.test.models.User;
+
+/**
+ * Client of the random user generator api (https://randomuser.me). Keeps one RestTemplate over a pooled
+ * Apache HttpClient, so connections are reused across calls, and parses every response as a stream
+ * through GeneratedUserReader.
+ * 
+ * @author Carlos Melero
+ *
+ */
+public class RandomUserApiGenerator implements UserGenerator {
+
+	/**
+	 * Maximum amount of Users the api returns per call.
+	 */
+	public static final int MAX_RESULTS = 5000;
+
+	// Bytes read from the connection at a time while parsing.
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * Base uri for the random user generation api.
+	 */
+	private final String uri;
+
+	private final CloseableHttpClient httpClient;
+
+	private final RestTemplate restTemplate;
+
+	private final UserMetrics metrics;
+
+	/**
+	 * Parameterized constructor, without metrics.
+	 * 
+	 * @param uri Base uri of the api, to which the amount of results is appended
+	 * @param maxConnections Maximum amount of pooled connections, which should match the calls made in parallel
+	 */
+	public RandomUserApiGenerator(String uri, int maxConnections) {
+		this(uri, maxConnections, UserMetrics.noop());
+	}
+
+	/**
+	 * Parameterized constructor.
+	 * 
+	 * @param uri Base uri of the api, to which the amount of results is appended
+	 * @param maxConnections Maximum amount of pooled connections, which should match the calls made in parallel
+	 * @param metrics Where to record the time spent calling the api and reading its responses
+	 */
+	public RandomUserApiGenerator(String uri, int maxConnections, UserMetrics metrics) {
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+		this.uri = uri;
+		this.metrics = metrics;
+		this.httpClient = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(RequestConfig.custom()
+						.setConnectTimeout(5000)
+						.setSocketTimeout(60000)
+						.build())
+				.build();
+		this.restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+	}
+
+	@Override
+	public int getMaxResults() {
+		return MAX_RESULTS;
+	}
+
+	/**
+	 * Calls the api once. Given that we can only request up to 5000 Users each time, the amount
+	 * is corrected to be within 1 and 5000.
+	 * 
+	 * @param number The number of Users to be generated on this request
+	 * @return The list of Users returned by the request
+	 */
+	@Override
+	public List<User> generate(int number) {
+		int size = Math.max(1, Math.min(MAX_RESULTS, number));
+		List<User> resultList = new ArrayList<User>(size);
+
+		long start = System.nanoTime();
+
+		restTemplate.execute(uri.concat(String.valueOf(size)), HttpMethod.GET, null, response -> {
+			long headers = System.nanoTime();
+			metrics.generatorFetch(headers - start);
+
+			int read = GeneratedUserReader.read(new BufferedInputStream(response.getBody(), BUFFER_SIZE), resultList::add);
+			metrics.generatorResponseRead(System.nanoTime() - headers);
+			return read;
+		});
+
+		return resultList;
+	}
+
+	/**
+	 * Closes the pooled connections.
+	 */
+	@Override
+	public void close() {
+		try {
+			httpClient.close();
+		} catch (IOException e) {
+			// Nothing else to release
+		}
+	}
+
+}
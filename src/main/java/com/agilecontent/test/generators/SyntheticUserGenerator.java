@@ -0,0 +1,115 @@
+package com.agilecontent.test.generators;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+
+/**
+ * In-process generator of random Users shaped like the ones of the random user generator api: usernames such as
+ * "silverfox1234", names taken from fixed lists, example.com emails and randomuser.me portrait urls. It does no I/O,
+ * so it produces millions of Users per second, and it is seeded: the n-th batch generated from a given seed is
+ * always the same, which makes generation runs reproducible for benchmarks and tests.
+ * 
+ * @author Carlos Melero
+ *
+ */
+public class SyntheticUserGenerator implements UserGenerator {
+
+	private static final String[] MALE_NAMES = { "James", "John", "Robert", "Michael", "William", "David", "Carlos",
+			"Lucas", "Hugo", "Mateo", "Noah", "Liam", "Oliver", "Elias", "Leon", "Arthur" };
+
+	private static final String[] FEMALE_NAMES = { "Mary", "Patricia", "Jennifer", "Linda", "Elizabeth", "Lucia",
+			"Sofia", "Martina", "Emma", "Olivia", "Mia", "Hanna", "Lea", "Alice", "Ines", "Nora" };
+
+	private static final String[] LAST_NAMES = { "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller",
+			"Davis", "Martinez", "Lopez", "Wilson", "Moreno", "Muller", "Schmidt", "Dubois", "Martin", "Bernard",
+			"Nielsen", "Jensen", "Virtanen" };
+
+	private static final String[] ADJECTIVES = { "big", "tiny", "silver", "golden", "lazy", "happy", "angry", "sad",
+			"brown", "black", "white", "red", "blue", "green", "orange", "purple", "heavy", "crazy", "ticklish", "yellow",
+			"beautiful", "organic", "smart", "wild" };
+
+	private static final String[] ANIMALS = { "bird", "cat", "dog", "fox", "wolf", "bear", "lion", "tiger", "swan",
+			"duck", "goose", "frog", "fish", "rabbit", "koala", "panda", "zebra", "monkey", "elephant", "snake",
+			"leopard", "peacock", "butterfly", "ladybug" };
+
+	private static final String PICTURE_PREFIX = "https://randomuser.me/api/portraits/med/";
+
+	private final int maxResults;
+
+	// Source of the seeds of every batch. Guarded by this object's monitor.
+	private final SplittableRandom seeds;
+
+	/**
+	 * Parameterized constructor, with batches of up to 5000 Users like the random user generator api.
+	 * 
+	 * @param seed The seed all the generated Users derive from
+	 */
+	public SyntheticUserGenerator(long seed) {
+		this(seed, RandomUserApiGenerator.MAX_RESULTS);
+	}
+
+	/**
+	 * Parameterized constructor.
+	 * 
+	 * @param seed The seed all the generated Users derive from
+	 * @param maxResults The maximum amount of Users per batch
+	 */
+	public SyntheticUserGenerator(long seed, int maxResults) {
+		this.seeds = new SplittableRandom(seed);
+		this.maxResults = maxResults;
+	}
+
+	@Override
+	public int getMaxResults() {
+		return maxResults;
+	}
+
+	@Override
+	public List<User> generate(int number) {
+		int size = Math.max(1, Math.min(maxResults, number));
+		SplittableRandom random;
+		synchronized (this) {
+			random = seeds.split();
+		}
+
+		List<User> users = new ArrayList<User>(size);
+		for (int i = 0; i < size; i++)
+			users.add(next(random));
+		return users;
+	}
+
+	/**
+	 * Generates a single User.
+	 * 
+	 * @param random The source of randomness to use
+	 * @return The new User
+	 */
+	public static User next(SplittableRandom random) {
+		boolean female = random.nextBoolean();
+		String first = pick(random, female ? FEMALE_NAMES : MALE_NAMES);
+		String last = pick(random, LAST_NAMES);
+
+		String username = new StringBuilder(24)
+				.append(pick(random, ADJECTIVES))
+				.append(pick(random, ANIMALS))
+				.append(random.nextInt(100000))
+				.toString();
+		String email = new StringBuilder(first.length() + last.length() + 13)
+				.append(first.toLowerCase()).append('.').append(last.toLowerCase()).append("@example.com")
+				.toString();
+		String picture = new StringBuilder(PICTURE_PREFIX.length() + 12)
+				.append(PICTURE_PREFIX).append(female ? "women/" : "men/").append(random.nextInt(100)).append(".jpg")
+				.toString();
+
+		return new User(username, first + " " + last, email, female ? Gender.FEMALE : Gender.MALE, picture);
+	}
+
+	private static String pick(SplittableRandom random, String[] values) {
+		return values[random.nextInt(values.length)];
+	}
+
+}
@@ -0,0 +1,38 @@
+package com.agilecontent.test.generators;
+
+import java.io.Closeable;
+import java.util.List;
+
+import com.agilecontent.test.models.User;
+
+/**
+ * Source of random Users for the random generation of the UserService. Implementations must be safe to call
+ * from several threads at once, since large generations are split into batches requested concurrently.
+ * 
+ * @author Carlos Melero
+ *
+ */
+public interface UserGenerator extends Closeable {
+
+	/**
+	 * Gets the maximum amount of Users a single call to generate can return.
+	 * @return The maximum amount of Users per call
+	 */
+	int getMaxResults();
+
+	/**
+	 * Generates a batch of random Users. Usernames are not guaranteed to be unique, not even within the batch.
+	 * 
+	 * @param number The number of Users to generate, corrected to be within 1 and getMaxResults()
+	 * @return The list of generated Users
+	 */
+	List<User> generate(int number);
+
+	/**
+	 * Releases any resource held by the generator. Does nothing by default.
+	 */
+	@Override
+	default void close() {
+	}
+
+}
@@ -0,0 +1,227 @@
+package com.agilecontent.test.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Component;
+
+import com.agilecontent.test.stores.OffHeapUserStore;
+import com.agilecontent.test.stores.UserStore;
+import com.agilecontent.test.stores.WriteBehindUserStore;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+/**
+ * Meters of the user management, exposed through the actuator (/api/actuator/prometheus). Request latencies of
+ * every endpoint are already recorded by Spring as "http.server.requests"; these are the business meters on top.
+ * Every meter is registered once, up front, so that recording a value on the hot path allocates nothing.
+ * 
+ * @author Carlos Melero
+ *
+ */
+@Component
+public class UserMetrics {
+
+	private final MeterRegistry registry;
+
+	private final Counter created;
+	private final Counter updated;
+	private final Counter deleted;
+	private final Counter generated;
+	private final Counter rejectedDuplicate;
+	private final Counter rejectedNotFound;
+	private final Counter generatorDiscarded;
+	private final Counter generatorRetries;
+
+	private final Timer generatorBatch;
+	private final Timer generatorFetch;
+	private final Timer generatorResponseRead;
+	private final Timer generatorDedup;
+
+	private final Timer walCommit;
+	private final DistributionSummary walBatch;
+	private final Timer snapshot;
+
+	private final Timer writeBehindFlush;
+	private final DistributionSummary writeBehindBatch;
+	private final Counter writeBehindFailures;
+
+	/**
+	 * Parameterized constructor.
+	 * 
+	 * @param registry The registry to register every meter into
+	 */
+	public UserMetrics(MeterRegistry registry) {
+		this.registry = registry;
+
+		this.created = Counter.builder("users.mutations").tag("operation", "create").register(registry);
+		this.updated = Counter.builder("users.mutations").tag("operation", "update").register(registry);
+		this.deleted = Counter.builder("users.mutations").tag("operation", "delete").register(registry);
+		this.generated = Counter.builder("users.mutations").tag("operation", "generate").register(registry);
+		this.rejectedDuplicate = Counter.builder("users.rejections").tag("reason", "duplicate").register(registry);
+		this.rejectedNotFound = Counter.builder("users.rejections").tag("reason", "not_found").register(registry);
+		this.generatorDiscarded = Counter.builder("generator.discarded")
+				.description("Generated users discarded for having a username already taken").register(registry);
+		this.generatorRetries = Counter.builder("generator.retries")
+				.description("Calls to the random user generator made again after a failure").register(registry);
+
+		this.generatorBatch = timer("generator.batch", "Whole call to the random user generator, for any backend");
+		this.generatorFetch = timer("generator.fetch", "Random user generator api call, until the response starts arriving");
+		// Parsed as it arrives, so this includes the transfer of the body over the network, not only the decoding
+		this.generatorResponseRead = timer("generator.response.read", "Transfer and parsing of a random user generator api response body");
+		this.generatorDedup = timer("generator.dedup", "Deduplication of a batch of generated users");
+
+		this.walCommit = timer("store.wal.commit", "Write and force to disk of a group of write-ahead log records");
+		this.walBatch = DistributionSummary.builder("store.wal.batch")
+				.description("Records forced to disk together by one group commit")
+				.publishPercentiles(0.5, 0.9, 0.99)
+				.register(registry);
+		this.snapshot = timer("store.snapshot", "Collection and write of a snapshot of the whole store");
+
+		this.writeBehindFlush = timer("store.writebehind.flush", "Write of a batch of pending mutations to the persistent store");
+		this.writeBehindBatch = DistributionSummary.builder("store.writebehind.batch")
+				.description("Usernames written together by one write-behind flush")
+				.publishPercentiles(0.5, 0.9, 0.99)
+				.register(registry);
+		this.writeBehindFailures = Counter.builder("store.writebehind.failures")
+				.description("Write-behind flushes failed, and retried").register(registry);
+	}
+
+	/**
+	 * Creates metrics that record nothing, for components created outside of Spring.
+	 * @return The new metrics
+	 */
+	public static UserMetrics noop() {
+		return new UserMetrics(new CompositeMeterRegistry());
+	}
+
+	/**
+	 * Registers the gauges of a store: amount of users and of pages.
+	 * @param store The store to observe
+	 */
+	public void bindStore(UserStore store) {
+		Gauge.builder("users.stored", store, UserStore::size).register(registry);
+		Gauge.builder("users.pages", store, UserStore::getPages).register(registry);
+	}
+
+	/**
+	 * Registers the gauge of a write-behind store: amount of usernames with mutations not yet written.
+	 * @param store The store to observe
+	 */
+	public void bindWriteBehind(WriteBehindUserStore store) {
+		Gauge.builder("store.writebehind.queue", store, WriteBehindUserStore::getQueueDepth).register(registry);
+	}
+
+	/**
+	 * Registers the gauges of an off-heap store: direct memory allocated, taken by records no longer used, and heap
+	 * taken by its index.
+	 * @param store The store to observe
+	 */
+	public void bindOffHeap(OffHeapUserStore store) {
+		Gauge.builder("users.offheap.allocated", store, OffHeapUserStore::getAllocatedBytes).baseUnit("bytes").register(registry);
+		Gauge.builder("users.offheap.dead", store, OffHeapUserStore::getDeadBytes).baseUnit("bytes").register(registry);
+		Gauge.builder("users.offheap.index", store, OffHeapUserStore::getIndexBytes).baseUnit("bytes").register(registry);
+	}
+
+	public void created() {
+		created.increment();
+	}
+
+	public void updated() {
+		updated.increment();
+	}
+
+	public void deleted() {
+		deleted.increment();
+	}
+
+	public void created(int amount) {
+		created.increment(amount);
+	}
+
+	public void updated(int amount) {
+		updated.increment(amount);
+	}
+
+	public void deleted(int amount) {
+		deleted.increment(amount);
+	}
+
+	public void rejectedDuplicate(int amount) {
+		rejectedDuplicate.increment(amount);
+	}
+
+	public void rejectedNotFound(int amount) {
+		rejectedNotFound.increment(amount);
+	}
+
+	public void generated(int amount) {
+		generated.increment(amount);
+	}
+
+	public void rejectedDuplicate() {
+		rejectedDuplicate.increment();
+	}
+
+	public void rejectedNotFound() {
+		rejectedNotFound.increment();
+	}
+
+	public void generatorDiscarded(int amount) {
+		generatorDiscarded.increment(amount);
+	}
+
+	public void generatorRetried() {
+		generatorRetries.increment();
+	}
+
+	/*
+	 * Timers take the elapsed time in nanoseconds, as measured with System.nanoTime()
+	 */
+	public void generatorBatch(long nanos) {
+		generatorBatch.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void generatorFetch(long nanos) {
+		generatorFetch.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void generatorResponseRead(long nanos) {
+		generatorResponseRead.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void generatorDedup(long nanos) {
+		generatorDedup.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void walCommit(int records, long nanos) {
+		walBatch.record(records);
+		walCommit.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void snapshot(long nanos) {
+		snapshot.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void writeBehindFlush(int usernames, long nanos) {
+		writeBehindBatch.record(usernames);
+		writeBehindFlush.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void writeBehindFailure() {
+		writeBehindFailures.increment();
+	}
+
+	private Timer timer(String name, String description) {
+		return Timer.builder(name)
+				.description(description)
+				.publishPercentiles(0.5, 0.9, 0.99)
+				.publishPercentileHistogram()
+				.register(registry);
+	}
+
+}
@@ -0,0 +1,418 @@
+package com.agilecontent.test.models;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+/**
+ * A List implemented as an order-statistic tree (a treap where every node knows the size of its subtree),
+ * plus a hash map from each element to its node. Positional access, insertion and removal, as well as
+ * indexOf/remove/contains of an element, are all O(log n), instead of the O(n) shifts and scans of an ArrayList.
+ * 
+ * The element map means that elements must be distinct (by equals/hashCode): adding an element that is
+ * already contained throws an IllegalArgumentException.
+ * 
+ * @author Carlos Melero
+ *
+ * @param <E> Generic type of the elements
+ */
+class IndexedList<E> extends AbstractList<E> {
+
+	private Node<E> root;
+
+	// Node of each element, to find its position without searching.
+	private final Map<Object, Node<E>> nodes = new HashMap<Object, Node<E>>();
+
+	// Source of the node priorities. Seeded so that the tree shape is reproducible.
+	private final SplittableRandom random = new SplittableRandom(0x5EEDL);
+
+	/**
+	 * Constructor with no elements.
+	 */
+	IndexedList() {
+	}
+
+	/**
+	 * Constructor with an initial Collection of elements, built as a balanced tree in linear time.
+	 * @param elements The initial elements
+	 */
+	IndexedList(Collection<? extends E> elements) {
+		rebuild(elements.toArray());
+	}
+
+	@Override
+	public int size() {
+		return size(root);
+	}
+
+	@Override
+	public E get(int index) {
+		checkIndex(index, size());
+		return nodeAt(index).value;
+	}
+
+	@Override
+	public E set(int index, E e) {
+		checkIndex(index, size());
+		Node<E> n = nodeAt(index);
+		E old = n.value;
+
+		if (!nodes.containsKey(e) || nodes.get(e) == n) {
+			nodes.remove(old);
+			n.value = e;
+			nodes.put(e, n);
+			return old;
+		}
+		throw duplicated(e);
+	}
+
+	@Override
+	public void add(int index, E e) {
+		checkIndex(index, size() + 1);
+		if (nodes.containsKey(e))
+			throw duplicated(e);
+
+		Node<E> x = new Node<E>(e, random.nextInt());
+
+		if (root == null) {
+			root = x;
+		} else if (index == size()) {
+			Node<E> p = rightmost(root);
+			p.right = x;
+			x.parent = p;
+		} else {
+			Node<E> target = nodeAt(index);
+			if (target.left == null) {
+				target.left = x;
+				x.parent = target;
+			} else {
+				Node<E> p = rightmost(target.left);
+				p.right = x;
+				x.parent = p;
+			}
+		}
+
+		for (Node<E> p = x.parent; p != null; p = p.parent)
+			p.size++;
+		while (x.parent != null && x.priority > x.parent.priority)
+			rotateUp(x);
+
+		nodes.put(e, x);
+		modCount++;
+	}
+
+	/**
+	 * Adds every element at the end. When the list is empty, such as when a store is loaded,
+	 * the tree is built balanced in linear time instead of inserting the elements one by one.
+	 */
+	@Override
+	public boolean addAll(Collection<? extends E> c) {
+		if (root != null)
+			return super.addAll(c);
+
+		rebuild(c.toArray());
+		return !c.isEmpty();
+	}
+
+	@Override
+	public E remove(int index) {
+		checkIndex(index, size());
+		Node<E> n = nodeAt(index);
+		removeNode(n);
+		return n.value;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		Node<E> n = nodes.get(o);
+		if (n == null)
+			return false;
+
+		removeNode(n);
+		return true;
+	}
+
+	@Override
+	public int indexOf(Object o) {
+		Node<E> n = nodes.get(o);
+		return (n != null) ? rank(n) : -1;
+	}
+
+	@Override
+	public int lastIndexOf(Object o) {
+		return indexOf(o);
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return nodes.containsKey(o);
+	}
+
+	@Override
+	public void clear() {
+		root = null;
+		nodes.clear();
+		modCount++;
+	}
+
+	/**
+	 * Sorts by copying the elements to an array, sorting it and rebuilding a balanced tree from it.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public void sort(Comparator<? super E> c) {
+		Object[] elements = toArray();
+		Arrays.sort(elements, (Comparator<Object>) c);
+		nodes.clear();
+		rebuild(elements);
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return new Iterator<E>() {
+
+			private Node<E> next = (root != null) ? leftmost(root) : null;
+			private Node<E> last;
+			private int expectedModCount = modCount;
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public E next() {
+				if (modCount != expectedModCount)
+					throw new ConcurrentModificationException();
+				if (next == null)
+					throw new NoSuchElementException();
+
+				last = next;
+				next = successor(next);
+				return last.value;
+			}
+
+			@Override
+			public void remove() {
+				if (last == null)
+					throw new IllegalStateException();
+				if (modCount != expectedModCount)
+					throw new ConcurrentModificationException();
+
+				removeNode(last);
+				last = null;
+				expectedModCount = modCount;
+			}
+		};
+	}
+
+	/**
+	 * Copies a range of elements walking the tree in order, which is O(log n + range size).
+	 * @param fromIndex Index of the first element, inclusive
+	 * @param toIndex Index of the last element, exclusive
+	 * @return A new List with the elements in range
+	 */
+	List<E> copyRange(int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex)
+			throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", size: " + size());
+
+		List<E> range = new ArrayList<E>(toIndex - fromIndex);
+		Node<E> n = (fromIndex < toIndex) ? nodeAt(fromIndex) : null;
+		for (int i = fromIndex; i < toIndex; i++) {
+			range.add(n.value);
+			n = successor(n);
+		}
+		return range;
+	}
+
+	/*
+	 * Tree internals
+	 */
+
+	private Node<E> nodeAt(int index) {
+		Node<E> n = root;
+		while (true) {
+			int leftSize = size(n.left);
+			if (index < leftSize) {
+				n = n.left;
+			} else if (index == leftSize) {
+				return n;
+			} else {
+				index -= leftSize + 1;
+				n = n.right;
+			}
+		}
+	}
+
+	private int rank(Node<E> n) {
+		int rank = size(n.left);
+		for (; n.parent != null; n = n.parent) {
+			if (n == n.parent.right)
+				rank += size(n.parent.left) + 1;
+		}
+		return rank;
+	}
+
+	private void removeNode(Node<E> x) {
+		// Rotate the node down until it has at most one child, keeping the heap order of the priorities
+		while (x.left != null && x.right != null)
+			rotateUp((x.left.priority > x.right.priority) ? x.left : x.right);
+
+		Node<E> child = (x.left != null) ? x.left : x.right;
+		Node<E> p = x.parent;
+		if (child != null)
+			child.parent = p;
+		replaceChild(p, x, child);
+
+		for (; p != null; p = p.parent)
+			p.size--;
+
+		x.left = x.right = x.parent = null;
+		nodes.remove(x.value);
+		modCount++;
+	}
+
+	private void rotateUp(Node<E> x) {
+		Node<E> p = x.parent;
+		Node<E> g = p.parent;
+
+		if (x == p.left) {
+			p.left = x.right;
+			if (x.right != null)
+				x.right.parent = p;
+			x.right = p;
+		} else {
+			p.right = x.left;
+			if (x.left != null)
+				x.left.parent = p;
+			x.left = p;
+		}
+		p.parent = x;
+		x.parent = g;
+		replaceChild(g, p, x);
+
+		p.size = size(p.left) + size(p.right) + 1;
+		x.size = size(x.left) + size(x.right) + 1;
+	}
+
+	private void replaceChild(Node<E> parent, Node<E> oldChild, Node<E> newChild) {
+		if (parent == null)
+			root = newChild;
+		else if (parent.left == oldChild)
+			parent.left = newChild;
+		else
+			parent.right = newChild;
+	}
+
+	/**
+	 * Replaces the contents with a perfectly balanced tree of the given elements. Priorities are drawn
+	 * at random and handed out in breadth-first order from highest to lowest, so the heap order holds.
+	 */
+	private void rebuild(Object[] elements) {
+		root = build(elements, 0, elements.length, null);
+		for (Object e : elements) {
+			if (nodes.containsKey(e)) {
+				nodes.clear();
+				root = null;
+				throw duplicated(e);
+			}
+			nodes.put(e, null);
+		}
+
+		int[] priorities = new int[elements.length];
+		for (int i = 0; i < priorities.length; i++)
+			priorities[i] = random.nextInt();
+		Arrays.sort(priorities);
+
+		List<Node<E>> level = new ArrayList<Node<E>>();
+		if (root != null)
+			level.add(root);
+		int next = priorities.length;
+		while (!level.isEmpty()) {
+			List<Node<E>> below = new ArrayList<Node<E>>();
+			for (Node<E> n : level) {
+				n.priority = priorities[--next];
+				nodes.put(n.value, n);
+				if (n.left != null)
+					below.add(n.left);
+				if (n.right != null)
+					below.add(n.right);
+			}
+			level = below;
+		}
+		modCount++;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Node<E> build(Object[] elements, int from, int to, Node<E> parent) {
+		if (from >= to)
+			return null;
+
+		int mid = (from + to) >>> 1;
+		Node<E> n = new Node<E>((E) elements[mid], 0);
+		n.parent = parent;
+		n.left = build(elements, from, mid, n);
+		n.right = build(elements, mid + 1, to, n);
+		n.size = to - from;
+		return n;
+	}
+
+	private static <E> Node<E> successor(Node<E> n) {
+		if (n.right != null)
+			return leftmost(n.right);
+
+		while (n.parent != null && n == n.parent.right)
+			n = n.parent;
+		return n.parent;
+	}
+
+	private static <E> Node<E> leftmost(Node<E> n) {
+		while (n.left != null)
+			n = n.left;
+		return n;
+	}
+
+	private static <E> Node<E> rightmost(Node<E> n) {
+		while (n.right != null)
+			n = n.right;
+		return n;
+	}
+
+	private static int size(Node<?> n) {
+		return (n != null) ? n.size : 0;
+	}
+
+	private void checkIndex(int index, int bound) {
+		if (index < 0 || index >= bound)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+	}
+
+	private static IllegalArgumentException duplicated(Object e) {
+		return new IllegalArgumentException("Element '" + e + "' is already contained in the list.");
+	}
+
+	/**
+	 * Tree node. The size is the amount of nodes of the subtree rooted at this node.
+	 */
+	private static final class Node<E> {
+		E value;
+		int priority;
+		int size = 1;
+		Node<E> left, right, parent;
+
+		Node(E value, int priority) {
+			this.value = value;
+			this.priority = priority;
+		}
+	}
+
+}
@@ -0,0 +1,53 @@
+package com.agilecontent.test.models;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A PagedList variant that keeps its elements in an order-statistic tree instead of an ArrayList.
+ * Positional insertions and removals, element lookups (contains, remove, getPageOf) and page slicing
+ * are all logarithmic, instead of linear, on the amount of elements. Use it for large lists that are
+ * modified anywhere but at their end.
+ * 
+ * Unlike PagedList, elements must be distinct: adding an element already contained throws an
+ * IllegalArgumentException. Pages are returned as copies instead of views of the contents.
+ * 
+ * @author Carlos Melero
+ *
+ * @param <E> Generic type of the elements
+ */
+public class IndexedPagedList<E> extends PagedList<E> {
+
+	private final IndexedList<E> tree;
+
+	/**
+	 * Constructor with a specific page size and an empty list of elements.
+	 * @param pageSize The size of each page
+	 */
+	public IndexedPagedList(int pageSize) {
+		this(new IndexedList<E>(), pageSize);
+	}
+
+	/**
+	 * Constructor with a specific page size and an initial Collection of elements
+	 * @param elements The list of initial elements
+	 * @param pageSize The size of each page
+	 */
+	public IndexedPagedList(Collection<E> elements, int pageSize) {
+		this(new IndexedList<E>(elements), pageSize);
+	}
+
+	private IndexedPagedList(IndexedList<E> tree, int pageSize) {
+		super(pageSize, tree);
+		this.tree = tree;
+	}
+
+	/**
+	 * Returns a copy of a range of elements, walking the tree in O(log n + range size).
+	 */
+	@Override
+	public List<E> subList(int fromIndex, int toIndex) {
+		return tree.copyRange(fromIndex, toIndex);
+	}
+
+}
@@ -43,7 +43,16 @@ public class PagedList<E> {
 	 * @param pageSize The size of each page
 	 */
 	public PagedList(Collection<E> elements, int pageSize) {
-		this.elements = new ArrayList<E>(elements);
+		this(pageSize, new ArrayList<E>(elements));
+	}
+
+	/**
+	 * Constructor for variants of this class that keep the elements in a different kind of List.
+	 * @param pageSize The size of each page
+	 * @param elements The List to use as contents, as it is (not copied)
+	 */
+	protected PagedList(int pageSize, List<E> elements) {
+		this.elements = elements;
 		this.pageSize = pageSize;
 		this.pages = (elements.size()-1) / pageSize;
 	}
@@ -56,6 +65,14 @@ public class PagedList<E> {
 		return pages + 1;
 	}
 
+	/**
+	 * Gets the size of the pages of this PagedList
+	 * @return The amount of elements per page
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
 	/**
 	 * Gets the total size of the elements of the PagedList
 	 * @return The amount of elements in total
@@ -97,10 +114,20 @@ public class PagedList<E> {
 
 		if (page <= pages && page >= 0) {
 			currentPage = page;
-			return elements.subList(page * pageSize, Math.min(elements.size(), pageSize + page*pageSize));	
+			return subList(page * pageSize, Math.min(elements.size(), pageSize + page*pageSize));	
 		} else return null;
 	}
 
+	/**
+	 * Returns a range of elements by their global position, without moving the page position.
+	 * @param fromIndex Index of the first element, inclusive
+	 * @param toIndex Index of the last element, exclusive
+	 * @return The elements within the range, as a view of the contents
+	 */
+	public List<E> subList(int fromIndex, int toIndex) {
+		return elements.subList(fromIndex, toIndex);
+	}
+
 	/**
 	 * Gets the current page we're in, and moves the position to the next page.
 	 * This means, if we are currently on page N, getPage() will return the contents
@@ -1,19 +1,27 @@
 package com.agilecontent.test.models;
 
+import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
 import javax.validation.constraints.NotNull;
 
 import com.agilecontent.test.utils.ErrorUtils;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 /**
- * Local User model class. Entity annotation provides support for a possible JPA Repository implementation,
+ * Local User model class. Entity annotation provides support for the JPA Repository implementation,
  * plus lets Swagger retrieve the class information to show on the Swagger page.
  * 
  * @author Carlos Melero
  *
  */
 @Entity
+@Table(indexes = @Index(name = "user_insertion_order", columnList = "insertion_order"))
 public class User {
 
 	/**
@@ -23,15 +31,52 @@ public class User {
 	 */
 	public static enum Gender {
 		MALE, FEMALE, OTHER;
+
+		/**
+		 * Maps a gender value of the random user generator api.
+		 * @param value The value found in the api response
+		 * @return The matching Gender
+		 */
+		public static Gender fromGeneratedValue(String value) {
+			if ("male".equals(value))
+				return MALE;
+			else if ("female".equals(value))
+				return FEMALE;
+			// Notice the api is not non-binary inclusive, but that may change in the future
+			return OTHER;
+		}
 	}
 
 	@Id @NotNull
 	private String username;
 	private String name;
 	private String email;
+	@Enumerated(EnumType.STRING)
 	private Gender gender;
 	private String picture;
 
+	/**
+	 * Position of the User in the insertion order, used by the database to page through Users.
+	 * Only set by the JPA store; the in-memory stores keep the order on their own.
+	 */
+	@JsonIgnore
+	@Column(name = "insertion_order")
+	private Long insertionOrder;
+
+	/**
+	 * Version the User was last changed at, see UserStore.getVersion. Only set by the JPA store; the in-memory
+	 * stores keep the versions on their own.
+	 */
+	@JsonIgnore
+	@Column(name = "user_version")
+	private Long version;
+
+	/**
+	 * Empty constructor, required by JPA.
+	 */
+	protected User() {
+	}
+
 	/**
 	 * Parameterized constructor: Raw creation from input data (self-explanatory parameters)
 	 * 
@@ -41,6 +86,7 @@ public class User {
 	 * @param gender
 	 * @param picture
 	 */
+	@JsonCreator
 	public User (String username, String name, String email, Gender gender, String picture) {
 		if (username == null) {
 			throw new IllegalArgumentException(String.format(ErrorUtils.ErrorMsg.NULL_USERNAME.getMsg()));
@@ -65,18 +111,7 @@ public class User {
 		this.name = genUser.name.first + " " + genUser.name.last;
 		this.email = genUser.email;
 		this.picture = genUser.picture.medium;
-
-		switch (genUser.gender) {
-		case "male":
-			this.gender = Gender.MALE;
-			break;
-		case "female":
-			this.gender = Gender.FEMALE;
-			break;
-		// Notice the api is not non-binary inclusive, but that may change in the future
-		default: 
-			this.gender = Gender.OTHER;
-		}
+		this.gender = Gender.fromGeneratedValue(genUser.gender);
 	}
 
 	/**
@@ -122,4 +157,18 @@ public class User {
 	public void setPicture(String picture) {
 		this.picture = picture;
 	}
+
+	public Long getInsertionOrder() {
+		return insertionOrder;
+	}
+	public void setInsertionOrder(Long insertionOrder) {
+		this.insertionOrder = insertionOrder;
+	}
+
+	public Long getVersion() {
+		return version;
+	}
+	public void setVersion(Long version) {
+		this.version = version;
+	}
 }
@@ -0,0 +1,109 @@
+package com.agilecontent.test.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Model class for the answer to a batch operation: one item for each User (or username) of the batch, in the same
+ * order, telling what happened to it.
+ *
+ * @author Carlos Melero
+ *
+ */
+public class UserBatchResult {
+
+	/**
+	 * Enumeration of what may happen to each item of a batch.
+	 * @author Carlos Melero
+	 *
+	 */
+	public static enum Status {
+		CREATED, UPDATED, DELETED, FOUND,
+		// The username is already taken
+		EXISTING,
+		// The username does not exist
+		NOT_FOUND,
+		// The item is null, or its username is repeated within the batch
+		INVALID
+	}
+
+	private final List<Item> items;
+
+	/**
+	 * Parameterized constructor, with room for a number of items.
+	 *
+	 * @param size The amount of items of the batch
+	 */
+	public UserBatchResult(int size) {
+		this.items = new ArrayList<Item>(size);
+	}
+
+	/**
+	 * Adds the result of the next item of the batch.
+	 *
+	 * @param username The username of the item
+	 * @param status What happened to it
+	 * @param user The User stored (or deleted), if any
+	 */
+	public void add(String username, Status status, User user) {
+		items.add(new Item(username, status, user));
+	}
+
+	/**
+	 * Counts the items with a status.
+	 *
+	 * @param status The status to count
+	 * @return The amount of items with that status
+	 */
+	public int count(Status status) {
+		int count = 0;
+		for (Item i : items) {
+			if (i.status == status)
+				count++;
+		}
+		return count;
+	}
+
+	/*
+	 * Getters
+	 */
+	public List<Item> getItems() {
+		return items;
+	}
+
+	public int getSize() {
+		return items.size();
+	}
+
+	/**
+	 * Result of one item of a batch.
+	 */
+	public static class Item {
+
+		private final String username;
+		private final Status status;
+		private final User user;
+
+		Item(String username, Status status, User user) {
+			this.username = username;
+			this.status = status;
+			this.user = user;
+		}
+
+		/*
+		 * Getters
+		 */
+		public String getUsername() {
+			return username;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		public User getUser() {
+			return user;
+		}
+	}
+
+}
@@ -0,0 +1,47 @@
+package com.agilecontent.test.models;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Model class for one page of a stateless, cursor based listing of Users. The cursor is an opaque token:
+ * clients just send it back to get the page that follows, and get a null cursor once there are no more pages.
+ * 
+ * @author Carlos Melero
+ *
+ */
+@JsonIgnoreProperties(value = "size", allowGetters = true)
+public class UserPage {
+
+	private final List<User> users;
+	private final String nextCursor;
+
+	/**
+	 * Parameterized constructor (self-explanatory parameters), also used to read pages back, e.g. by other services
+	 * 
+	 * @param users
+	 * @param nextCursor
+	 */
+	@JsonCreator
+	public UserPage(List<User> users, String nextCursor) {
+		this.users = users;
+		this.nextCursor = nextCursor;
+	}
+
+	/*
+	 * Getters
+	 */
+	public List<User> getUsers() {
+		return users;
+	}
+
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	public int getSize() {
+		return users.size();
+	}
+}
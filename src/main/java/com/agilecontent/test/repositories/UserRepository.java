@@ -0,0 +1,60 @@
+package com.agilecontent.test.repositories;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import com.agilecontent.test.models.User;
+
+/**
+ * Spring Data repository of Users, used by the JPA store. Every listing is ordered by insertion order,
+ * which the database keeps indexed, so that paging is done there instead of in memory.
+ *
+ * @author Carlos Melero
+ *
+ */
+public interface UserRepository extends JpaRepository<User, String> {
+
+	/**
+	 * Finds the Users inserted after a given one, in insertion order (keyset paging).
+	 * @param insertionOrder The insertion order of the last User already seen
+	 * @param pageable The amount of Users to return, normally in the first page
+	 * @return The Users found
+	 */
+	List<User> findByInsertionOrderGreaterThanOrderByInsertionOrder(long insertionOrder, Pageable pageable);
+
+	/**
+	 * Finds which of the given usernames are taken, in a single query.
+	 * @param usernames The usernames to check
+	 * @return The usernames taken
+	 */
+	@Query("select u.username from User u where u.username in :usernames")
+	List<String> findExistingUsernames(@Param("usernames") Collection<String> usernames);
+
+	/**
+	 * Gets the highest insertion order given so far.
+	 * @return The highest insertion order, or null if there are no Users
+	 */
+	@Query("select max(u.insertionOrder) from User u")
+	Long findMaxInsertionOrder();
+
+	/**
+	 * Gets the version a User was last changed at, without reading the User.
+	 * @param username The username of the User
+	 * @return The version, or null if there is no such User (or it has no version)
+	 */
+	@Query("select u.version from User u where u.username = :username")
+	Long findVersion(@Param("username") String username);
+
+	/**
+	 * Gets the highest version given so far.
+	 * @return The highest version, or null if there are no Users
+	 */
+	@Query("select max(u.version) from User u")
+	Long findMaxVersion();
+
+}
@@ -0,0 +1,159 @@
+package com.agilecontent.test.services;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.stores.UserStore;
+
+/**
+ * Deduplication stage of one random generation run. Batches of generated Users are offered to it as they arrive
+ * (possibly from several threads), and it keeps only the Users whose username is neither stored already nor
+ * accepted earlier in the same run, until the requested amount is reached. Every check is a hash lookup, so
+ * the cost is linear on the amount of generated Users, regardless of the size of the store. The store is asked
+ * about a whole batch at once, so that stores backed by a database answer it with one query.
+ * 
+ * @author Carlos Melero
+ *
+ */
+public class GenerationDeduplicator {
+
+	private final UserStore store;
+
+	private final int target;
+
+	// Users accepted so far, by username, in arrival order. Guarded by this object's monitor.
+	private final Map<String, User> accepted;
+
+	/**
+	 * Parameterized constructor.
+	 * 
+	 * @param store The store whose usernames are already taken
+	 * @param target The amount of Users to accept
+	 */
+	public GenerationDeduplicator(UserStore store, int target) {
+		this.store = store;
+		this.target = Math.max(0, target);
+		this.accepted = new LinkedHashMap<String, User>(Math.max(16, this.target * 4 / 3 + 1));
+	}
+
+	/**
+	 * Offers a batch of generated Users.
+	 * 
+	 * @param batch The generated Users
+	 * @return The report of what happened with the batch
+	 */
+	public BatchReport offer(List<User> batch) {
+		int acceptedCount = 0, stored = 0, repeated = 0, unused = 0;
+		Set<String> taken = store.findTaken(batch.stream().map(User::getUsername).collect(Collectors.toList()));
+
+		synchronized (this) {
+			for (User u : batch) {
+				if (accepted.size() >= target)
+					unused++;
+				else if (taken.contains(u.getUsername()))
+					stored++;
+				else if (accepted.putIfAbsent(u.getUsername(), u) != null)
+					repeated++;
+				else
+					acceptedCount++;
+			}
+		}
+
+		return new BatchReport(batch.size(), acceptedCount, stored, repeated, unused);
+	}
+
+	/**
+	 * Checks if the requested amount of Users has been accepted.
+	 * @return true if complete, false if not
+	 */
+	public synchronized boolean isComplete() {
+		return accepted.size() >= target;
+	}
+
+	/**
+	 * Gets the amount of Users still missing to reach the requested amount.
+	 * @return The missing amount
+	 */
+	public synchronized int getMissing() {
+		return target - accepted.size();
+	}
+
+	/**
+	 * Gets the amount of Users accepted so far.
+	 * @return The accepted amount
+	 */
+	public synchronized int getAcceptedCount() {
+		return accepted.size();
+	}
+
+	/**
+	 * Returns the Users accepted so far.
+	 * @return A copy of the accepted Users, in arrival order
+	 */
+	public synchronized List<User> getAccepted() {
+		return new ArrayList<User>(accepted.values());
+	}
+
+	/**
+	 * Outcome of offering one batch: how many candidates were accepted and how many were discarded, and why.
+	 * 
+	 * @author Carlos Melero
+	 *
+	 */
+	public static class BatchReport {
+
+		private final int candidates;
+		private final int accepted;
+		private final int alreadyStored;
+		private final int repeated;
+		private final int unused;
+
+		BatchReport(int candidates, int accepted, int alreadyStored, int repeated, int unused) {
+			this.candidates = candidates;
+			this.accepted = accepted;
+			this.alreadyStored = alreadyStored;
+			this.repeated = repeated;
+			this.unused = unused;
+		}
+
+		@Override
+		public String toString() {
+			return candidates + " candidates, " + accepted + " accepted, " + getDiscarded() + " discarded ("
+					+ alreadyStored + " already stored, " + repeated + " repeated in this generation), "
+					+ unused + " not needed";
+		}
+
+		/*
+		 * Getters
+		 */
+		public int getCandidates() {
+			return candidates;
+		}
+
+		public int getAccepted() {
+			return accepted;
+		}
+
+		public int getDiscarded() {
+			return alreadyStored + repeated;
+		}
+
+		public int getAlreadyStored() {
+			return alreadyStored;
+		}
+
+		public int getRepeated() {
+			return repeated;
+		}
+
+		public int getUnused() {
+			return unused;
+		}
+	}
+
+}
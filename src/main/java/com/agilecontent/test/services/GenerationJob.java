@@ -0,0 +1,224 @@
+package com.agilecontent.test.services;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.UserPage;
+import com.agilecontent.test.utils.CursorUtils;
+import com.agilecontent.test.utils.ErrorUtils;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * One random generation run in the background, as seen by the clients polling it. The Service reports its
+ * progress (Users accepted so far) while generating, and its outcome at the end; clients may cancel it meanwhile.
+ * The generated Users are only stored, all at once, when the job is done, so a cancelled or failed job stores nothing.
+ * Polling a job only returns its progress: the Users it generated are read apart, a page at a time.
+ *
+ * @author Carlos Melero
+ *
+ */
+public class GenerationJob {
+
+	/**
+	 * Enumeration of the states of a job. Every job ends up DONE, FAILED or CANCELLED.
+	 * @author Carlos Melero
+	 *
+	 */
+	public static enum Status {
+		QUEUED, RUNNING, DONE, FAILED, CANCELLED;
+
+		public boolean isFinished() {
+			return this == DONE || this == FAILED || this == CANCELLED;
+		}
+	}
+
+	private final String id;
+
+	private final int requested;
+
+	private final long createdAt = System.currentTimeMillis();
+
+	// Completed when the job is cancelled, to stop waiting for the generator right away.
+	private final CompletableFuture<Void> cancelled = new CompletableFuture<Void>();
+
+	// Guarded by this job's monitor, like every field below.
+	private Status status = Status.QUEUED;
+
+	private int accepted;
+
+	private List<User> users;
+
+	private String error;
+
+	private long finishedAt;
+
+	// Set once the generated Users are being stored, which can no longer be cancelled.
+	private boolean storing;
+
+	/**
+	 * Parameterized constructor.
+	 *
+	 * @param id The identifier of the job
+	 * @param requested The amount of Users to generate
+	 */
+	public GenerationJob(String id, int requested) {
+		this.id = id;
+		this.requested = requested;
+	}
+
+	/**
+	 * Marks the job as running, unless it was cancelled while queued.
+	 * @return true if it should run, false if cancelled
+	 */
+	public synchronized boolean start() {
+		if (status != Status.QUEUED)
+			return false;
+		status = Status.RUNNING;
+		return true;
+	}
+
+	/**
+	 * Records the amount of Users accepted so far.
+	 * @param accepted The amount of Users accepted
+	 */
+	public synchronized void progress(int accepted) {
+		this.accepted = accepted;
+	}
+
+	/**
+	 * Marks the job as storing its Users, unless it was cancelled. From then on, it can no longer be cancelled.
+	 * @return true if the Users should be stored, false if cancelled
+	 */
+	public synchronized boolean startStoring() {
+		if (status != Status.RUNNING)
+			return false;
+		storing = true;
+		return true;
+	}
+
+	/**
+	 * Ends the job with the generated Users, which are already stored.
+	 * @param users The Users generated
+	 */
+	public synchronized void done(List<User> users) {
+		this.users = users;
+		this.accepted = users.size();
+		finish(Status.DONE);
+	}
+
+	/**
+	 * Ends the job with an error. Nothing was stored.
+	 * @param error The cause of the failure
+	 */
+	public synchronized void failed(String error) {
+		if (status.isFinished())
+			return;
+		this.error = error;
+		finish(Status.FAILED);
+	}
+
+	/**
+	 * Cancels the job, unless it is finished or storing its Users already. A queued job never starts, and a running
+	 * one stops at its next step; either way, nothing is stored.
+	 * @return true if cancelled, false if it was too late
+	 */
+	public boolean cancel() {
+		synchronized (this) {
+			if (status.isFinished() || storing)
+				return false;
+			finish(Status.CANCELLED);
+		}
+		cancelled.complete(null);
+		return true;
+	}
+
+	/**
+	 * Checks if the job was cancelled.
+	 * @return true if cancelled
+	 */
+	@JsonIgnore
+	public boolean isCancelled() {
+		return cancelled.isDone();
+	}
+
+	/**
+	 * Gets a future completed when the job is cancelled, to wait for the generator and the cancellation at once.
+	 * @return The cancellation future
+	 */
+	@JsonIgnore
+	public CompletableFuture<Void> getCancellation() {
+		return cancelled;
+	}
+
+	private void finish(Status status) {
+		this.status = status;
+		this.finishedAt = System.currentTimeMillis();
+	}
+
+	/*
+	 * Getters
+	 */
+	public String getId() {
+		return id;
+	}
+
+	public int getRequested() {
+		return requested;
+	}
+
+	public long getCreatedAt() {
+		return createdAt;
+	}
+
+	public synchronized Status getStatus() {
+		return status;
+	}
+
+	public synchronized int getAccepted() {
+		return accepted;
+	}
+
+	/**
+	 * Gets the Users generated, once the job is done.
+	 * @return The Users generated, or null if not done
+	 */
+	@JsonIgnore
+	public synchronized List<User> getUsers() {
+		return users;
+	}
+
+	/**
+	 * Gets a page of the Users generated, once the job is done, following the given cursor. The cursor is the position
+	 * of the first User of the page, as the Users generated never change.
+	 * The page size is bounded between 1 and MAX_PAGESIZE.
+	 * Throws an IllegalArgumentException if the cursor is not valid.
+	 * @param cursor The cursor returned along with the previous page; null to get the first page
+	 * @param pageSize The amount of Users to return
+	 * @return The page of Users, plus the cursor to get the next one (null if this was the last); null if not done
+	 */
+	public synchronized UserPage getPage(String cursor, int pageSize) {
+		if (users == null)
+			return null;
+
+		long from = CursorUtils.decode(cursor);
+		if (from < 0 || from > users.size())
+			throw new IllegalArgumentException(String.format(ErrorUtils.ErrorMsg.INVALID_CURSOR.getMsg(), cursor));
+
+		int to = (int) Math.min(users.size(), from + Math.max(1, Math.min(UserService.MAX_PAGESIZE, pageSize)));
+		return new UserPage(users.subList((int) from, to), (to < users.size()) ? CursorUtils.encode(to) : null);
+	}
+
+	public synchronized String getError() {
+		return error;
+	}
+
+	/**
+	 * Gets when the job finished.
+	 * @return The time it finished at, in milliseconds since the epoch, or 0 if not finished
+	 */
+	public synchronized long getFinishedAt() {
+		return finishedAt;
+	}
+
+}
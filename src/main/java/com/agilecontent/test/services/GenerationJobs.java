@@ -0,0 +1,160 @@
+package com.agilecontent.test.services;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Runs the random generations in the background, so no request thread waits for the generator. Jobs run on a
+ * bounded pool of their own, with a bounded queue: when both are full, new jobs are rejected instead of piling up.
+ * Finished jobs are kept for a while so clients can poll their outcome, then forgotten.
+ *
+ * @author Carlos Melero
+ *
+ */
+@Service
+public class GenerationJobs {
+
+	private static final Logger log = LoggerFactory.getLogger(GenerationJobs.class);
+
+	private static final int DEFAULT_THREADS = 2;
+
+	private static final int DEFAULT_QUEUE = 16;
+
+	private static final long DEFAULT_RETENTION_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+	private final UserService userService;
+
+	private final ThreadPoolExecutor executor;
+
+	private final long retentionMillis;
+
+	private final Map<String, GenerationJob> jobs = new ConcurrentHashMap<String, GenerationJob>();
+
+	/**
+	 * Parameterized constructor, with the default pool, queue and retention.
+	 *
+	 * @param userService The Service generating the Users
+	 */
+	public GenerationJobs(UserService userService) {
+		this(userService, DEFAULT_THREADS, DEFAULT_QUEUE, DEFAULT_RETENTION_MILLIS);
+	}
+
+	/**
+	 * Parameterized constructor, used by Spring.
+	 *
+	 * @param userService The Service generating the Users
+	 * @param threads Maximum amount of jobs running at once
+	 * @param queue Maximum amount of jobs waiting to run
+	 * @param retentionMillis How long finished jobs are kept, in milliseconds
+	 */
+	@Autowired
+	public GenerationJobs(UserService userService, @Value("${generator.jobs.threads:2}") int threads,
+			@Value("${generator.jobs.queue:16}") int queue, @Value("${generator.jobs.retention-ms:600000}") long retentionMillis) {
+		this.userService = userService;
+		this.retentionMillis = retentionMillis;
+
+		AtomicInteger count = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queue), r -> {
+			Thread t = new Thread(r, "generation-job-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Queues a new random generation job.
+	 * Throws a RejectedExecutionException if too many jobs are running or queued already.
+	 *
+	 * @param number Number of Users to generate
+	 * @return The job, queued
+	 */
+	public GenerationJob submit(int number) {
+		purge();
+
+		GenerationJob job = new GenerationJob(UUID.randomUUID().toString(), number);
+		jobs.put(job.getId(), job);
+		try {
+			executor.execute(() -> run(job));
+		} catch (RejectedExecutionException e) {
+			jobs.remove(job.getId());
+			throw e;
+		}
+		return job;
+	}
+
+	/**
+	 * Gets a job, running or finished recently.
+	 *
+	 * @param id The identifier of the job
+	 * @return The job, or null if not found
+	 */
+	public GenerationJob get(String id) {
+		return jobs.get(id);
+	}
+
+	/**
+	 * Cancels a job, unless it is finished or storing its Users already.
+	 *
+	 * @param id The identifier of the job
+	 * @return The job, or null if not found
+	 */
+	public GenerationJob cancel(String id) {
+		GenerationJob job = jobs.get(id);
+		if (job != null)
+			job.cancel();
+		return job;
+	}
+
+	/**
+	 * Cancels every job and stops the job threads when the application shuts down.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		for (GenerationJob job : jobs.values())
+			job.cancel();
+		executor.shutdownNow();
+	}
+
+	private void run(GenerationJob job) {
+		if (!job.start())
+			return;
+		try {
+			job.done(userService.generateRandom(job.getRequested(), job));
+		} catch (CancellationException e) {
+			log.info("Generation job {} cancelled", job.getId());
+		} catch (RuntimeException e) {
+			log.warn("Generation job {} failed", job.getId(), e);
+			job.failed(e.getMessage());
+		}
+	}
+
+	/**
+	 * Forgets the jobs finished longer than the retention ago.
+	 */
+	private void purge() {
+		long oldest = System.currentTimeMillis() - retentionMillis;
+		for (Iterator<GenerationJob> it = jobs.values().iterator(); it.hasNext();) {
+			GenerationJob job = it.next();
+			if (job.getStatus().isFinished() && job.getFinishedAt() < oldest)
+				it.remove();
+		}
+	}
+
+}
@@ -1,83 +1,345 @@
 package com.agilecontent.test.services;
 
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
-
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpServerErrorException;
-import org.springframework.web.client.RestTemplate;
 
-import com.agilecontent.test.models.GeneratedUser;
-import com.agilecontent.test.models.GeneratedUserList;
-import com.agilecontent.test.models.PagedList;
+import com.agilecontent.test.generators.RandomUserApiGenerator;
+import com.agilecontent.test.generators.UserGenerator;
+import com.agilecontent.test.metrics.UserMetrics;
 import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.UserBatchResult;
+import com.agilecontent.test.models.UserBatchResult.Status;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.models.UserPage;
+import com.agilecontent.test.stores.ConcurrentUserStore;
+import com.agilecontent.test.stores.IndexedUserStore;
+import com.agilecontent.test.stores.IndexedUserStore.SortedBy;
+import com.agilecontent.test.stores.UserStore;
 import com.agilecontent.test.utils.ErrorUtils;
-import com.google.gson.Gson;
+import com.agilecontent.test.utils.VirtualThreadUtils;
 
 @Service
 public class UserService {
+
+	private static final Logger log = LoggerFactory.getLogger(UserService.class);
 	
 	private static final int PAGESIZE = 10;
 
+	static final int MAX_PAGESIZE = 1000;
+
+	private static final int MAX_SEARCH_RESULTS = 100;
+
+	private static final int MAX_BATCH = 10000;
+
+	/**
+	 * Default maximum amount of calls to the random user generator in flight at once, across all requests.
+	 */
+	private static final int GENERATOR_PARALLELISM = 4;
+
+	/**
+	 * Calls made for a batch of the random generation before giving up on it, and thus on the whole generation.
+	 */
+	private static final int GENERATOR_ATTEMPTS = 3;
+
 	/**
-	 * In-memory list of users. Empty by default.
+	 * Wait before calling the generator again for a failed batch, multiplied by the attempts made so far.
 	 */
-	private PagedList<User> users;
+	private static final long GENERATOR_RETRY_DELAY_MS = 200;
 
 	/**
 	 * Base uri for the random user generation api.
 	 */
-	private final String randomGeneratorUri = "https://randomuser.me/api/?results=";
+	private static final String RANDOM_GENERATOR_URI = "https://randomuser.me/api/?results=";
+
+	/**
+	 * Store of users. Empty by default.
+	 */
+	private final UserStore users;
+
+	/**
+	 * The same store, if it keeps the indexes by email, domain, gender, name and sort orders; null otherwise, in which
+	 * case finding, searching and sorting the users is not available.
+	 */
+	private final IndexedUserStore indexes;
+
+	/**
+	 * Version of the whole store, bumped once any mutation made through this service has changed it.
+	 */
+	private final AtomicLong version = new AtomicLong(1);
+
+	/**
+	 * Epoch of the versions, so they never match the ones given before a restart.
+	 */
+	private final long versionEpoch = new SecureRandom().nextLong();
+
+	/**
+	 * Shared page cursor used by the page movement operations. Guarded by this service's monitor.
+	 */
+	private int currentPage;
+
+	/**
+	 * Source of the random users, reused by every call.
+	 */
+	private final UserGenerator randomGenerator;
+
+	/**
+	 * Bounded pool of threads making the calls to the random user generator, or one virtual thread per call.
+	 */
+	private final ExecutorService generatorExecutor;
+
+	/**
+	 * Bound of the calls to the generator in flight at once when they run on virtual threads, or null otherwise.
+	 */
+	private final Semaphore generatorPermits;
+
+	/**
+	 * Counters and timers of the operations on the users.
+	 */
+	private final UserMetrics metrics;
 
 	/**
-	 * Empty constructor.
+	 * Empty constructor. Users are kept in memory, indexed.
 	 */
 	public UserService() {
-		this.users = new PagedList<User>(PAGESIZE);
+		this(new IndexedUserStore(new ConcurrentUserStore(PAGESIZE)));
 	}
 
 	/**
-	 * Parameterized constructor.
+	 * Parameterized constructor. Users are kept in memory, indexed.
 	 * 
 	 * @param users List of users to be pre-charged initially.
 	 */
 	public UserService(List<User> users) {
-		this.users = new PagedList<User>(users, PAGESIZE);
+		this(new IndexedUserStore(new ConcurrentUserStore(users, PAGESIZE)));
 	}
 
 	/**
-	 * Moves forward N pages and returns the contents of the page, then
-	 * moves to the next one.
-	 * @param offset The amount of offset to use to move the pages
-	 * @return The page found
+	 * Parameterized constructor. Random users are generated by the random user generator api.
+	 * 
+	 * @param users Store to keep the users in, wrapped in an IndexedUserStore to find, search and sort them.
 	 */
-	public List<User> getCurrentPage() {
-		return users.getPage();
+	public UserService(UserStore users) {
+		this(users, new RandomUserApiGenerator(RANDOM_GENERATOR_URI, GENERATOR_PARALLELISM), GENERATOR_PARALLELISM);
+	}
+
+	/**
+	 * Parameterized constructor, without metrics.
+	 * 
+	 * @param users Store to keep the users in.
+	 * @param randomGenerator Source of the random users.
+	 * @param generatorParallelism Maximum amount of calls to the generator in flight at once.
+	 */
+	public UserService(UserStore users, UserGenerator randomGenerator, int generatorParallelism) {
+		this(users, randomGenerator, generatorParallelism, UserMetrics.noop());
+	}
+
+	/**
+	 * Parameterized constructor, with the calls to the generator on platform threads.
+	 * 
+	 * @param users Store to keep the users in.
+	 * @param randomGenerator Source of the random users.
+	 * @param generatorParallelism Maximum amount of calls to the generator in flight at once.
+	 * @param metrics Where to record the operations on the users.
+	 */
+	public UserService(UserStore users, UserGenerator randomGenerator, int generatorParallelism, UserMetrics metrics) {
+		this(users, randomGenerator, generatorParallelism, metrics, false);
+	}
+
+	/**
+	 * Parameterized constructor, used by Spring.
+	 * 
+	 * @param users Store to keep the users in.
+	 * @param randomGenerator Source of the random users.
+	 * @param generatorParallelism Maximum amount of calls to the generator in flight at once.
+	 * @param metrics Where to record the operations on the users.
+	 * @param virtualThreads Whether the calls to the generator run on virtual threads (Java 21 or later).
+	 */
+	@Autowired
+	public UserService(UserStore users, UserGenerator randomGenerator, @Value("${generator.parallelism:4}") int generatorParallelism,
+			UserMetrics metrics, @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+		this.users = users;
+		this.indexes = (users instanceof IndexedUserStore) ? (IndexedUserStore) users : null;
+		this.randomGenerator = randomGenerator;
+		if (virtualThreads) {
+			this.generatorExecutor = VirtualThreadUtils.newVirtualThreadPerTaskExecutor("user-generator-");
+			this.generatorPermits = new Semaphore(generatorParallelism);
+		} else {
+			this.generatorExecutor = newGeneratorExecutor(generatorParallelism);
+			this.generatorPermits = null;
+		}
+		this.metrics = metrics;
+		metrics.bindStore(this.users);
+	}
+
+	/**
+	 * Returns the contents of the current page, then moves to the next one.
+	 * @return The page found, or null if out of bounds
+	 */
+	public synchronized List<User> getCurrentPage() {
+		List<User> page = users.getPage(currentPage);
+		if (page != null)
+			currentPage++;
+		return page;
 	}
 
 	/**
 	 * Moves forward N pages and returns the contents of the page, then
 	 * moves to the next one.
 	 * @param offset The amount of offset to use to move the pages
-	 * @return The page found
+	 * @return The page found, or null if out of bounds
 	 */
-	public List<User> getNextPage(int offset) {
-		int current = users.getCurrentPage();
-		users.setPage(current+offset);
-		return users.nextPage();
+	public synchronized List<User> getNextPage(int offset) {
+		currentPage = boundPage(currentPage + offset);
+		List<User> page = users.getPage(currentPage);
+		if (page != null)
+			currentPage++;
+		return page;
 	}
 
 	/**
 	 * Moves backward N pages and returns the contents of the page, then
 	 * moves to the previous one.
 	 * @param offset The amount of offset to use to move the pages
-	 * @return The page found
+	 * @return The page found, or null if out of bounds
+	 */
+	public synchronized List<User> getPreviousPage(int offset) {
+		currentPage = boundPage(currentPage - offset);
+		List<User> page = users.getPage(currentPage);
+		if (page != null)
+			currentPage--;
+		return page;
+	}
+
+	/**
+	 * Returns the page that follows the given cursor, without using nor moving the shared page cursor.
+	 * The page size is bounded between 1 and MAX_PAGESIZE.
+	 * @param cursor The cursor returned with the previous page, or null to get the first one
+	 * @param pageSize The amount of Users to return
+	 * @return The page found, with the cursor to the next one
 	 */
-	public List<User> getPreviousPage(int offset) {
-		int current = users.getCurrentPage();
-		users.setPage(current-offset);
-		return users.prevPage();
+	public UserPage getPage(String cursor, int pageSize) {
+		return users.getPageAfter(cursor, Math.max(1, Math.min(MAX_PAGESIZE, pageSize)));
+	}
+
+	/**
+	 * Returns the page of Users sorted by a field that follows the given cursor, without sorting anything: the
+	 * store keeps a sorted view for each field. The page size is bounded between 1 and MAX_PAGESIZE.
+	 * @param by The field to sort by
+	 * @param cursor The cursor returned with the previous page of the same sort, or null to get the first one
+	 * @param pageSize The amount of Users to return
+	 * @return The page found, with the cursor to the next one
+	 */
+	public UserPage getPageSortedBy(SortedBy by, String cursor, int pageSize) {
+		return indexes().getPageSortedBy(by, cursor, Math.max(1, Math.min(MAX_PAGESIZE, pageSize)));
+	}
+
+	/**
+	 * Returns the page of Users holding an email, ignoring case, that follows the given cursor. The page size is
+	 * bounded between 1 and MAX_PAGESIZE.
+	 * @param email The email to find the Users by
+	 * @param cursor The cursor returned with the previous page, or null to get the first one
+	 * @param pageSize The amount of Users to return
+	 * @return The page found, with the cursor to the next one
+	 */
+	public UserPage getPageByEmail(String email, String cursor, int pageSize) {
+		return indexes().getPageByEmail(email, cursor, Math.max(1, Math.min(MAX_PAGESIZE, pageSize)));
+	}
+
+	/**
+	 * Returns the page of Users of a gender that follows the given cursor. The page size is bounded between 1 and MAX_PAGESIZE.
+	 * @param gender The gender to find the Users by
+	 * @param cursor The cursor returned with the previous page, or null to get the first one
+	 * @param pageSize The amount of Users to return
+	 * @return The page found, with the cursor to the next one
+	 */
+	public UserPage getPageByGender(Gender gender, String cursor, int pageSize) {
+		return indexes().getPageByGender(gender, cursor, Math.max(1, Math.min(MAX_PAGESIZE, pageSize)));
+	}
+
+	/**
+	 * Returns the page of Users with an email of a domain that follows the given cursor. The page size is bounded
+	 * between 1 and MAX_PAGESIZE.
+	 * @param domain The email domain to find the Users by, e.g. "example.com"
+	 * @param cursor The cursor returned with the previous page, or null to get the first one
+	 * @param pageSize The amount of Users to return
+	 * @return The page found, with the cursor to the next one
+	 */
+	public UserPage getPageByDomain(String domain, String cursor, int pageSize) {
+		return indexes().getPageByDomain(domain, cursor, Math.max(1, Math.min(MAX_PAGESIZE, pageSize)));
+	}
+
+	/**
+	 * Type-ahead search: returns the Users whose username starts with the query, then the ones with the most similar
+	 * names. The amount of results is bounded between 1 and MAX_SEARCH_RESULTS.
+	 * @param query The (partial) username or name to search for
+	 * @param limit The maximum amount of Users to return
+	 * @return The Users found, the best matches first
+	 */
+	public List<User> search(String query, int limit) {
+		return indexes().search(query, Math.max(1, Math.min(MAX_SEARCH_RESULTS, limit)));
+	}
+
+	/**
+	 * Iterates every User in insertion order, without copying them all at once, for streaming them.
+	 * @return An iterator over the stored Users
+	 */
+	public Iterator<User> iterateAll() {
+		return users.iterator();
+	}
+
+	/**
+	 * Returns the version of the whole store, which changes whenever any User is created, updated, deleted or generated.
+	 * It must be read before the Users it tags.
+	 * @return The version of the store
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * Returns the version a User was last changed at, which only changes when the User does (see UserStore.getVersion).
+	 * It must be read before the User it tags.
+	 * @param username The username of the User
+	 * @return The version of the User, or 0 if not found
+	 */
+	public long getVersion(String username) {
+		return users.getVersion(username);
+	}
+
+	/**
+	 * Returns the epoch the versions belong to, which changes when the application restarts.
+	 * @return The epoch of the versions
+	 */
+	public long getVersionEpoch() {
+		return versionEpoch;
 	}
 
 	/**
@@ -87,7 +349,7 @@ public class UserService {
 	 * @return The User with the specified username, or null if not found
 	 */
 	public User getOne(String username) {
-		return findUserInList(username);
+		return users.get(username);
 	}
 
 	/**
@@ -97,11 +359,13 @@ public class UserService {
 	 * @return The very User we tried to add
 	 */
 	public User create(User user) {
-		if (findUserInList(user.getUsername()) != null)
+		if (users.insert(user) != null) {
+			metrics.rejectedDuplicate();
 			throw new IllegalArgumentException(String.format(ErrorUtils.ErrorMsg.EXISTING_USERNAME.getMsg(), user.getUsername()));
+		}
 
-		users.add(user);
-
+		version.incrementAndGet();
+		metrics.created();
 		return user;
 	}
 
@@ -112,16 +376,15 @@ public class UserService {
 	 * @return The modified User
 	 */
 	public User update(User user) {
-		User updatedUser = findUserInList(user.getUsername());
+		User updatedUser = users.update(user);
 
-		if (updatedUser == null)
+		if (updatedUser == null) {
+			metrics.rejectedNotFound();
 			throw new IllegalArgumentException(String.format(ErrorUtils.ErrorMsg.USERNAME_NOT_FOUND.getMsg(), user.getUsername()));
+		}
 
-		updatedUser.setName(user.getName());
-		updatedUser.setEmail(user.getEmail());
-		updatedUser.setGender(user.getGender());
-		updatedUser.setPicture(user.getPicture());
-
+		version.incrementAndGet();
+		metrics.updated();
 		return updatedUser;
 	}
 
@@ -132,16 +395,158 @@ public class UserService {
 	 * @return The very User we have just deleted
 	 */
 	public User delete(String username) {
-		User deletedUser = findUserInList(username);
+		User deletedUser = users.remove(username);
 
-		if (deletedUser == null)
+		if (deletedUser == null) {
+			metrics.rejectedNotFound();
 			throw new IllegalArgumentException(String.format(ErrorUtils.ErrorMsg.USERNAME_NOT_FOUND.getMsg(), username));
+		}
 
-		users.remove(deletedUser);
-
+		version.incrementAndGet();
+		metrics.deleted();
 		return deletedUser;
 	}
 
+	/**
+	 * Creates a batch of Users with a single store mutation. Null Users, or Users with a username repeated within the
+	 * batch, are left out as INVALID, and the ones already taken as EXISTING.
+	 * Throws an IllegalArgumentException if the batch holds more than MAX_BATCH Users.
+	 * 
+	 * @param batch The Users to create
+	 * @return What happened to every User, in order
+	 */
+	public UserBatchResult createAll(List<User> batch) {
+		List<String> usernames = usernamesOf(batch);
+		boolean[] valid = validate(usernames);
+		List<User> toCreate = select(batch, valid);
+
+		Map<String, User> created = byUsername(users.insertAll(toCreate));
+
+		UserBatchResult result = new UserBatchResult(batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+			String username = usernames.get(i);
+			if (!valid[i])
+				result.add(username, Status.INVALID, null);
+			else if (created.containsKey(username))
+				result.add(username, Status.CREATED, created.get(username));
+			else
+				result.add(username, Status.EXISTING, null);
+		}
+
+		changed(created.size());
+		metrics.created(created.size());
+		metrics.rejectedDuplicate(result.count(Status.EXISTING));
+		return result;
+	}
+
+	/**
+	 * Creates or updates a batch of Users: the existing ones are updated with a single store mutation, then the rest
+	 * are created with another one. Null Users, or Users with a username repeated within the batch, are left out as INVALID.
+	 * Throws an IllegalArgumentException if the batch holds more than MAX_BATCH Users.
+	 * 
+	 * @param batch The Users to create or update
+	 * @return What happened to every User, in order
+	 */
+	public UserBatchResult upsertAll(List<User> batch) {
+		List<String> usernames = usernamesOf(batch);
+		boolean[] valid = validate(usernames);
+		List<User> toUpsert = select(batch, valid);
+
+		Map<String, User> updated = byUsername(users.updateAll(toUpsert));
+		List<User> toCreate = new ArrayList<User>();
+		for (User u : toUpsert) {
+			if (!updated.containsKey(u.getUsername()))
+				toCreate.add(u);
+		}
+		Map<String, User> created = byUsername(users.insertAll(toCreate));
+
+		// Created by someone else in the meantime
+		List<User> toUpdate = new ArrayList<User>();
+		for (User u : toCreate) {
+			if (!created.containsKey(u.getUsername()))
+				toUpdate.add(u);
+		}
+		if (!toUpdate.isEmpty())
+			updated.putAll(byUsername(users.updateAll(toUpdate)));
+
+		UserBatchResult result = new UserBatchResult(batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+			String username = usernames.get(i);
+			if (!valid[i])
+				result.add(username, Status.INVALID, null);
+			else if (created.containsKey(username))
+				result.add(username, Status.CREATED, created.get(username));
+			else if (updated.containsKey(username))
+				result.add(username, Status.UPDATED, updated.get(username));
+			else
+				result.add(username, Status.NOT_FOUND, null);
+		}
+
+		changed(created.size() + updated.size());
+		metrics.created(created.size());
+		metrics.updated(updated.size());
+		return result;
+	}
+
+	/**
+	 * Deletes a batch of Users with a single store mutation. Null or repeated usernames are left out as INVALID.
+	 * Throws an IllegalArgumentException if the batch holds more than MAX_BATCH usernames.
+	 * 
+	 * @param batch The usernames of the Users to delete
+	 * @return What happened to every username, in order
+	 */
+	public UserBatchResult deleteAll(List<String> batch) {
+		boolean[] valid = validate(batch);
+		List<String> toDelete = select(batch, valid);
+
+		Map<String, User> deleted = byUsername(users.removeAll(toDelete));
+
+		UserBatchResult result = new UserBatchResult(batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+			String username = batch.get(i);
+			if (!valid[i])
+				result.add(username, Status.INVALID, null);
+			else if (deleted.containsKey(username))
+				result.add(username, Status.DELETED, deleted.get(username));
+			else
+				result.add(username, Status.NOT_FOUND, null);
+		}
+
+		changed(deleted.size());
+		metrics.deleted(deleted.size());
+		metrics.rejectedNotFound(result.count(Status.NOT_FOUND));
+		return result;
+	}
+
+	/**
+	 * Gets a batch of Users by their usernames, with a single bulk lookup. Null usernames are INVALID.
+	 * Throws an IllegalArgumentException if the batch holds more than MAX_BATCH usernames.
+	 * 
+	 * @param batch The usernames to find the Users by
+	 * @return Every User found, in order
+	 */
+	public UserBatchResult getAll(List<String> batch) {
+		checkBatchSize(batch.size());
+		List<String> toFind = new ArrayList<String>(batch.size());
+		for (String username : batch) {
+			if (username != null)
+				toFind.add(username);
+		}
+
+		Map<String, User> found = users.getAll(toFind);
+
+		UserBatchResult result = new UserBatchResult(batch.size());
+		for (String username : batch) {
+			if (username == null)
+				result.add(null, Status.INVALID, null);
+			else if (found.containsKey(username))
+				result.add(username, Status.FOUND, found.get(username));
+			else
+				result.add(username, Status.NOT_FOUND, null);
+		}
+		return result;
+	}
+
 	/**
 	 * Generates a random number of Users by calling the random user generator api
 	 * 
@@ -149,92 +554,255 @@ public class UserService {
 	 * @return The list of generated Users
 	 */
 	public List<User> generateRandom(Integer number) {
+		return generateRandom(number, null);
+	}
 
-		List<User> addList = new ArrayList<User>();
+	/**
+	 * Generates a random number of Users by calling the random user generator api, for a background job: its progress
+	 * is reported to it, and it can be cancelled meanwhile, in which case nothing is stored and a CancellationException
+	 * is thrown. The generated Users are stored all at once at the end.
+	 * 
+	 * @param number Number of Users to generate
+	 * @param job The job to report to, or null if none
+	 * @return The list of generated Users
+	 */
+	public List<User> generateRandom(Integer number, GenerationJob job) {
+
+		GenerationDeduplicator deduplicator = new GenerationDeduplicator(users, number);
+		BooleanSupplier unneeded = () -> deduplicator.isComplete() || (job != null && job.isCancelled());
 
 		/*
-		 * We loop the call to the random user generator so that we are sure to obtain exactly the amount
-		 * of users requested. Multiple calls could be a consequence of:
-		 *  - Very large amount of users requested: Every call to the api has a maximum of 5000 results
-		 *  - Duplicated usernames: Usernames could be duplicated between requests to the api or even
-		 *    within the same one (not sure about this part, but we check for that just in case) 
+		 * Every call to the generator has a maximum of results (5000 for the api), so large amounts are split into batches that
+		 * are requested concurrently on the generator executor. Batches go through the deduplicator as they
+		 * arrive, and we stop waiting as soon as it has enough. Duplicated usernames (between batches or with
+		 * our list) mean we could fall short, in which case we do another round for the missing amount only.
+		 * A failed call is retried a few times, so that a single transient error does not waste the other batches.
 		 */
-		while (addList.size() < number) {
+		while (!deduplicator.isComplete()) {
+			if (job != null && job.isCancelled())
+				throw new CancellationException();
+
+			CompletableFuture<Void> targetReached = new CompletableFuture<Void>();
+			List<CompletableFuture<Void>> batches = new ArrayList<CompletableFuture<Void>>();
+
+			for (int missing = deduplicator.getMissing(); missing > 0; missing -= randomGenerator.getMaxResults()) {
+				final int batchSize = Math.min(missing, randomGenerator.getMaxResults());
+				// Deduplicated on the same task, so the next batch queued on the executor already sees the result
+				batches.add(CompletableFuture.runAsync(() -> {
+					List<User> batch = generateBatch(batchSize, unneeded);
+					if (batch.isEmpty())
+						return;
+
+					long start = System.nanoTime();
+					GenerationDeduplicator.BatchReport report = deduplicator.offer(batch);
+					metrics.generatorDedup(System.nanoTime() - start);
+					metrics.generatorDiscarded(report.getDiscarded());
+
+					log.info("Random generation batch: {}", report);
+					if (job != null)
+						job.progress(deduplicator.getAcceptedCount());
+					if (deduplicator.isComplete())
+						targetReached.complete(null);
+				}, generatorExecutor));
+			}
+
 			try {
-				addList.addAll(generateRandomUsers(number - addList.size()));
-			} catch (HttpServerErrorException e) {
-				throw new RuntimeException(String.format(ErrorUtils.ErrorMsg.TOO_MANY_REQUESTS.getMsg()));
+				CompletableFuture<Void> allBatches = CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0]));
+				if (job != null)
+					CompletableFuture.anyOf(targetReached, allBatches, job.getCancellation()).join();
+				else
+					CompletableFuture.anyOf(targetReached, allBatches).join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof HttpServerErrorException)
+					throw new RuntimeException(String.format(ErrorUtils.ErrorMsg.TOO_MANY_REQUESTS.getMsg(), e.getCause().getMessage()));
+				throw (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause() : e;
+			} finally {
+				// Batches still queued on the executor are dropped without running; running ones see they are unneeded
+				for (CompletableFuture<Void> batch : batches)
+					batch.cancel(false);
 			}
 		}
 
-		users.addAll(addList);
+		if (job != null && !job.startStoring())
+			throw new CancellationException();
 
-		return addList;
+		// The store skips any username created by someone else in the meantime
+		List<User> generated = users.insertAll(deduplicator.getAccepted());
+		changed(generated.size());
+		metrics.generated(generated.size());
+		return generated;
 	}
 
 	/**
-	 * Private sub-method to call the api as many times as needed, given that we can only request the random generator
-	 * to give us up to 5000 Users each time, and usernames generated are not forced to be unique when called.
-	 * 
-	 * @param number The number of Users to be generated on this request
-	 * @return The list of Users returned by the request
+	 * Stops the generator threads when the application shuts down.
 	 */
-	private List<User> generateRandomUsers(Integer number) {
+	@PreDestroy
+	public void shutdown() {
+		generatorExecutor.shutdownNow();
+	}
 
-		String size = String.valueOf(number);
+	/**
+	 * Calls the random user generator for a batch, calling it again up to GENERATOR_ATTEMPTS times in all if it fails.
+	 * Nothing is called once the batch is not needed anymore. Throws the last failure if every attempt fails.
+	 * 
+	 * @param size Amount of Users to ask for
+	 * @param unneeded Tells whether the batch is not needed anymore: the generation has enough Users, or was cancelled
+	 * @return The Users returned by the generator, or none if the batch is not needed anymore
+	 */
+	private List<User> generateBatch(int size, BooleanSupplier unneeded) {
+		for (int attempt = 1;; attempt++) {
+			if (unneeded.getAsBoolean())
+				return Collections.emptyList();
+			try {
+				return callGenerator(size, unneeded);
+			} catch (RuntimeException e) {
+				if (unneeded.getAsBoolean())
+					return Collections.emptyList();
+				if (attempt == GENERATOR_ATTEMPTS)
+					throw e;
+				log.warn("Random generation batch of {} users failed (attempt {} of {}), retrying: {}", size, attempt,
+						GENERATOR_ATTEMPTS, e.getMessage());
+				metrics.generatorRetried();
+				try {
+					Thread.sleep(GENERATOR_RETRY_DELAY_MS * attempt);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
 
-		/*
-		 * Number correction so we're always making correct calls. "number" variable here
-		 * will in theory never reach this point if it was less than 0, but we make sure anyway
-		 */
-		if (number < 1)
-			size = "1";
-		else if (number > 5000)
-			size = "5000";
+	/**
+	 * Calls the random user generator once, timing the whole call. On virtual threads, which are not bounded, it
+	 * waits first until fewer than the given parallelism calls are in flight, and skips the call if the batch is not
+	 * needed anymore by then.
+	 * 
+	 * @param size Amount of Users to ask for
+	 * @param unneeded Tells whether the batch is not needed anymore
+	 * @return The Users returned by the generator, or none if the batch is not needed anymore
+	 */
+	private List<User> callGenerator(int size, BooleanSupplier unneeded) {
+		if (generatorPermits != null)
+			generatorPermits.acquireUninterruptibly();
+		try {
+			if (generatorPermits != null && unneeded.getAsBoolean())
+				return Collections.emptyList();
+
+			long start = System.nanoTime();
+			try {
+				return randomGenerator.generate(size);
+			} finally {
+				metrics.generatorBatch(System.nanoTime() - start);
+			}
+		} finally {
+			if (generatorPermits != null)
+				generatorPermits.release();
+		}
+	}
 
-		String searchUri = randomGeneratorUri.concat(size);
+	/**
+	 * Tells which usernames of a batch are valid: not null (nor of a null User), and not repeated within the batch (only the first one is).
+	 * Throws an IllegalArgumentException if the batch holds more than MAX_BATCH usernames.
+	 * 
+	 * @param usernames The usernames of the batch, in order
+	 * @return Whether each username is valid
+	 */
+	private static boolean[] validate(List<String> usernames) {
+		checkBatchSize(usernames.size());
+
+		boolean[] valid = new boolean[usernames.size()];
+		Set<String> seen = new HashSet<String>();
+		for (int i = 0; i < valid.length; i++) {
+			String username = usernames.get(i);
+			valid[i] = username != null && seen.add(username);
+		}
+		return valid;
+	}
 
-		// We call the random generator service through RestTemplate
-		RestTemplate restTemplate = new RestTemplate();
-		String jsonResult = restTemplate.getForObject( searchUri , String.class);
+	/**
+	 * Bumps the version of the store, if a mutation changed any User.
+	 * @param count The amount of Users changed
+	 */
+	private void changed(int count) {
+		if (count > 0)
+			version.incrementAndGet();
+	}
 
-		// We map the result to a Json through Gson library (thanks Google)
-		Gson gson = new Gson();
-		GeneratedUserList list = gson.fromJson(jsonResult, GeneratedUserList.class);
+	/**
+	 * Gets the indexes of the store.
+	 * Throws an UnsupportedOperationException if the store is not indexed.
+	 * @return The indexed store
+	 */
+	private IndexedUserStore indexes() {
+		if (indexes == null)
+			throw new UnsupportedOperationException(ErrorUtils.ErrorMsg.INDEXES_DISABLED.getMsg());
+		return indexes;
+	}
 
-		// A parsing error should not happen in theory, but it costs little to check
-		if (list == null)
-			throw new RuntimeException(String.format(ErrorUtils.ErrorMsg.GENERATOR_ERROR.getMsg()));
+	private static void checkBatchSize(int size) {
+		if (size > MAX_BATCH)
+			throw new IllegalArgumentException(String.format(ErrorUtils.ErrorMsg.BATCH_TOO_LARGE.getMsg(), MAX_BATCH));
+	}
 
-		// We discard the Users whose username is already present in our list
-		List<User> resultList = new ArrayList<User>();
-		for (GeneratedUser u : list.getUsers()) {
-			if (findUserInList(u.getUsername()) == null)
-				resultList.add(new User(u));
+	private static <T> List<T> select(List<T> batch, boolean[] valid) {
+		List<T> selected = new ArrayList<T>(batch.size());
+		for (int i = 0; i < valid.length; i++) {
+			if (valid[i])
+				selected.add(batch.get(i));
 		}
+		return selected;
+	}
+
+	private static List<String> usernamesOf(List<User> batch) {
+		List<String> usernames = new ArrayList<String>(batch.size());
+		for (User u : batch)
+			usernames.add((u != null) ? u.getUsername() : null);
+		return usernames;
+	}
 
-		return resultList;
+	private static Map<String, User> byUsername(List<User> users) {
+		Map<String, User> byUsername = new HashMap<String, User>();
+		for (User u : users)
+			byUsername.put(u.getUsername(), u);
+		return byUsername;
 	}
 
 	/**
-	 * Auxiliary function to find and return a user in our list by only specifying its username.
+	 * Keeps a page index within [-1, pages], the same way PagedList.setPage does, so that
+	 * moving out of bounds returns null instead of wrapping around.
 	 * 
-	 * @param username The username to identify the User by
-	 * @return The found User; if not found, null is returned
+	 * @param pageIndex The desired page index
+	 * @return The page index, bounded
 	 */
-	private User findUserInList(String username) {
-		return users.stream().filter(u -> u.getUsername().equals(username)).collect(Collectors.collectingAndThen(
-				Collectors.toList(),
-				list -> {
-					if (list.size() < 1)
-						return null;
-					else if (list.size() > 1) {
-						throw new IllegalArgumentException(String.format(ErrorUtils.ErrorMsg.USERNAME_NOT_FOUND.getMsg(), username));
-					}
+	private int boundPage(int pageIndex) {
+		int pages = users.getPages();
+		if (pageIndex < 0)
+			return -1;
+		else if (pageIndex >= pages)
+			return pages;
+		return pageIndex;
+	}
 
-					return list.get(0);
-				}
-				));
+	/**
+	 * Creates the bounded pool for the calls to the random user generator. Its threads are daemons
+	 * and time out when idle, so Services created outside of Spring (tests) don't need to be shut down.
+	 * 
+	 * @param parallelism The amount of threads
+	 * @return The new executor
+	 */
+	private static ExecutorService newGeneratorExecutor(int parallelism) {
+		AtomicInteger count = new AtomicInteger();
+		ThreadFactory factory = r -> {
+			Thread t = new Thread(r, "user-generator-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism,
+				30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), factory);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
 	}
 
 }
@@ -0,0 +1,336 @@
+package com.agilecontent.test.stores;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.agilecontent.test.models.IndexedPagedList;
+import com.agilecontent.test.models.PagedList;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.UserPage;
+import com.agilecontent.test.utils.CursorUtils;
+import com.agilecontent.test.utils.ErrorUtils;
+
+/**
+ * Thread-safe UserStore. Lookups by username go straight to a ConcurrentHashMap without any locking.
+ * Updates of an existing User are serialized per username through a set of striped locks, so updates
+ * of different Users never wait on each other. Stored Users are never modified: an update builds a new User
+ * and swaps it into the single Entry the map, the ordered list and the sequence map share, so readers always
+ * see either the previous User or the new one, whole. Structural changes (insertions and removals) also need
+ * the write lock of the ordered PagedList, while page reads share its read lock.
+ * Every User also gets an insertion sequence number, kept in a skip list so that cursor based pages can
+ * be sought in logarithmic time without any locking, and the version it was last changed at, kept in its Entry.
+ * 
+ * @author Carlos Melero
+ *
+ */
+public class ConcurrentUserStore implements UserStore {
+
+	// Amount of Users copied under the read lock on each step of an iteration.
+	private static final int ITERATION_CHUNK = 1024;
+
+	// Users indexed by their username. Always holds the same Users as the ordered list.
+	private final ConcurrentHashMap<String, Entry> index;
+
+	// Users in insertion order, split into pages. Guarded by orderLock. Indexed, so removals are O(log n).
+	private final PagedList<Entry> ordered;
+
+	// Users keyed by their insertion sequence, for the cursor based pages.
+	private final ConcurrentSkipListMap<Long, Entry> bySequence = new ConcurrentSkipListMap<Long, Entry>();
+
+	// Last insertion sequence given. Guarded by the write lock of orderLock.
+	private long lastSequence = 0L;
+
+	// Last version given to a created or updated User.
+	private final AtomicLong lastVersion = new AtomicLong();
+
+	private final int pageSize;
+
+	private final ReentrantReadWriteLock orderLock = new ReentrantReadWriteLock();
+
+	// Locks for updates, picked by username hash. Length is always a power of two.
+	private final ReentrantLock[] stripes;
+
+	/**
+	 * Constructor with a specific page size and no Users.
+	 * @param pageSize The size of each page
+	 */
+	public ConcurrentUserStore(int pageSize) {
+		this(Collections.<User>emptyList(), pageSize);
+	}
+
+	/**
+	 * Constructor with a specific page size and an initial list of Users.
+	 * Throws an IllegalArgumentException if a username is repeated within the list.
+	 * @param users The list of initial Users
+	 * @param pageSize The size of each page
+	 */
+	public ConcurrentUserStore(Collection<User> users, int pageSize) {
+		this.pageSize = pageSize;
+		this.index = new ConcurrentHashMap<String, Entry>(Math.max(16, users.size() * 4 / 3 + 1));
+
+		List<Entry> entries = new ArrayList<Entry>(users.size());
+		for (User u : users) {
+			Entry e = index(u);
+			if (e == null)
+				throw new IllegalArgumentException(String.format(ErrorUtils.ErrorMsg.DUPLICATED_VALUE.getMsg(), u.getUsername()));
+			entries.add(e);
+		}
+		this.ordered = new IndexedPagedList<Entry>(entries, pageSize);
+
+		this.stripes = new ReentrantLock[Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 8)];
+		for (int i = 0; i < stripes.length; i++)
+			stripes[i] = new ReentrantLock();
+	}
+
+	@Override
+	public User get(String username) {
+		Entry e = index.get(username);
+		return (e != null) ? e.user : null;
+	}
+
+	@Override
+	public long getVersion(String username) {
+		Entry e = index.get(username);
+		return (e != null) ? e.version : 0L;
+	}
+
+	@Override
+	public User insert(User user) {
+		orderLock.writeLock().lock();
+		try {
+			Entry e = index(user);
+			if (e != null) {
+				ordered.add(e);
+				return null;
+			}
+			return index.get(user.getUsername()).user;
+		} finally {
+			orderLock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public List<User> insertAll(Collection<User> users) {
+		List<User> inserted = new ArrayList<User>(users.size());
+		List<Entry> entries = new ArrayList<Entry>(users.size());
+
+		orderLock.writeLock().lock();
+		try {
+			for (User u : users) {
+				Entry e = index(u);
+				if (e != null) {
+					inserted.add(u);
+					entries.add(e);
+				}
+			}
+			ordered.addAll(entries);
+		} finally {
+			orderLock.writeLock().unlock();
+		}
+
+		return inserted;
+	}
+
+	@Override
+	public User update(User user) {
+		ReentrantLock stripe = stripeFor(user.getUsername());
+
+		stripe.lock();
+		try {
+			Entry e = index.get(user.getUsername());
+			if (e == null)
+				return null;
+
+			// A copy, so that the caller cannot change the stored User afterwards
+			User updatedUser = new User(user.getUsername(), user.getName(), user.getEmail(), user.getGender(), user.getPicture());
+			e.user = updatedUser;
+			e.version = lastVersion.incrementAndGet();
+
+			return updatedUser;
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	@Override
+	public User remove(String username) {
+		orderLock.writeLock().lock();
+		try {
+			Entry removed = index.remove(username);
+			if (removed == null)
+				return null;
+
+			ordered.remove(removed);
+			bySequence.remove(removed.sequence);
+			return removed.user;
+		} finally {
+			orderLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes every User under a single acquisition of the write lock.
+	 */
+	@Override
+	public List<User> removeAll(Collection<String> usernames) {
+		orderLock.writeLock().lock();
+		try {
+			return UserStore.super.removeAll(usernames);
+		} finally {
+			orderLock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		return index.size();
+	}
+
+	@Override
+	public int getPages() {
+		orderLock.readLock().lock();
+		try {
+			return ordered.getPages();
+		} finally {
+			orderLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<User> getPage(int pageIndex) {
+		orderLock.readLock().lock();
+		try {
+			if (pageIndex < 0 || pageIndex >= ordered.getPages())
+				return null;
+
+			return copyRange(pageIndex * pageSize, pageSize);
+		} finally {
+			orderLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public UserPage getPageAfter(String cursor, int pageSize) {
+		long after = CursorUtils.decode(cursor);
+		List<User> page = new ArrayList<User>(pageSize);
+		long last = after;
+		boolean more = false;
+
+		for (Map.Entry<Long, Entry> e : bySequence.tailMap(after, false).entrySet()) {
+			if (page.size() == pageSize) {
+				more = true;
+				break;
+			}
+			page.add(e.getValue().user);
+			last = e.getKey();
+		}
+
+		return new UserPage(page, more ? CursorUtils.encode(last) : null);
+	}
+
+	/**
+	 * Iterates the Users in chunks, copying each chunk under the read lock. Writers are thus never
+	 * blocked for the whole iteration, at the cost of not seeing a single consistent snapshot.
+	 */
+	@Override
+	public Iterator<User> iterator() {
+		return new Iterator<User>() {
+
+			private int position = 0;
+			private List<User> chunk = Collections.emptyList();
+			private int chunkIndex = 0;
+
+			@Override
+			public boolean hasNext() {
+				if (chunkIndex < chunk.size())
+					return true;
+
+				orderLock.readLock().lock();
+				try {
+					chunk = copyRange(position, ITERATION_CHUNK);
+				} finally {
+					orderLock.readLock().unlock();
+				}
+				chunkIndex = 0;
+				position += chunk.size();
+
+				return !chunk.isEmpty();
+			}
+
+			@Override
+			public User next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return chunk.get(chunkIndex++);
+			}
+		};
+	}
+
+	/**
+	 * Copies a range of the ordered list. Must be called holding the read lock.
+	 * @param from Index of the first element to copy
+	 * @param length Maximum amount of elements to copy
+	 * @return The copied elements, empty if out of bounds
+	 */
+	private List<User> copyRange(int from, int length) {
+		int size = ordered.size();
+		if (from >= size)
+			return new ArrayList<User>();
+
+		List<Entry> range = ordered.subList(from, Math.min(size, from + length));
+		List<User> users = new ArrayList<User>(range.size());
+		for (Entry e : range)
+			users.add(e.user);
+		return users;
+	}
+
+	/**
+	 * Puts a User in the username index and the sequence map, unless the username is taken.
+	 * Must be called holding the write lock (or from the constructor).
+	 * @param user The User to index
+	 * @return The new Entry of the User, or null if the username was already taken
+	 */
+	private Entry index(User user) {
+		Entry e = new Entry(lastSequence + 1, user, lastVersion.incrementAndGet());
+		if (index.putIfAbsent(user.getUsername(), e) != null)
+			return null;
+
+		lastSequence = e.sequence;
+		bySequence.put(e.sequence, e);
+		return e;
+	}
+
+	private ReentrantLock stripeFor(String username) {
+		int h = username.hashCode();
+		h ^= (h >>> 16);
+		return stripes[h & (stripes.length - 1)];
+	}
+
+	/**
+	 * A stored User along with its insertion sequence and version. Compared by identity, as the ordered list needs.
+	 */
+	private static class Entry {
+		final long sequence;
+		// Replaced as a whole on every update, under the stripe of its username
+		volatile User user;
+		// Set after the user on every update, so a version read before the user is never newer
+		volatile long version;
+
+		Entry(long sequence, User user, long version) {
+			this.sequence = sequence;
+			this.user = user;
+			this.version = version;
+		}
+	}
+
+}
@@ -0,0 +1,588 @@
+package com.agilecontent.test.stores;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.agilecontent.test.metrics.UserMetrics;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.UserPage;
+import com.agilecontent.test.utils.ErrorUtils;
+
+/**
+ * UserStore that survives restarts. Every mutation is first recorded in a WriteAheadLog, and only applied to an
+ * in-memory store, and returned, once the record is on disk: a mutation that could not be logged is never seen.
+ *
+ * Every so often, the whole store is written to a snapshot, so that the log does not grow forever. Each snapshot
+ * starts a new generation: the log is rolled over to a new segment at the very moment the Users are collected, so
+ * snapshot N plus segments N, N+1... always hold every mutation. Older snapshots and segments are deleted once
+ * the new snapshot is on disk. When opened, the latest snapshot is loaded (memory-mapped, see SnapshotFile) and
+ * the segments that follow it are replayed, so the in-memory store ends up holding the same Users in the same order.
+ *
+ * Mutations are checked against the in-memory store and appended to the log under a single lock, which hands
+ * each of them a ticket. Waiting for the disk happens outside of that lock, which is what lets concurrent mutations
+ * share the same group commit; they are then applied by order of ticket, so the in-memory store holds the mutations
+ * in the very order of the log. Once the log is closed or has failed, mutations are rejected. Reads go straight to
+ * the in-memory store.
+ *
+ * @author Carlos Melero
+ *
+ */
+public class DurableUserStore implements UserStore, Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(DurableUserStore.class);
+
+	private static final Pattern FILE_NAME = Pattern.compile("(snapshot|wal)-(\\d+)\\.(bin|log)");
+
+	private static final byte INSERT = 1;
+	private static final byte INSERT_ALL = 2;
+	private static final byte UPDATE = 3;
+	private static final byte REMOVE = 4;
+
+	/**
+	 * Maximum amount of Users in one INSERT_ALL record. Larger collections are logged as several records.
+	 */
+	private static final int INSERT_ALL_CHUNK = 4096;
+
+	private final UserStore delegate;
+
+	private final Path directory;
+
+	private final UserMetrics metrics;
+
+	private final WriteAheadLog wal;
+
+	// Keeps the order of the log the same as the order of the mutations.
+	private final ReentrantLock mutationLock = new ReentrantLock();
+
+	// Only one snapshot is written at a time.
+	private final ReentrantLock snapshotLock = new ReentrantLock();
+
+	// Generation of the segment being written. Guarded by mutationLock.
+	private long generation;
+
+	// Mutations are applied in the order they were logged: each takes a ticket when logged, and waits for its turn.
+	private final ReentrantLock applyLock = new ReentrantLock();
+	private final Condition appliedChanged = applyLock.newCondition();
+
+	// Ticket of the last mutation logged. Guarded by mutationLock.
+	private long logged;
+
+	// Ticket of the last mutation applied. Guarded by applyLock.
+	private long applied;
+
+	// Takes the periodic snapshots, if any.
+	private final ScheduledExecutorService snapshotter;
+
+	/**
+	 * Parameterized constructor, without periodic snapshots.
+	 *
+	 * @param delegate The in-memory store holding the Users, which must be empty
+	 * @param directory The directory of the snapshots and log segments, created if it does not exist
+	 * @param metrics Where to record the group commits of the log and the snapshots
+	 * @throws IOException If the directory cannot be opened or its contents loaded
+	 */
+	public DurableUserStore(UserStore delegate, Path directory, UserMetrics metrics) throws IOException {
+		this(delegate, directory, 0L, metrics);
+	}
+
+	/**
+	 * Parameterized constructor. Loads the latest snapshot, if any, into the given store, then replays the log.
+	 *
+	 * @param delegate The in-memory store holding the Users, which must be empty
+	 * @param directory The directory of the snapshots and log segments, created if it does not exist
+	 * @param snapshotIntervalSeconds Time between two snapshots, which are only taken if something changed. 0 for none.
+	 * @param metrics Where to record the group commits of the log and the snapshots
+	 * @throws IOException If the directory cannot be opened or its contents loaded
+	 */
+	public DurableUserStore(UserStore delegate, Path directory, long snapshotIntervalSeconds, UserMetrics metrics) throws IOException {
+		this.delegate = delegate;
+		this.directory = directory;
+		this.metrics = metrics;
+		Files.createDirectories(directory);
+
+		List<Long> snapshots = generations("snapshot");
+		List<Long> segments = generations("wal");
+		long start = System.nanoTime();
+
+		// The latest snapshot, then every segment from its generation on
+		long first = 0L;
+		if (!snapshots.isEmpty()) {
+			first = snapshots.get(snapshots.size() - 1);
+			List<User> users = SnapshotFile.load(snapshotFile(first));
+			delegate.insertAll(users);
+			log.info("Loaded {} users from {} in {} ms", users.size(), snapshotFile(first), (System.nanoTime() - start) / 1000000);
+		} else if (!segments.isEmpty()) {
+			first = segments.get(0);
+		}
+
+		long last = first;
+		for (long segment : segments) {
+			if (segment >= first && segment < segments.get(segments.size() - 1))
+				WriteAheadLog.replay(walFile(segment), this::replay);
+			last = Math.max(last, segment);
+		}
+		this.wal = new WriteAheadLog(walFile(last), this::replay, metrics);
+		this.generation = last;
+		log.info("Opened {} with {} users in {} ms", directory, delegate.size(), (System.nanoTime() - start) / 1000000);
+
+		// Leftovers of a snapshot interrupted before cleaning up
+		deleteBefore(first);
+
+		if (snapshotIntervalSeconds > 0) {
+			this.snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "user-snapshotter");
+				t.setDaemon(true);
+				return t;
+			});
+			snapshotter.scheduleWithFixedDelay(this::periodicSnapshot, snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+		} else {
+			this.snapshotter = null;
+		}
+	}
+
+	@Override
+	public User get(String username) {
+		return delegate.get(username);
+	}
+
+	@Override
+	public long getVersion(String username) {
+		return delegate.getVersion(username);
+	}
+
+	@Override
+	public User insert(User user) {
+		byte[] record = encode(INSERT, out -> UserCodec.write(out, user));
+		long sequence, ticket;
+
+		mutationLock.lock();
+		try {
+			wal.checkWritable();
+			User existing = delegate.get(user.getUsername());
+			if (existing != null)
+				return existing;
+			sequence = wal.append(record);
+			ticket = ++logged;
+		} finally {
+			mutationLock.unlock();
+		}
+
+		return applyInOrder(ticket, sequence, () -> delegate.insert(user));
+	}
+
+	/**
+	 * Logs the whole collection, including the Users that end up skipped: replaying it over the same
+	 * contents skips the very same ones, and it can thus be encoded before taking the lock.
+	 */
+	@Override
+	public List<User> insertAll(Collection<User> users) {
+		List<User> all = new ArrayList<User>(users);
+		List<byte[]> records = new ArrayList<byte[]>();
+		for (int from = 0; from < all.size(); from += INSERT_ALL_CHUNK) {
+			List<User> chunk = all.subList(from, Math.min(all.size(), from + INSERT_ALL_CHUNK));
+			records.add(encode(INSERT_ALL, out -> {
+				out.writeInt(chunk.size());
+				for (User u : chunk)
+					UserCodec.write(out, u);
+			}));
+		}
+
+		long sequence = 0L, ticket;
+
+		mutationLock.lock();
+		try {
+			wal.checkWritable();
+			if (!anyMissing(all))
+				return new ArrayList<User>();
+			for (byte[] record : records)
+				sequence = wal.append(record);
+			ticket = ++logged;
+		} finally {
+			mutationLock.unlock();
+		}
+
+		return applyInOrder(ticket, sequence, () -> delegate.insertAll(all));
+	}
+
+	@Override
+	public User update(User user) {
+		byte[] record = encode(UPDATE, out -> UserCodec.write(out, user));
+		long sequence, ticket;
+
+		mutationLock.lock();
+		try {
+			wal.checkWritable();
+			if (delegate.get(user.getUsername()) == null)
+				return null;
+			sequence = wal.append(record);
+			ticket = ++logged;
+		} finally {
+			mutationLock.unlock();
+		}
+
+		return applyInOrder(ticket, sequence, () -> delegate.update(user));
+	}
+
+	@Override
+	public User remove(String username) {
+		byte[] record = encode(REMOVE, out -> UserCodec.writeString(out, username));
+		long sequence, ticket;
+
+		mutationLock.lock();
+		try {
+			wal.checkWritable();
+			if (delegate.get(username) == null)
+				return null;
+			sequence = wal.append(record);
+			ticket = ++logged;
+		} finally {
+			mutationLock.unlock();
+		}
+
+		return applyInOrder(ticket, sequence, () -> delegate.remove(username));
+	}
+
+	/**
+	 * Logs the whole collection under one lock acquisition, and waits for a single group commit of its records.
+	 */
+	@Override
+	public List<User> updateAll(Collection<User> users) {
+		List<User> all = new ArrayList<User>(users);
+		List<byte[]> records = new ArrayList<byte[]>(all.size());
+		for (User u : all)
+			records.add(encode(UPDATE, out -> UserCodec.write(out, u)));
+
+		List<User> found = new ArrayList<User>();
+		long sequence = 0L, ticket;
+
+		mutationLock.lock();
+		try {
+			wal.checkWritable();
+			for (int i = 0; i < all.size(); i++) {
+				if (delegate.get(all.get(i).getUsername()) != null) {
+					found.add(all.get(i));
+					sequence = wal.append(records.get(i));
+				}
+			}
+			if (found.isEmpty())
+				return found;
+			ticket = ++logged;
+		} finally {
+			mutationLock.unlock();
+		}
+
+		return applyInOrder(ticket, sequence, () -> delegate.updateAll(found));
+	}
+
+	/**
+	 * Logs the whole collection under one lock acquisition, and waits for a single group commit of its records.
+	 */
+	@Override
+	public List<User> removeAll(Collection<String> usernames) {
+		List<String> all = new ArrayList<String>(usernames);
+		List<byte[]> records = new ArrayList<byte[]>(all.size());
+		for (String username : all)
+			records.add(encode(REMOVE, out -> UserCodec.writeString(out, username)));
+
+		List<String> found = new ArrayList<String>();
+		long sequence = 0L, ticket;
+
+		mutationLock.lock();
+		try {
+			wal.checkWritable();
+			for (int i = 0; i < all.size(); i++) {
+				// Removing a username twice logs it twice, which replays the same way
+				if (delegate.get(all.get(i)) != null) {
+					found.add(all.get(i));
+					sequence = wal.append(records.get(i));
+				}
+			}
+			if (found.isEmpty())
+				return new ArrayList<User>();
+			ticket = ++logged;
+		} finally {
+			mutationLock.unlock();
+		}
+
+		return applyInOrder(ticket, sequence, () -> delegate.removeAll(found));
+	}
+
+	@Override
+	public int size() {
+		return delegate.size();
+	}
+
+	@Override
+	public int getPages() {
+		return delegate.getPages();
+	}
+
+	@Override
+	public List<User> getPage(int pageIndex) {
+		return delegate.getPage(pageIndex);
+	}
+
+	@Override
+	public UserPage getPageAfter(String cursor, int pageSize) {
+		return delegate.getPageAfter(cursor, pageSize);
+	}
+
+	@Override
+	public Iterator<User> iterator() {
+		return delegate.iterator();
+	}
+
+	/**
+	 * Writes a snapshot of the store and starts a new log segment, then deletes the previous snapshot and segments.
+	 * Mutations only wait while the Users are collected (a copy of their references) and the log is rolled over;
+	 * the snapshot itself is written while they go on.
+	 *
+	 * @throws IOException If the snapshot cannot be written
+	 */
+	public void snapshot() throws IOException {
+		snapshotLock.lock();
+		try {
+			long start = System.nanoTime();
+			List<User> users;
+			long snapshotGeneration;
+
+			mutationLock.lock();
+			try {
+				// Mutations already in the log, but still waiting for the disk, must be in the snapshot too
+				awaitApplied();
+				users = new ArrayList<User>(delegate.size());
+				for (User u : delegate)
+					users.add(u);
+
+				snapshotGeneration = generation + 1;
+				wal.roll(walFile(snapshotGeneration));
+				generation = snapshotGeneration;
+			} finally {
+				mutationLock.unlock();
+			}
+
+			/*
+			 * Users may be updated while being written, so the snapshot can hold newer data than the moment it was
+			 * taken. That is fine: every such update is also in the new segment, and replaying it gives the same result.
+			 */
+			SnapshotFile.write(snapshotFile(snapshotGeneration), users);
+			deleteBefore(snapshotGeneration);
+
+			metrics.snapshot(System.nanoTime() - start);
+			log.info("Wrote snapshot {} with {} users", snapshotFile(snapshotGeneration), users.size());
+		} finally {
+			snapshotLock.unlock();
+		}
+	}
+
+	/**
+	 * Stops the periodic snapshots, then flushes and closes the log. Mutating afterwards fails.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (snapshotter != null) {
+			snapshotter.shutdown();
+			try {
+				snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		wal.close();
+	}
+
+	/**
+	 * Takes a snapshot if anything was logged since the previous one.
+	 */
+	private void periodicSnapshot() {
+		try {
+			if (wal.size() > 0)
+				snapshot();
+		} catch (IOException | RuntimeException e) {
+			// Nothing is lost: the log still holds every mutation, and the next attempt may succeed
+			log.error("Could not write a snapshot of {}", directory, e);
+		}
+	}
+
+	/**
+	 * Lists the generations of the snapshots or the log segments found in the directory.
+	 * @param kind "snapshot" or "wal"
+	 * @return The generations found, sorted
+	 * @throws IOException If the directory cannot be listed
+	 */
+	private List<Long> generations(String kind) throws IOException {
+		List<Long> found = new ArrayList<Long>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path f : files) {
+				Matcher m = FILE_NAME.matcher(f.getFileName().toString());
+				if (m.matches() && m.group(1).equals(kind))
+					found.add(Long.parseLong(m.group(2)));
+			}
+		}
+		Collections.sort(found);
+		return found;
+	}
+
+	/**
+	 * Deletes every snapshot and log segment older than a generation.
+	 * @param keep The oldest generation to keep
+	 * @throws IOException If the directory cannot be listed
+	 */
+	private void deleteBefore(long keep) throws IOException {
+		for (long g : generations("snapshot")) {
+			if (g < keep)
+				Files.deleteIfExists(snapshotFile(g));
+		}
+		for (long g : generations("wal")) {
+			if (g < keep)
+				Files.deleteIfExists(walFile(g));
+		}
+	}
+
+	private Path snapshotFile(long generation) {
+		return directory.resolve(String.format("snapshot-%010d.bin", generation));
+	}
+
+	private Path walFile(long generation) {
+		return directory.resolve(String.format("wal-%010d.log", generation));
+	}
+
+	/**
+	 * Waits until the records of a mutation are on disk, then applies it to the in-memory store once every mutation
+	 * logged before it has been applied, so the store ends up the same as replaying the log would leave it.
+	 * A mutation whose records could not be written is never applied.
+	 * @param ticket The ticket of the mutation, taken right after appending its records
+	 * @param sequence The sequence of its last record
+	 * @param mutation Applies the mutation to the in-memory store
+	 * @return The result of the mutation
+	 */
+	private <T> T applyInOrder(long ticket, long sequence, Supplier<T> mutation) {
+		RuntimeException failure = null;
+		try {
+			wal.awaitDurable(sequence);
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+
+		applyLock.lock();
+		try {
+			while (applied < ticket - 1)
+				appliedChanged.awaitUninterruptibly();
+			try {
+				if (failure != null)
+					throw failure;
+				return mutation.get();
+			} finally {
+				// Taking the turn even on failure, so that the next mutations do not wait forever
+				applied = ticket;
+				appliedChanged.signalAll();
+			}
+		} finally {
+			applyLock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until every mutation logged so far has been applied. Must be called while holding mutationLock.
+	 */
+	private void awaitApplied() {
+		applyLock.lock();
+		try {
+			while (applied < logged)
+				appliedChanged.awaitUninterruptibly();
+		} finally {
+			applyLock.unlock();
+		}
+	}
+
+	/**
+	 * Checks if any User of a collection is not in the in-memory store yet.
+	 */
+	private boolean anyMissing(List<User> users) {
+		for (User u : users) {
+			if (delegate.get(u.getUsername()) == null)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Applies one record of the log to the in-memory store.
+	 * @param record The record, as written by encode
+	 */
+	private void replay(byte[] record) {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+			byte type = in.readByte();
+			switch (type) {
+			case INSERT:
+				delegate.insert(UserCodec.read(in));
+				break;
+			case INSERT_ALL:
+				int size = in.readInt();
+				List<User> users = new ArrayList<User>(size);
+				for (int i = 0; i < size; i++)
+					users.add(UserCodec.read(in));
+				delegate.insertAll(users);
+				break;
+			case UPDATE:
+				delegate.update(UserCodec.read(in));
+				break;
+			case REMOVE:
+				delegate.remove(UserCodec.readString(in));
+				break;
+			default:
+				throw new IOException("Unknown record type " + type);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(String.format(ErrorUtils.ErrorMsg.STORAGE_ERROR.getMsg(), e.getMessage()), e);
+		}
+	}
+
+	/**
+	 * Encodes a record: its type followed by whatever the writer writes.
+	 * @param type The type of the record
+	 * @param writer Writes the contents of the record
+	 * @return The encoded record
+	 */
+	private static byte[] encode(byte type, RecordWriter writer) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(type);
+			writer.write(out);
+		} catch (IOException e) {
+			// Never thrown when writing to memory
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	@FunctionalInterface
+	private interface RecordWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+}
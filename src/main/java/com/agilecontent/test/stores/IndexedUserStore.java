@@ -0,0 +1,527 @@
+package com.agilecontent.test.stores;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.models.UserPage;
+import com.agilecontent.test.utils.CursorUtils;
+
+/**
+ * UserStore that keeps secondary indexes of the Users of another store: by email, by email domain and by gender,
+ * plus a UserSearchIndex over their usernames and names. Every mutation goes to the wrapped store first, then the
+ * indexes are updated for the Users it changed, so finding the Users with an email, domain or gender takes time
+ * proportional to the amount of them, not to the whole store. It also keeps the Users sorted by username, name and
+ * email (see SortedBy), in skip lists updated in logarithmic time by each mutation, so sorted listings are paged
+ * without ever sorting the whole store.
+ *
+ * Each index maps a value to the usernames holding it, keyed by the order in which they were indexed (the insertion
+ * order, once built), so pages of a value can be sought with the same kind of cursors as the whole store. Emails
+ * and domains are compared ignoring case. Emails are not unique: the random generators repeat them every now and then.
+ *
+ * Every User costs several objects on the heap here, whatever the wrapped store, and the wrapped store is read
+ * whole when this one is created, so indexing is optional (see StoreConfig).
+ *
+ * Mutations of each username are serialized through a set of striped locks, held while the wrapped store is
+ * changed and the indexes follow it. The indexes are built from the wrapped store when created, so it must not be
+ * changed other than through this store afterwards. Closing this store closes the wrapped one, if it can be closed.
+ *
+ * @author Carlos Melero
+ *
+ */
+public class IndexedUserStore implements UserStore, Closeable {
+
+	private final UserStore delegate;
+
+	// Values indexed for each username, which must be unindexed when the User changes.
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	private final Index<String> byEmail = new Index<String>();
+
+	private final Index<String> byDomain = new Index<String>();
+
+	private final Index<Gender> byGender = new Index<Gender>();
+
+	private final UserSearchIndex search = new UserSearchIndex();
+
+	// Usernames by sort key (see sortKey), for each order.
+	private final EnumMap<SortedBy, ConcurrentSkipListMap<String, String>> sorted = new EnumMap<SortedBy, ConcurrentSkipListMap<String, String>>(SortedBy.class);
+
+	// Last index sequence given.
+	private final AtomicLong lastSequence = new AtomicLong();
+
+	// Locks for every mutation, picked by username hash. Length is always a power of two.
+	private final ReentrantLock[] stripes;
+
+	/**
+	 * Parameterized constructor. Indexes every User already in the store.
+	 * @param delegate The store to keep the Users in
+	 */
+	public IndexedUserStore(UserStore delegate) {
+		this.delegate = delegate;
+
+		for (SortedBy by : SortedBy.values())
+			sorted.put(by, new ConcurrentSkipListMap<String, String>());
+
+		this.stripes = new ReentrantLock[Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 8)];
+		for (int i = 0; i < stripes.length; i++)
+			stripes[i] = new ReentrantLock();
+
+		for (User u : delegate)
+			index(u);
+	}
+
+	/**
+	 * Returns a page of the Users holding an email, in insertion order, starting right after the cursor.
+	 * @param email The email to search for, in any case
+	 * @param cursor The cursor returned along with the previous page, or null to start from the beginning
+	 * @param pageSize The maximum amount of Users to return
+	 * @return The page found, with the cursor to the following one
+	 */
+	public UserPage getPageByEmail(String email, String cursor, int pageSize) {
+		return getPageAfter(byEmail.get(normalize(email)), cursor, pageSize);
+	}
+
+	/**
+	 * Returns a page of the Users with an email of the given domain, in insertion order, starting right after the cursor.
+	 * @param domain The domain to search for, in any case (e.g. "example.com")
+	 * @param cursor The cursor returned along with the previous page, or null to start from the beginning
+	 * @param pageSize The maximum amount of Users to return
+	 * @return The page found, with the cursor to the following one
+	 */
+	public UserPage getPageByDomain(String domain, String cursor, int pageSize) {
+		return getPageAfter(byDomain.get(normalize(domain)), cursor, pageSize);
+	}
+
+	/**
+	 * Returns a page of the Users of the given gender, in insertion order, starting right after the cursor.
+	 * @param gender The gender to search for
+	 * @param cursor The cursor returned along with the previous page, or null to start from the beginning
+	 * @param pageSize The maximum amount of Users to return
+	 * @return The page found, with the cursor to the following one
+	 */
+	public UserPage getPageByGender(Gender gender, String cursor, int pageSize) {
+		return getPageAfter(byGender.get(gender), cursor, pageSize);
+	}
+
+	/**
+	 * Returns a page of the Users sorted by a field, ignoring case (Users without it go last, then by username),
+	 * starting right after the cursor. The cursors are not the ones of the other listings.
+	 * @param by The field to sort by
+	 * @param cursor The cursor returned along with the previous page, or null to start from the beginning
+	 * @param pageSize The maximum amount of Users to return
+	 * @return The page found, with the cursor to the following one
+	 */
+	public UserPage getPageSortedBy(SortedBy by, String cursor, int pageSize) {
+		String after = CursorUtils.decodeKey(cursor);
+		ConcurrentSkipListMap<String, String> view = sorted.get(by);
+		List<String> usernames = new ArrayList<String>(pageSize);
+		String last = after;
+		boolean more = false;
+
+		for (Map.Entry<String, String> e : ((after != null) ? view.tailMap(after, false) : view).entrySet()) {
+			if (usernames.size() == pageSize) {
+				more = true;
+				break;
+			}
+			usernames.add(e.getValue());
+			last = e.getKey();
+		}
+
+		return new UserPage(getStored(usernames), more ? CursorUtils.encodeKey(last) : null);
+	}
+
+	/**
+	 * Type-ahead search: finds the Users whose username starts with the query (ignoring case), in alphabetical
+	 * order, followed by the ones whose name is the most similar to it.
+	 * @param query The (partial) username or name to search for
+	 * @param limit The maximum amount of Users to return
+	 * @return The Users found, without repetitions
+	 */
+	public List<User> search(String query, int limit) {
+		LinkedHashSet<String> usernames = new LinkedHashSet<String>(search.findByUsernamePrefix(query, limit));
+		if (usernames.size() < limit) {
+			// Asking for the whole limit leaves room for the ones found by username already
+			for (String username : search.findByName(query, limit)) {
+				if (usernames.size() == limit)
+					break;
+				usernames.add(username);
+			}
+		}
+
+		return getStored(usernames);
+	}
+
+	@Override
+	public User get(String username) {
+		return delegate.get(username);
+	}
+
+	@Override
+	public long getVersion(String username) {
+		return delegate.getVersion(username);
+	}
+
+	@Override
+	public Map<String, User> getAll(Collection<String> usernames) {
+		return delegate.getAll(usernames);
+	}
+
+	@Override
+	public Set<String> findTaken(Collection<String> usernames) {
+		return delegate.findTaken(usernames);
+	}
+
+	@Override
+	public User insert(User user) {
+		ReentrantLock stripe = stripeFor(user.getUsername());
+
+		stripe.lock();
+		try {
+			User existing = delegate.insert(user);
+			if (existing == null)
+				index(user);
+			return existing;
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	@Override
+	public List<User> insertAll(Collection<User> users) {
+		TreeSet<Integer> locked = lockAll(usernamesOf(users));
+		try {
+			List<User> inserted = delegate.insertAll(users);
+			for (User u : inserted)
+				index(u);
+			return inserted;
+		} finally {
+			unlockAll(locked);
+		}
+	}
+
+	@Override
+	public User update(User user) {
+		ReentrantLock stripe = stripeFor(user.getUsername());
+
+		stripe.lock();
+		try {
+			User updatedUser = delegate.update(user);
+			// Keeps its place in the indexes it stays in
+			if (updatedUser != null)
+				index(updatedUser, unindex(updatedUser.getUsername()));
+			return updatedUser;
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	@Override
+	public User remove(String username) {
+		ReentrantLock stripe = stripeFor(username);
+
+		stripe.lock();
+		try {
+			User removed = delegate.remove(username);
+			if (removed != null)
+				unindex(username);
+			return removed;
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	@Override
+	public List<User> updateAll(Collection<User> users) {
+		TreeSet<Integer> locked = lockAll(usernamesOf(users));
+		try {
+			List<User> updated = delegate.updateAll(users);
+			for (User u : updated)
+				index(u, unindex(u.getUsername()));
+			return updated;
+		} finally {
+			unlockAll(locked);
+		}
+	}
+
+	@Override
+	public List<User> removeAll(Collection<String> usernames) {
+		TreeSet<Integer> locked = lockAll(usernames);
+		try {
+			List<User> removed = delegate.removeAll(usernames);
+			for (User u : removed)
+				unindex(u.getUsername());
+			return removed;
+		} finally {
+			unlockAll(locked);
+		}
+	}
+
+	@Override
+	public int size() {
+		return delegate.size();
+	}
+
+	@Override
+	public int getPages() {
+		return delegate.getPages();
+	}
+
+	@Override
+	public List<User> getPage(int pageIndex) {
+		return delegate.getPage(pageIndex);
+	}
+
+	@Override
+	public UserPage getPageAfter(String cursor, int pageSize) {
+		return delegate.getPageAfter(cursor, pageSize);
+	}
+
+	@Override
+	public Iterator<User> iterator() {
+		return delegate.iterator();
+	}
+
+	/**
+	 * Closes the wrapped store, if it can be closed, e.g. to flush a write-behind queue or a write-ahead log.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (delegate instanceof Closeable)
+			((Closeable) delegate).close();
+	}
+
+	/**
+	 * Returns a page of one indexed value. Users removed since the page was read are left out of it.
+	 * @param usernames The usernames holding the value, by index sequence; null if none
+	 * @param cursor The cursor returned along with the previous page, or null to start from the beginning
+	 * @param pageSize The maximum amount of Users to return
+	 * @return The page found, with the cursor to the following one
+	 */
+	private UserPage getPageAfter(ConcurrentSkipListMap<Long, String> usernames, String cursor, int pageSize) {
+		long after = CursorUtils.decode(cursor);
+		if (usernames == null)
+			return new UserPage(new ArrayList<User>(), null);
+
+		List<String> page = new ArrayList<String>(pageSize);
+		long last = after;
+		boolean more = false;
+
+		for (Map.Entry<Long, String> e : usernames.tailMap(after, false).entrySet()) {
+			if (page.size() == pageSize) {
+				more = true;
+				break;
+			}
+			page.add(e.getValue());
+			last = e.getKey();
+		}
+
+		return new UserPage(getStored(page), more ? CursorUtils.encode(last) : null);
+	}
+
+	/**
+	 * Gets the Users of some usernames from the wrapped store, all at once (a single query for a database), in the
+	 * same order. Users removed since the usernames were read are left out.
+	 * @param usernames The usernames of the Users
+	 * @return The Users still stored
+	 */
+	private List<User> getStored(Collection<String> usernames) {
+		Map<String, User> stored = delegate.getAll(usernames);
+		List<User> found = new ArrayList<User>(usernames.size());
+		for (String username : usernames) {
+			User u = stored.get(username);
+			if (u != null)
+				found.add(u);
+		}
+		return found;
+	}
+
+	/**
+	 * Puts a User in every index, with a new sequence. Must be called holding the stripe of its username (or from the constructor).
+	 * @param user The User to index
+	 */
+	private void index(User user) {
+		index(user, lastSequence.incrementAndGet());
+	}
+
+	/**
+	 * Puts a User in every index. Must be called holding the stripe of its username.
+	 * @param user The User to index
+	 * @param sequence The sequence to index it under
+	 */
+	private void index(User user, long sequence) {
+		Entry entry = new Entry(sequence, normalize(user.getEmail()), domainOf(user.getEmail()), user.getGender(), user.getName());
+		entries.put(user.getUsername(), entry);
+
+		byEmail.add(entry.email, entry.sequence, user.getUsername());
+		byDomain.add(entry.domain, entry.sequence, user.getUsername());
+		byGender.add(entry.gender, entry.sequence, user.getUsername());
+		search.add(user.getUsername(), entry.name, entry.sequence);
+		for (SortedBy by : SortedBy.values())
+			sorted.get(by).put(sortKey(by, user.getUsername(), entry), user.getUsername());
+	}
+
+	/**
+	 * Takes a User out of every index. Must be called holding the stripe of its username.
+	 * @param username The username of the User to unindex
+	 * @return The sequence it was indexed under, or a new one if it was not indexed
+	 */
+	private long unindex(String username) {
+		Entry entry = entries.remove(username);
+		if (entry == null)
+			return lastSequence.incrementAndGet();
+
+		byEmail.remove(entry.email, entry.sequence);
+		byDomain.remove(entry.domain, entry.sequence);
+		byGender.remove(entry.gender, entry.sequence);
+		search.remove(username, entry.name, entry.sequence);
+		for (SortedBy by : SortedBy.values())
+			sorted.get(by).remove(sortKey(by, username, entry));
+		return entry.sequence;
+	}
+
+	/**
+	 * Builds the key of a User in a sorted view: the lowercase value of the field, or a character after any other if
+	 * it has none, then the username, which makes every key unique.
+	 * @param by The field sorted by
+	 * @param username The username of the User
+	 * @param entry The values indexed for the User
+	 * @return The sort key
+	 */
+	private static String sortKey(SortedBy by, String username, Entry entry) {
+		String value;
+		switch (by) {
+		case NAME:
+			value = normalize(entry.name);
+			break;
+		case EMAIL:
+			value = entry.email;
+			break;
+		default:
+			value = username.toLowerCase(Locale.ROOT);
+		}
+		return ((value != null) ? value : String.valueOf(Character.MAX_VALUE)) + '\u0000' + username;
+	}
+
+	private static String normalize(String value) {
+		return (value != null) ? value.trim().toLowerCase(Locale.ROOT) : null;
+	}
+
+	private static String domainOf(String email) {
+		if (email == null)
+			return null;
+		int at = email.lastIndexOf('@');
+		return (at >= 0) ? normalize(email.substring(at + 1)) : null;
+	}
+
+	/**
+	 * Locks the stripes of several usernames. They are always taken in the same order, so two batches never deadlock.
+	 * @param usernames The usernames to lock
+	 * @return The stripes locked, to unlock them with unlockAll
+	 */
+	private TreeSet<Integer> lockAll(Collection<String> usernames) {
+		TreeSet<Integer> locked = new TreeSet<Integer>();
+		for (String username : usernames)
+			locked.add(stripeIndex(username));
+
+		for (int i : locked)
+			stripes[i].lock();
+		return locked;
+	}
+
+	private void unlockAll(TreeSet<Integer> locked) {
+		for (int i : locked.descendingSet())
+			stripes[i].unlock();
+	}
+
+	private static List<String> usernamesOf(Collection<User> users) {
+		List<String> usernames = new ArrayList<String>(users.size());
+		for (User u : users)
+			usernames.add(u.getUsername());
+		return usernames;
+	}
+
+	private ReentrantLock stripeFor(String username) {
+		return stripes[stripeIndex(username)];
+	}
+
+	private int stripeIndex(String username) {
+		int h = username.hashCode();
+		h ^= (h >>> 16);
+		return h & (stripes.length - 1);
+	}
+
+	/**
+	 * Fields the Users can be listed sorted by.
+	 */
+	public static enum SortedBy {
+		USERNAME, NAME, EMAIL
+	}
+
+	/**
+	 * Values indexed for a User, along with the sequence they were indexed under. Any of the values may be null.
+	 */
+	private static class Entry {
+		final long sequence;
+		final String email;
+		final String domain;
+		final Gender gender;
+		final String name;
+
+		Entry(long sequence, String email, String domain, Gender gender, String name) {
+			this.sequence = sequence;
+			this.email = email;
+			this.domain = domain;
+			this.gender = gender;
+			this.name = name;
+		}
+	}
+
+	/**
+	 * Multi-valued index: the usernames holding each value, by index sequence. Null values are not indexed,
+	 * and values left without usernames are dropped.
+	 */
+	private static class Index<K> {
+		private final ConcurrentHashMap<K, ConcurrentSkipListMap<Long, String>> values = new ConcurrentHashMap<K, ConcurrentSkipListMap<Long, String>>();
+
+		ConcurrentSkipListMap<Long, String> get(K value) {
+			return (value != null) ? values.get(value) : null;
+		}
+
+		void add(K value, long sequence, String username) {
+			if (value == null)
+				return;
+			values.compute(value, (k, usernames) -> {
+				if (usernames == null)
+					usernames = new ConcurrentSkipListMap<Long, String>();
+				usernames.put(sequence, username);
+				return usernames;
+			});
+		}
+
+		void remove(K value, long sequence) {
+			if (value == null)
+				return;
+			values.computeIfPresent(value, (k, usernames) -> {
+				usernames.remove(sequence);
+				return usernames.isEmpty() ? null : usernames;
+			});
+		}
+	}
+
+}
@@ -0,0 +1,338 @@
+package com.agilecontent.test.stores;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.persistence.EntityManager;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.UserPage;
+import com.agilecontent.test.repositories.UserRepository;
+import com.agilecontent.test.utils.CursorUtils;
+
+/**
+ * UserStore backed by a database through JPA. Paging is done by the database, ordered by the insertion
+ * order column: numbered pages with an offset, and cursor based pages with a keyset query, which stays fast
+ * however deep the page is.
+ *
+ * Insertions are serialized, so that insertion orders are committed in the same order they are given and a cursor
+ * never skips a User committed later. Collections are inserted in a single transaction: the usernames taken are
+ * checked with one query per batch, and the Users are persisted and flushed in batches too, so that (with
+ * hibernate.jdbc.batch_size set) each batch goes to the database as a single JDBC batch.
+ *
+ * Every created or updated User is given a new version (see UserStore.getVersion), kept in its own column, out of a
+ * counter that starts from the highest version in the table.
+ *
+ * @author Carlos Melero
+ *
+ */
+public class JpaUserStore implements UserStore {
+
+	private final UserRepository repository;
+
+	// Shared, transaction-bound EntityManager.
+	private final EntityManager entityManager;
+
+	private final TransactionTemplate transaction;
+
+	private final int pageSize;
+
+	// Amount of Users checked, persisted and flushed at once. Should match hibernate.jdbc.batch_size.
+	private final int batchSize;
+
+	private final ReentrantLock insertLock = new ReentrantLock();
+
+	// Last insertion order given. Guarded by insertLock.
+	private long lastInsertionOrder;
+
+	// Last version given to a created or updated User.
+	private final AtomicLong lastVersion;
+
+	/**
+	 * Parameterized constructor.
+	 *
+	 * @param repository The repository of Users
+	 * @param entityManager A shared EntityManager, bound to the current transaction
+	 * @param transactionManager The transaction manager of the database
+	 * @param pageSize The size of each numbered page
+	 * @param batchSize Amount of Users written to the database at once
+	 */
+	public JpaUserStore(UserRepository repository, EntityManager entityManager, PlatformTransactionManager transactionManager,
+			int pageSize, int batchSize) {
+		this.repository = repository;
+		this.entityManager = entityManager;
+		this.transaction = new TransactionTemplate(transactionManager);
+		this.pageSize = pageSize;
+		this.batchSize = batchSize;
+
+		Long max = repository.findMaxInsertionOrder();
+		this.lastInsertionOrder = (max != null) ? max : 0L;
+		Long maxVersion = repository.findMaxVersion();
+		this.lastVersion = new AtomicLong((maxVersion != null) ? maxVersion : 0L);
+	}
+
+	@Override
+	public User get(String username) {
+		return repository.findById(username).orElse(null);
+	}
+
+	@Override
+	public long getVersion(String username) {
+		Long version = repository.findVersion(username);
+		return (version != null) ? version : 0L;
+	}
+
+	@Override
+	public Set<String> findTaken(Collection<String> usernames) {
+		Set<String> taken = new HashSet<String>();
+		List<String> all = new ArrayList<String>(usernames);
+		for (int from = 0; from < all.size(); from += batchSize)
+			taken.addAll(repository.findExistingUsernames(all.subList(from, Math.min(all.size(), from + batchSize))));
+		return taken;
+	}
+
+	@Override
+	public Map<String, User> getAll(Collection<String> usernames) {
+		Map<String, User> found = new HashMap<String, User>();
+		List<String> all = new ArrayList<String>(usernames);
+		for (int from = 0; from < all.size(); from += batchSize) {
+			for (User u : repository.findAllById(all.subList(from, Math.min(all.size(), from + batchSize))))
+				found.put(u.getUsername(), u);
+		}
+		return found;
+	}
+
+	@Override
+	public User insert(User user) {
+		insertLock.lock();
+		try {
+			return transaction.execute(status -> {
+				User existing = entityManager.find(User.class, user.getUsername());
+				if (existing != null)
+					return existing;
+
+				user.setInsertionOrder(++lastInsertionOrder);
+				user.setVersion(lastVersion.incrementAndGet());
+				entityManager.persist(user);
+				return null;
+			});
+		} catch (RuntimeException e) {
+			resetInsertionOrder();
+			throw e;
+		} finally {
+			insertLock.unlock();
+		}
+	}
+
+	@Override
+	public List<User> insertAll(Collection<User> users) {
+		insertLock.lock();
+		try {
+			return transaction.execute(status -> {
+				List<User> all = new ArrayList<User>(users);
+				List<User> inserted = new ArrayList<User>(all.size());
+				Set<String> seen = new HashSet<String>();
+
+				for (int from = 0; from < all.size(); from += batchSize) {
+					List<User> batch = all.subList(from, Math.min(all.size(), from + batchSize));
+					List<String> usernames = new ArrayList<String>(batch.size());
+					for (User u : batch)
+						usernames.add(u.getUsername());
+					seen.addAll(repository.findExistingUsernames(usernames));
+
+					for (User u : batch) {
+						if (seen.add(u.getUsername())) {
+							u.setInsertionOrder(++lastInsertionOrder);
+							u.setVersion(lastVersion.incrementAndGet());
+							entityManager.persist(u);
+							inserted.add(u);
+						}
+					}
+
+					// Sends the batch, and detaches it so that the persistence context does not keep growing
+					entityManager.flush();
+					entityManager.clear();
+				}
+				return inserted;
+			});
+		} catch (RuntimeException e) {
+			resetInsertionOrder();
+			throw e;
+		} finally {
+			insertLock.unlock();
+		}
+	}
+
+	@Override
+	public User update(User user) {
+		return transaction.execute(status -> {
+			User updatedUser = entityManager.find(User.class, user.getUsername());
+			if (updatedUser == null)
+				return null;
+
+			updatedUser.setName(user.getName());
+			updatedUser.setEmail(user.getEmail());
+			updatedUser.setGender(user.getGender());
+			updatedUser.setPicture(user.getPicture());
+			updatedUser.setVersion(lastVersion.incrementAndGet());
+
+			return updatedUser;
+		});
+	}
+
+	@Override
+	public User remove(String username) {
+		return transaction.execute(status -> {
+			User removed = entityManager.find(User.class, username);
+			if (removed != null)
+				entityManager.remove(removed);
+			return removed;
+		});
+	}
+
+	/**
+	 * Updates every User in a single transaction, flushing them in batches.
+	 */
+	@Override
+	public List<User> updateAll(Collection<User> users) {
+		return transaction.execute(status -> {
+			List<User> updated = new ArrayList<User>(users.size());
+			int pendingFlush = 0;
+
+			for (User user : users) {
+				User updatedUser = entityManager.find(User.class, user.getUsername());
+				if (updatedUser == null)
+					continue;
+
+				updatedUser.setName(user.getName());
+				updatedUser.setEmail(user.getEmail());
+				updatedUser.setGender(user.getGender());
+				updatedUser.setPicture(user.getPicture());
+				updatedUser.setVersion(lastVersion.incrementAndGet());
+				updated.add(updatedUser);
+
+				if (++pendingFlush == batchSize) {
+					entityManager.flush();
+					entityManager.clear();
+					pendingFlush = 0;
+				}
+			}
+			return updated;
+		});
+	}
+
+	/**
+	 * Removes every User in a single transaction, flushing them in batches.
+	 */
+	@Override
+	public List<User> removeAll(Collection<String> usernames) {
+		return transaction.execute(status -> {
+			List<User> removed = new ArrayList<User>(usernames.size());
+			int pendingFlush = 0;
+
+			for (String username : usernames) {
+				User u = entityManager.find(User.class, username);
+				if (u == null)
+					continue;
+
+				entityManager.remove(u);
+				removed.add(u);
+
+				if (++pendingFlush == batchSize) {
+					entityManager.flush();
+					entityManager.clear();
+					pendingFlush = 0;
+				}
+			}
+			return removed;
+		});
+	}
+
+	@Override
+	public int size() {
+		return (int) repository.count();
+	}
+
+	@Override
+	public int getPages() {
+		return Math.max(1, (size() + pageSize - 1) / pageSize);
+	}
+
+	@Override
+	public List<User> getPage(int pageIndex) {
+		if (pageIndex < 0 || pageIndex >= getPages())
+			return null;
+
+		return new ArrayList<User>(repository.findAll(PageRequest.of(pageIndex, pageSize, Sort.by("insertionOrder"))).getContent());
+	}
+
+	@Override
+	public UserPage getPageAfter(String cursor, int pageSize) {
+		// One more User than asked for tells whether there is a following page
+		List<User> page = new ArrayList<User>(
+				repository.findByInsertionOrderGreaterThanOrderByInsertionOrder(CursorUtils.decode(cursor), PageRequest.of(0, pageSize + 1)));
+
+		if (page.size() <= pageSize)
+			return new UserPage(page, null);
+
+		page.remove(pageSize);
+		return new UserPage(page, CursorUtils.encode(page.get(pageSize - 1).getInsertionOrder()));
+	}
+
+	/**
+	 * Iterates the Users with keyset queries of one batch each, so the whole table is never loaded at once.
+	 */
+	@Override
+	public Iterator<User> iterator() {
+		return new Iterator<User>() {
+
+			private long after = 0L;
+			private List<User> chunk = Collections.emptyList();
+			private int chunkIndex = 0;
+
+			@Override
+			public boolean hasNext() {
+				if (chunkIndex < chunk.size())
+					return true;
+
+				chunk = repository.findByInsertionOrderGreaterThanOrderByInsertionOrder(after, PageRequest.of(0, batchSize));
+				chunkIndex = 0;
+				if (!chunk.isEmpty())
+					after = chunk.get(chunk.size() - 1).getInsertionOrder();
+
+				return !chunk.isEmpty();
+			}
+
+			@Override
+			public User next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return chunk.get(chunkIndex++);
+			}
+		};
+	}
+
+	/**
+	 * Goes back to the highest insertion order committed, after a failed insertion. Must hold insertLock.
+	 */
+	private void resetInsertionOrder() {
+		Long max = repository.findMaxInsertionOrder();
+		lastInsertionOrder = (max != null) ? max : 0L;
+	}
+
+}
@@ -0,0 +1,141 @@
+package com.agilecontent.test.stores;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.utils.ErrorUtils;
+
+/**
+ * User loaded from a memory-mapped snapshot. Only the username is decoded when loading; the rest of the fields
+ * stay in the mapped file until one of them is first read or written, so loading a store allocates one object
+ * and one String per User. Until then, the fields can also be copied to a new snapshot without decoding them.
+ *
+ * @author Carlos Melero
+ *
+ */
+final class MappedUser extends User {
+
+	// Mapped region holding the encoded fields, or null once they are decoded.
+	private volatile ByteBuffer region;
+
+	// Bounds of the encoded fields (everything after the username) within the region.
+	private final int from;
+	private final int to;
+
+	/**
+	 * Parameterized constructor.
+	 *
+	 * @param username The username, already decoded
+	 * @param region The mapped region holding the rest of the fields
+	 * @param from Position of the first byte of the fields
+	 * @param to Position right after the last byte of the fields
+	 */
+	MappedUser(String username, ByteBuffer region, int from, int to) {
+		super(username, null, null, null, null);
+		this.region = region;
+		this.from = from;
+		this.to = to;
+	}
+
+	/**
+	 * Copies the encoded fields as they are, if they were never decoded.
+	 *
+	 * @param out Where to copy the fields to
+	 * @return true if copied, false if the fields are decoded and must thus be encoded again
+	 * @throws IOException If the output fails
+	 */
+	synchronized boolean copyFieldsTo(DataOutput out) throws IOException {
+		if (region == null)
+			return false;
+
+		ByteBuffer fields = region.duplicate();
+		fields.position(from);
+		fields.limit(to);
+		byte[] bytes = new byte[to - from];
+		fields.get(bytes);
+		out.write(bytes);
+		return true;
+	}
+
+	private void decode() {
+		if (region == null)
+			return;
+
+		synchronized (this) {
+			if (region == null)
+				return;
+
+			ByteBuffer fields = region.duplicate();
+			fields.limit(to);
+			fields.position(from);
+			try {
+				super.setName(UserCodec.readString(fields));
+				super.setEmail(UserCodec.readString(fields));
+				super.setGender(UserCodec.readGender(fields));
+				super.setPicture(UserCodec.readString(fields));
+			} catch (IOException e) {
+				// The checksum of the snapshot matched, so the record was written like this
+				throw new UncheckedIOException(String.format(ErrorUtils.ErrorMsg.STORAGE_ERROR.getMsg(),
+						"user " + getUsername() + " cannot be decoded: " + e.getMessage()), e);
+			}
+			region = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		decode();
+		return super.toString();
+	}
+
+	/*
+	 * Getters and setters, decoding the fields first
+	 */
+	@Override
+	public String getName() {
+		decode();
+		return super.getName();
+	}
+	@Override
+	public void setName(String name) {
+		decode();
+		super.setName(name);
+	}
+
+	@Override
+	public String getEmail() {
+		decode();
+		return super.getEmail();
+	}
+	@Override
+	public void setEmail(String email) {
+		decode();
+		super.setEmail(email);
+	}
+
+	@Override
+	public Gender getGender() {
+		decode();
+		return super.getGender();
+	}
+	@Override
+	public void setGender(Gender gender) {
+		decode();
+		super.setGender(gender);
+	}
+
+	@Override
+	public String getPicture() {
+		decode();
+		return super.getPicture();
+	}
+	@Override
+	public void setPicture(String picture) {
+		decode();
+		super.setPicture(picture);
+	}
+}
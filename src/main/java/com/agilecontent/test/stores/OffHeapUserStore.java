@@ -0,0 +1,924 @@
+package com.agilecontent.test.stores;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.models.UserPage;
+import com.agilecontent.test.utils.CursorUtils;
+import com.agilecontent.test.utils.ErrorUtils;
+
+/**
+ * UserStore keeping its Users out of the heap, as packed records in direct ByteBuffers ("slabs"), so that tens of
+ * millions of them cost the garbage collector next to nothing. No User object is kept: every User returned is
+ * decoded from its record on the spot, and changing it does not change the store.
+ *
+ * Each record holds [capacity (int)][version (long)][username][name][email local part][email domain id][gender][picture suffix]
+ * [picture prefix id]. Strings are a varint of their UTF-8 length + 1 (0 for null) followed by their bytes, and the
+ * gender a byte (its ordinal, -1 for null). Email domains and picture URLs up to their last '/' (which generated
+ * Users share, e.g. "https://randomuser.me/api/portraits/med/women/") are dictionary encoded, as a varint id
+ * (0 when not encoded, the whole value being in the local part or suffix then). The capacity counts the bytes after
+ * the header (capacity and version), and the version is the one the User was last changed at (see getVersion).
+ *
+ * Every User gets an insertion sequence. The record address of each sequence is kept in an array (0 once removed),
+ * along with a Fenwick tree counting the Users left, which finds where each numbered page starts, and the User
+ * following any sequence, in logarithmic time however many Users were removed. Usernames are indexed by an
+ * open-addressing hash table of sequences, with linear probing, which compares the username bytes of the records
+ * themselves. Every structure is made of primitive arrays, so none of them costs an object per User either.
+ *
+ * An updated User is rewritten in place when it fits in its record, and appended otherwise. Records left behind by
+ * updates and removals are reclaimed by compacting the slabs once they make up half of them, or once removed
+ * sequences make up half of the arrays. Compacting also renumbers the sequences from 1, so the arrays shrink back to
+ * the Users left, and starts a new generation of cursors: those of the previous generation are still followed, through
+ * the former sequences of the Users (kept off the heap until the next compaction), while older ones are not valid.
+ * Reads share a read lock, and mutations take the write lock.
+ *
+ * @author Carlos Melero
+ *
+ */
+public class OffHeapUserStore implements UserStore {
+
+	/**
+	 * Default size of each slab. Records larger than this get a slab of their own.
+	 */
+	public static final int DEFAULT_SLAB_SIZE = 16 << 20;
+
+	// Amount of Users decoded under the read lock on each step of an iteration.
+	private static final int ITERATION_CHUNK = 1024;
+
+	private static final int DICTIONARY_SIZE = 1 << 16;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// Largest length of the arrays indexed by sequence, so sequences always fit in an int.
+	private static final int MAX_SEQUENCES = 1 << 30;
+
+	private static final Gender[] GENDERS = Gender.values();
+
+	// Bytes of the capacity and version before the fields of each record.
+	private static final int HEADER = Integer.BYTES + Long.BYTES;
+
+	private final int pageSize;
+
+	private final int slabSize;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// Every field below is guarded by lock.
+
+	private List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+
+	// Where the next record goes in the last slab.
+	private int writeOffset;
+
+	private long allocatedBytes;
+
+	// Bytes of the records no longer used.
+	private long deadBytes;
+
+	private final StringDictionary domains = new StringDictionary(DICTIONARY_SIZE);
+
+	private final StringDictionary prefixes = new StringDictionary(DICTIONARY_SIZE);
+
+	// Record address of each insertion sequence, 0 once removed. Sequences start at 1.
+	private long[] records = new long[INITIAL_CAPACITY];
+
+	// Fenwick tree over the sequences, counting the ones still stored.
+	private int[] counts = new int[INITIAL_CAPACITY];
+
+	private int lastSequence;
+
+	private int size;
+
+	// Compactions so far, which renumber the sequences. Cursors carry it in their high 32 bits.
+	private int generation;
+
+	// Former sequence of each User left at the last compaction, in order (the new sequence - 1), or null if none.
+	private IntBuffer renumbered;
+
+	// Last version given to a created or updated User.
+	private long lastVersion;
+
+	// Username index: the sequence in each slot (0 for empty), and the hash of its username.
+	private int[] slots = new int[INITIAL_CAPACITY];
+	private int[] hashes = new int[INITIAL_CAPACITY];
+
+	// Reused to encode every record.
+	private final RecordWriter writer = new RecordWriter();
+
+	/**
+	 * Constructor with a specific page size and the default slab size.
+	 * @param pageSize The size of each page
+	 */
+	public OffHeapUserStore(int pageSize) {
+		this(pageSize, DEFAULT_SLAB_SIZE);
+	}
+
+	/**
+	 * Constructor with a specific page size and slab size.
+	 * @param pageSize The size of each page
+	 * @param slabSize The size of each direct buffer allocated for the records
+	 */
+	public OffHeapUserStore(int pageSize, int slabSize) {
+		this.pageSize = pageSize;
+		this.slabSize = slabSize;
+	}
+
+	@Override
+	public User get(String username) {
+		byte[] key = username.getBytes(StandardCharsets.UTF_8);
+
+		lock.readLock().lock();
+		try {
+			int slot = find(key, hash(username));
+			return (slot >= 0) ? read(records[slots[slot]]) : null;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public long getVersion(String username) {
+		byte[] key = username.getBytes(StandardCharsets.UTF_8);
+
+		lock.readLock().lock();
+		try {
+			int slot = find(key, hash(username));
+			if (slot < 0)
+				return 0L;
+			long address = records[slots[slot]];
+			return slab(address).getLong(offset(address) + Integer.BYTES);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Checks every username under a single read lock, without decoding any User.
+	 */
+	@Override
+	public Set<String> findTaken(Collection<String> usernames) {
+		Set<String> taken = new HashSet<String>();
+
+		lock.readLock().lock();
+		try {
+			for (String username : usernames) {
+				if (find(username.getBytes(StandardCharsets.UTF_8), hash(username)) >= 0)
+					taken.add(username);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return taken;
+	}
+
+	@Override
+	public User insert(User user) {
+		lock.writeLock().lock();
+		try {
+			int slot = add(user);
+			return (slot >= 0) ? read(records[slots[slot]]) : null;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public List<User> insertAll(Collection<User> users) {
+		List<User> inserted = new ArrayList<User>(users.size());
+
+		lock.writeLock().lock();
+		try {
+			for (User u : users) {
+				if (add(u) < 0)
+					inserted.add(u);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		return inserted;
+	}
+
+	@Override
+	public User update(User user) {
+		lock.writeLock().lock();
+		try {
+			int slot = find(writer.username(user.getUsername()), hash(user.getUsername()));
+			if (slot < 0)
+				return null;
+
+			int sequence = slots[slot];
+			long address = records[sequence];
+			encode(user);
+
+			ByteBuffer slab = slab(address);
+			int capacity = slab.getInt(offset(address));
+			if (writer.length <= capacity) {
+				slab.putLong(offset(address) + Integer.BYTES, ++lastVersion);
+				writer.writeTo(slab, offset(address) + HEADER);
+			} else {
+				records[sequence] = append();
+				deadBytes += HEADER + capacity;
+				compactIfNeeded();
+			}
+
+			return read(records[sequence]);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public User remove(String username) {
+		lock.writeLock().lock();
+		try {
+			int slot = find(username.getBytes(StandardCharsets.UTF_8), hash(username));
+			if (slot < 0)
+				return null;
+
+			int sequence = slots[slot];
+			long address = records[sequence];
+			User removed = read(address);
+
+			deleteSlot(slot);
+			records[sequence] = 0L;
+			count(sequence, -1);
+			size--;
+			deadBytes += HEADER + slab(address).getInt(offset(address));
+			compactIfNeeded();
+
+			return removed;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Updates every User under a single acquisition of the write lock.
+	 */
+	@Override
+	public List<User> updateAll(Collection<User> users) {
+		lock.writeLock().lock();
+		try {
+			return UserStore.super.updateAll(users);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes every User under a single acquisition of the write lock.
+	 */
+	@Override
+	public List<User> removeAll(Collection<String> usernames) {
+		lock.writeLock().lock();
+		try {
+			return UserStore.super.removeAll(usernames);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int getPages() {
+		lock.readLock().lock();
+		try {
+			return Math.max(1, (size + pageSize - 1) / pageSize);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<User> getPage(int pageIndex) {
+		lock.readLock().lock();
+		try {
+			if (pageIndex < 0 || pageIndex >= Math.max(1, (size + pageSize - 1) / pageSize))
+				return null;
+
+			List<User> page = new ArrayList<User>(pageSize);
+			if (size > 0)
+				collect(select(pageIndex * pageSize) - 1, pageSize, page);
+			return page;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public UserPage getPageAfter(String cursor, int pageSize) {
+		long after = CursorUtils.decode(cursor);
+		List<User> page = new ArrayList<User>(pageSize);
+
+		lock.readLock().lock();
+		try {
+			int last = collect(resume(after), pageSize, page);
+			boolean more = page.size() == pageSize && next(last) > 0;
+			return new UserPage(page, more ? CursorUtils.encode(position(last)) : null);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Iterates the Users in chunks, decoding each chunk under the read lock. Writers are thus never
+	 * blocked for the whole iteration, at the cost of not seeing a single consistent snapshot. Like a cursor, an
+	 * iteration outlived by two compactions can no longer go on: it then throws an IllegalArgumentException.
+	 */
+	@Override
+	public Iterator<User> iterator() {
+		return new Iterator<User>() {
+
+			private long after = 0L;
+			private List<User> chunk = Collections.emptyList();
+			private int chunkIndex = 0;
+
+			@Override
+			public boolean hasNext() {
+				if (chunkIndex < chunk.size())
+					return true;
+
+				chunk = new ArrayList<User>(ITERATION_CHUNK);
+				lock.readLock().lock();
+				try {
+					after = position(collect(resume(after), ITERATION_CHUNK, chunk));
+				} finally {
+					lock.readLock().unlock();
+				}
+				chunkIndex = 0;
+
+				return !chunk.isEmpty();
+			}
+
+			@Override
+			public User next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return chunk.get(chunkIndex++);
+			}
+		};
+	}
+
+	/**
+	 * Gets the amount of direct memory allocated for the records.
+	 * @return The size of every slab, in bytes
+	 */
+	public long getAllocatedBytes() {
+		lock.readLock().lock();
+		try {
+			return allocatedBytes;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the amount of direct memory taken by records no longer used, until the next compaction.
+	 * @return The size of the dead records, in bytes
+	 */
+	public long getDeadBytes() {
+		lock.readLock().lock();
+		try {
+			return deadBytes;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the amount of heap taken by the arrays indexing the records, sized for the sequences handed out since the
+	 * last compaction.
+	 * @return The size of the index arrays, in bytes
+	 */
+	public long getIndexBytes() {
+		lock.readLock().lock();
+		try {
+			return (long) records.length * Long.BYTES + (long) (counts.length + slots.length + hashes.length) * Integer.BYTES;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Copies every live record into new slabs, in order, releasing the old ones (once collected), and renumbers the
+	 * sequences from 1 into arrays sized for the Users left.
+	 */
+	public void compact() {
+		lock.writeLock().lock();
+		try {
+			List<ByteBuffer> old = slabs;
+			slabs = new ArrayList<ByteBuffer>();
+			writeOffset = 0;
+			allocatedBytes = 0L;
+
+			// With room for the next sequence
+			long[] moved = new long[tableSize(size + 1)];
+			IntBuffer former = (size > 0) ? ByteBuffer.allocateDirect(size * Integer.BYTES).asIntBuffer() : null;
+			int renumber = 0;
+			for (int sequence = 1; sequence <= lastSequence; sequence++) {
+				long address = records[sequence];
+				if (address == 0L)
+					continue;
+
+				ByteBuffer from = old.get((int) (address >>> 32) - 1).duplicate();
+				int offset = offset(address);
+				from.limit(offset + HEADER + from.getInt(offset));
+				from.position(offset);
+
+				long copied = allocate(from.remaining());
+				ByteBuffer to = slab(copied);
+				to.position(offset(copied));
+				to.put(from);
+				moved[++renumber] = copied;
+				former.put(sequence);
+			}
+			deadBytes = 0L;
+
+			// Before the counts are rebuilt, while they still rank the former sequences
+			for (int i = 0; i < slots.length; i++) {
+				if (slots[i] != 0)
+					slots[i] = rank(slots[i]);
+			}
+			rebuildIndex(tableSize(size * 2));
+
+			records = moved;
+			buildCounts();
+			lastSequence = size;
+			generation++;
+			renumbered = former;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Stores a User at the end of the ordering, unless its username is taken. Must hold the write lock.
+	 * @param user The User to store
+	 * @return -1 if stored, or the index slot of the User already stored
+	 */
+	private int add(User user) {
+		int hash = hash(user.getUsername());
+		int slot = find(writer.username(user.getUsername()), hash);
+		if (slot >= 0)
+			return slot;
+
+		if (lastSequence + 1 >= records.length) {
+			makeRoom();
+			slot = find(writer.username, hash);
+		}
+		if ((size + 1) * 2 > slots.length) {
+			rebuildIndex(slots.length * 2);
+			slot = find(writer.username, hash);
+		}
+
+		encode(user);
+		int sequence = ++lastSequence;
+		records[sequence] = append();
+		count(sequence, 1);
+		slots[-slot - 1] = sequence;
+		hashes[-slot - 1] = hash;
+		size++;
+		return -1;
+	}
+
+	/**
+	 * Encodes a User into the writer, adding its email domain and picture prefix to the dictionaries.
+	 * @param user The User to encode
+	 */
+	private void encode(User user) {
+		writer.reset();
+		writer.writeString(user.getUsername());
+		writer.writeString(user.getName());
+
+		String email = user.getEmail();
+		int at = (email != null) ? email.lastIndexOf('@') : -1;
+		int domain = (at >= 0) ? domains.encode(email.substring(at + 1)) : 0;
+		writer.writeString((domain > 0) ? email.substring(0, at) : email);
+		writer.writeVarint(domain);
+
+		writer.writeByte((user.getGender() != null) ? user.getGender().ordinal() : -1);
+
+		String picture = user.getPicture();
+		int slash = (picture != null) ? picture.lastIndexOf('/') : -1;
+		int prefix = (slash >= 0) ? prefixes.encode(picture.substring(0, slash + 1)) : 0;
+		writer.writeString((prefix > 0) ? picture.substring(slash + 1) : picture);
+		writer.writeVarint(prefix);
+	}
+
+	/**
+	 * Decodes the User of a record.
+	 * @param address The address of the record
+	 * @return A new User
+	 */
+	private User read(long address) {
+		RecordReader in = new RecordReader(slab(address), offset(address) + HEADER);
+
+		String username = in.readString();
+		String name = in.readString();
+		String email = in.readString();
+		int domain = in.readVarint();
+		if (domain > 0)
+			email = email + "@" + domains.decode(domain);
+		byte gender = in.readByte();
+		String picture = in.readString();
+		int prefix = in.readVarint();
+		if (prefix > 0)
+			picture = prefixes.decode(prefix) + picture;
+
+		return new User(username, name, email, (gender >= 0) ? GENDERS[gender] : null, picture);
+	}
+
+	/**
+	 * Copies the record in the writer to the end of the slabs, with a new version.
+	 * @return The address of the new record
+	 */
+	private long append() {
+		long address = allocate(HEADER + writer.length);
+		ByteBuffer slab = slab(address);
+		slab.putInt(offset(address), writer.length);
+		slab.putLong(offset(address) + Integer.BYTES, ++lastVersion);
+		writer.writeTo(slab, offset(address) + HEADER);
+		return address;
+	}
+
+	/**
+	 * Reserves room at the end of the slabs, starting a new slab if the last one has not got enough.
+	 * @param length The bytes needed
+	 * @return The address of the room reserved
+	 */
+	private long allocate(int length) {
+		if (slabs.isEmpty() || writeOffset + length > slabs.get(slabs.size() - 1).capacity()) {
+			ByteBuffer slab = ByteBuffer.allocateDirect(Math.max(slabSize, length));
+			slabs.add(slab);
+			allocatedBytes += slab.capacity();
+			writeOffset = 0;
+		}
+
+		long address = ((long) slabs.size() << 32) | writeOffset;
+		writeOffset += length;
+		return address;
+	}
+
+	private void compactIfNeeded() {
+		if (deadBytes > slabSize && deadBytes * 2 > allocatedBytes)
+			compact();
+	}
+
+	private ByteBuffer slab(long address) {
+		return slabs.get((int) (address >>> 32) - 1);
+	}
+
+	private static int offset(long address) {
+		return (int) address;
+	}
+
+	/**
+	 * Decodes the Users stored after a sequence, in order.
+	 * @param after The sequence after which to start
+	 * @param max Maximum amount of Users to decode
+	 * @param into Where to add the Users
+	 * @return The sequence of the last User added, or after if none
+	 */
+	private int collect(int after, int max, List<User> into) {
+		int sequence = after;
+		for (int added = 0; added < max; added++) {
+			int following = next(sequence);
+			if (following == 0)
+				break;
+			into.add(read(records[following]));
+			sequence = following;
+		}
+		return sequence;
+	}
+
+	/**
+	 * Finds the first sequence still stored after a given one, through the Fenwick tree: the User following the
+	 * ones stored up to that sequence.
+	 * @param after The sequence after which to search
+	 * @return The sequence found, or 0 if none
+	 */
+	private int next(int after) {
+		int rank = rank(Math.min(after, lastSequence));
+		return (rank < size) ? select(rank) : 0;
+	}
+
+	/**
+	 * Gets the position handed out (in a cursor, or to an iterator) for a sequence: the sequence, with the
+	 * generation in the high 32 bits.
+	 */
+	private long position(int sequence) {
+		return ((long) generation << 32) | sequence;
+	}
+
+	/**
+	 * Finds the sequence a position handed out before stands for now, renumbered if it comes from the previous
+	 * generation: the last User left at the compaction up to it, whose new sequence is the amount of them.
+	 * Throws an IllegalArgumentException if the position is from an older (or unknown) generation.
+	 * @param position The position, 0 for the start
+	 * @return The sequence after which to go on
+	 */
+	private int resume(long position) {
+		int sequence = (int) position;
+		long from = position >>> 32;
+		if (sequence == 0 && from <= generation)
+			return 0;
+		if (sequence > 0 && from == generation)
+			return sequence;
+		if (sequence > 0 && from == generation - 1 && renumbered != null) {
+			int low = 0;
+			int high = renumbered.limit();
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (renumbered.get(middle) <= sequence)
+					low = middle + 1;
+				else
+					high = middle;
+			}
+			return low;
+		}
+		throw new IllegalArgumentException(String.format(ErrorUtils.ErrorMsg.INVALID_CURSOR.getMsg(), CursorUtils.encode(position)));
+	}
+
+	/**
+	 * Adds to the count of a sequence in the Fenwick tree.
+	 */
+	private void count(int sequence, int delta) {
+		for (int i = sequence; i < counts.length; i += i & -i)
+			counts[i] += delta;
+	}
+
+	/**
+	 * Counts the Users stored up to a sequence, summing the Fenwick tree.
+	 * @param sequence The sequence, from 0 to lastSequence
+	 * @return The amount of Users stored with that sequence or a lower one
+	 */
+	private int rank(int sequence) {
+		int rank = 0;
+		for (int i = sequence; i > 0; i -= i & -i)
+			rank += counts[i];
+		return rank;
+	}
+
+	/**
+	 * Finds the sequence of the User at a position of the ordering, descending the Fenwick tree.
+	 * @param position The position, from 0 to size - 1
+	 * @return Its sequence
+	 */
+	private int select(int position) {
+		int sequence = 0;
+		int remaining = position + 1;
+		for (int step = Integer.highestOneBit(counts.length - 1); step > 0; step >>= 1) {
+			int next = sequence + step;
+			if (next < counts.length && counts[next] < remaining) {
+				sequence = next;
+				remaining -= counts[next];
+			}
+		}
+		return sequence + 1;
+	}
+
+	/**
+	 * Makes room for a new sequence once the arrays are full: renumbers the sequences if removed ones make up half of
+	 * them, or grows the arrays otherwise.
+	 * Throws an IllegalStateException if the arrays cannot grow any further.
+	 */
+	private void makeRoom() {
+		if (lastSequence - size >= lastSequence / 2) {
+			compact();
+			return;
+		}
+		if (records.length >= MAX_SEQUENCES)
+			throw new IllegalStateException(String.format(ErrorUtils.ErrorMsg.STORE_FULL.getMsg(), MAX_SEQUENCES - 1));
+
+		long[] grownRecords = new long[records.length * 2];
+		System.arraycopy(records, 0, grownRecords, 0, records.length);
+		records = grownRecords;
+		buildCounts();
+	}
+
+	/**
+	 * Builds the Fenwick tree of the records from scratch, in linear time: each node adds itself to its parent.
+	 */
+	private void buildCounts() {
+		counts = new int[records.length];
+		for (int i = 1; i < counts.length; i++) {
+			if (records[i] != 0L)
+				counts[i]++;
+			int parent = i + (i & -i);
+			if (parent < counts.length)
+				counts[parent] += counts[i];
+		}
+	}
+
+	/**
+	 * Finds the index slot of a username.
+	 * @param username The username, as UTF-8
+	 * @param hash Its hash
+	 * @return Its slot, or -(the empty slot where it would go) - 1 if not found
+	 */
+	private int find(byte[] username, int hash) {
+		int mask = slots.length - 1;
+		for (int i = hash & mask;; i = (i + 1) & mask) {
+			int sequence = slots[i];
+			if (sequence == 0)
+				return -i - 1;
+			if (hashes[i] == hash && hasUsername(records[sequence], username))
+				return i;
+		}
+	}
+
+	/**
+	 * Compares the username of a record with a given one, byte by byte, without decoding it.
+	 */
+	private boolean hasUsername(long address, byte[] username) {
+		RecordReader in = new RecordReader(slab(address), offset(address) + HEADER);
+		if (in.readVarint() != username.length + 1)
+			return false;
+
+		ByteBuffer slab = slab(address);
+		for (int i = 0; i < username.length; i++) {
+			if (slab.get(in.position + i) != username[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Empties an index slot, moving back the following entries that would no longer be found (backward shift
+	 * deletion), so that linear probing never needs tombstones.
+	 * @param slot The slot to empty
+	 */
+	private void deleteSlot(int slot) {
+		int mask = slots.length - 1;
+		int hole = slot;
+		for (int i = (hole + 1) & mask; slots[i] != 0; i = (i + 1) & mask) {
+			int home = hashes[i] & mask;
+			// The entry can fill the hole unless its home slot lies cyclically within (hole, i]
+			boolean stays = (hole < i) ? (home > hole && home <= i) : (home > hole || home <= i);
+			if (!stays) {
+				slots[hole] = slots[i];
+				hashes[hole] = hashes[i];
+				hole = i;
+			}
+		}
+		slots[hole] = 0;
+		hashes[hole] = 0;
+	}
+
+	/**
+	 * Moves the username index to a table of the given length.
+	 * @param length The new length, a power of two over twice the amount of Users
+	 */
+	private void rebuildIndex(int length) {
+		int[] oldSlots = slots;
+		int[] oldHashes = hashes;
+		slots = new int[length];
+		hashes = new int[length];
+
+		int mask = slots.length - 1;
+		for (int j = 0; j < oldSlots.length; j++) {
+			if (oldSlots[j] == 0)
+				continue;
+			int i = oldHashes[j] & mask;
+			while (slots[i] != 0)
+				i = (i + 1) & mask;
+			slots[i] = oldSlots[j];
+			hashes[i] = oldHashes[j];
+		}
+	}
+
+	/**
+	 * Gets the length of a table holding more than the given amount of entries: the next power of two, INITIAL_CAPACITY at least.
+	 */
+	private static int tableSize(int entries) {
+		return Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, entries)) << 1);
+	}
+
+	private static int hash(String username) {
+		int h = username.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Growable buffer where each record is encoded before being copied to its slab.
+	 */
+	private static final class RecordWriter {
+
+		private byte[] buffer = new byte[256];
+
+		private int length;
+
+		// UTF-8 of the last username given to username(), reused by the following write
+		private byte[] username;
+
+		byte[] username(String value) {
+			username = value.getBytes(StandardCharsets.UTF_8);
+			return username;
+		}
+
+		void reset() {
+			length = 0;
+		}
+
+		void writeString(String value) {
+			if (value == null) {
+				writeVarint(0);
+				return;
+			}
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarint(bytes.length + 1);
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buffer, length, bytes.length);
+			length += bytes.length;
+		}
+
+		void writeVarint(int value) {
+			while ((value & ~0x7F) != 0) {
+				writeByte((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			writeByte(value);
+		}
+
+		void writeByte(int value) {
+			ensure(1);
+			buffer[length++] = (byte) value;
+		}
+
+		void writeTo(ByteBuffer slab, int offset) {
+			slab.position(offset);
+			slab.put(buffer, 0, length);
+		}
+
+		private void ensure(int more) {
+			if (length + more > buffer.length) {
+				byte[] grown = new byte[Math.max(buffer.length * 2, length + more)];
+				System.arraycopy(buffer, 0, grown, 0, length);
+				buffer = grown;
+			}
+		}
+	}
+
+	/**
+	 * Reads the fields of a record with absolute gets, so that concurrent readers never share a position.
+	 */
+	private static final class RecordReader {
+
+		private final ByteBuffer slab;
+
+		private int position;
+
+		RecordReader(ByteBuffer slab, int position) {
+			this.slab = slab;
+			this.position = position;
+		}
+
+		String readString() {
+			int length = readVarint() - 1;
+			if (length < 0)
+				return null;
+			byte[] bytes = new byte[length];
+			for (int i = 0; i < length; i++)
+				bytes[i] = slab.get(position + i);
+			position += length;
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		int readVarint() {
+			int value = 0;
+			for (int shift = 0;; shift += 7) {
+				byte b = slab.get(position++);
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return value;
+			}
+		}
+
+		byte readByte() {
+			return slab.get(position++);
+		}
+	}
+
+}
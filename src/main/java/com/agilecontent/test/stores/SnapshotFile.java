@@ -0,0 +1,167 @@
+package com.agilecontent.test.stores;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import com.agilecontent.test.models.User;
+
+/**
+ * Compact binary snapshot of every User of a store, in order.
+ *
+ * The file holds a header ([magic (int)][version (int)][count (int)]), then every User as [length (int)][User],
+ * encoded by UserCodec, then the CRC32 of everything before it. A snapshot is written to a temporary file which
+ * is only renamed into place once forced to disk, so a snapshot file is either complete or not there at all.
+ *
+ * Loading maps the file into memory and only decodes the usernames: the Users returned are MappedUsers, which
+ * decode the rest of their fields when first used.
+ *
+ * @author Carlos Melero
+ *
+ */
+final class SnapshotFile {
+
+	private static final int MAGIC = 0x55534e50; // "USNP"
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 3 * Integer.BYTES;
+
+	/**
+	 * Largest region mapped at once. Larger files are mapped in several regions, each one starting at a User.
+	 */
+	private static final int MAX_REGION = 1 << 30;
+
+	private SnapshotFile() {
+	}
+
+	/**
+	 * Writes a snapshot.
+	 *
+	 * @param file The snapshot file, replaced if it exists
+	 * @param users The Users to write, in order
+	 * @throws IOException If the snapshot cannot be written
+	 */
+	static void write(Path file, List<User> users) throws IOException {
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			CRC32 crc = new CRC32();
+			// Not closed here, as that would close the channel before forcing it
+			BufferedOutputStream buffered = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+			DataOutputStream out = new DataOutputStream(new CheckedOutputStream(buffered, crc));
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(users.size());
+
+			ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+			DataOutputStream recordOut = new DataOutputStream(record);
+			for (User u : users) {
+				record.reset();
+				UserCodec.writeString(recordOut, u.getUsername());
+				// Users loaded from a previous snapshot and never used since are copied without decoding them
+				if (!(u instanceof MappedUser) || !((MappedUser) u).copyFieldsTo(recordOut))
+					UserCodec.writeFields(recordOut, u);
+
+				out.writeInt(record.size());
+				record.writeTo(out);
+			}
+
+			// The checksum itself goes straight to the buffered stream, outside of the checked one
+			DataOutputStream trailer = new DataOutputStream(buffered);
+			trailer.writeInt((int) crc.getValue());
+			trailer.flush();
+
+			channel.force(true);
+		}
+
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		WriteAheadLog.forceDirectory(file);
+	}
+
+	/**
+	 * Loads a snapshot. Throws an IOException if the file is not a valid snapshot.
+	 *
+	 * @param file The snapshot file
+	 * @return The Users, in the order they were written
+	 * @throws IOException If the snapshot cannot be read or is not valid
+	 */
+	static List<User> load(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE + Integer.BYTES)
+				throw invalid(file, "too short");
+			long end = size - Integer.BYTES;
+
+			CRC32 crc = new CRC32();
+			ByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(end, MAX_REGION));
+			long regionStart = 0L;
+
+			ByteBuffer header = region.duplicate();
+			header.limit(HEADER_SIZE);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION)
+				throw invalid(file, "unknown format");
+			int count = header.getInt();
+			header.flip();
+			crc.update(header);
+
+			List<User> users = new ArrayList<User>(count);
+			long position = HEADER_SIZE;
+			for (int i = 0; i < count; i++) {
+				// Map a new region when the next User does not fit in the current one
+				if (position + Integer.BYTES > regionStart + region.capacity()
+						|| position + Integer.BYTES + region.getInt((int) (position - regionStart)) > regionStart + region.capacity()) {
+					if (position + Integer.BYTES > end)
+						throw invalid(file, "truncated");
+					region = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(end - position, MAX_REGION));
+					regionStart = position;
+				}
+
+				int offset = (int) (position - regionStart);
+				int length = region.getInt(offset);
+				if (length < Integer.BYTES || offset + Integer.BYTES + length > region.capacity())
+					throw invalid(file, "truncated");
+
+				ByteBuffer record = region.duplicate();
+				record.position(offset);
+				record.limit(offset + Integer.BYTES + length);
+				crc.update(record.duplicate());
+
+				record.position(offset + Integer.BYTES);
+				String username = UserCodec.readString(record);
+				if (username == null)
+					throw invalid(file, "user without username");
+				users.add(new MappedUser(username, region, record.position(), record.limit()));
+
+				position += Integer.BYTES + length;
+			}
+
+			ByteBuffer trailer = ByteBuffer.allocate(Integer.BYTES);
+			channel.read(trailer, end);
+			trailer.flip();
+			if (position != end || trailer.getInt() != (int) crc.getValue())
+				throw invalid(file, "checksum mismatch");
+
+			return users;
+		}
+	}
+
+	private static IOException invalid(Path file, String reason) {
+		return new IOException("Snapshot " + file + " is not valid: " + reason);
+	}
+
+}
@@ -0,0 +1,63 @@
+package com.agilecontent.test.stores;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary of repeated strings (email domains, picture URL prefixes), each one stored once and referred to by
+ * a small id. Ids start at 1, so that 0 can mean "not in the dictionary". It stops growing once full, so that a
+ * field that turns out not to repeat costs a bounded amount of memory. Not thread-safe.
+ *
+ * @author Carlos Melero
+ *
+ */
+final class StringDictionary {
+
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+	// Strings by id - 1
+	private final List<String> values = new ArrayList<String>();
+
+	private final int maxSize;
+
+	/**
+	 * Parameterized constructor.
+	 * @param maxSize Maximum amount of strings held
+	 */
+	StringDictionary(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Gets the id of a string, adding it if it is not there yet.
+	 * @param value The string to encode
+	 * @return Its id, or 0 if the dictionary is full
+	 */
+	int encode(String value) {
+		Integer id = ids.get(value);
+		if (id != null)
+			return id;
+		if (values.size() >= maxSize)
+			return 0;
+
+		values.add(value);
+		ids.put(value, values.size());
+		return values.size();
+	}
+
+	/**
+	 * Gets the string of an id.
+	 * @param id An id returned by encode, greater than 0
+	 * @return The string
+	 */
+	String decode(int id) {
+		return values.get(id - 1);
+	}
+
+	int size() {
+		return values.size();
+	}
+
+}
@@ -0,0 +1,150 @@
+package com.agilecontent.test.stores;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+
+/**
+ * Compact binary encoding of Users, used for everything the stores write to disk.
+ * Strings are written as their UTF-8 length (-1 for null) followed by their bytes, and the gender as its ordinal.
+ * The username always comes first, so that it can be read on its own, leaving the rest of the fields for later.
+ * Lengths and genders are checked when read, so that a corrupted record fails with an IOException instead of
+ * an allocation of gigabytes or an out of bounds access.
+ *
+ * @author Carlos Melero
+ *
+ */
+final class UserCodec {
+
+	private static final Gender[] GENDERS = Gender.values();
+
+	// Bytes allocated at first when reading a String from a DataInput, whose remaining size is unknown.
+	private static final int READ_CHUNK = 8192;
+
+	private UserCodec() {
+	}
+
+	/**
+	 * Writes every field of a User.
+	 * @param out Where to write the User
+	 * @param user The User to write
+	 * @throws IOException If the output fails
+	 */
+	static void write(DataOutput out, User user) throws IOException {
+		writeString(out, user.getUsername());
+		writeFields(out, user);
+	}
+
+	/**
+	 * Writes every field of a User but the username.
+	 * @param out Where to write the fields
+	 * @param user The User to write the fields of
+	 * @throws IOException If the output fails
+	 */
+	static void writeFields(DataOutput out, User user) throws IOException {
+		writeString(out, user.getName());
+		writeString(out, user.getEmail());
+		out.writeByte((user.getGender() != null) ? user.getGender().ordinal() : -1);
+		writeString(out, user.getPicture());
+	}
+
+	/**
+	 * Reads a User written by write.
+	 * @param in Where to read the User from
+	 * @return A new User
+	 * @throws IOException If the input fails or ends too soon
+	 */
+	static User read(DataInput in) throws IOException {
+		String username = readString(in);
+		String name = readString(in);
+		String email = readString(in);
+		Gender gender = gender(in.readByte());
+		String picture = readString(in);
+
+		return new User(username, name, email, gender, picture);
+	}
+
+	/**
+	 * Reads a gender written by writeFields.
+	 * @param in Where to read the gender from
+	 * @return The gender, or null if none
+	 * @throws IOException If the buffer ends too soon or the gender is not valid
+	 */
+	static Gender readGender(ByteBuffer in) throws IOException {
+		if (!in.hasRemaining())
+			throw new EOFException("Gender expected at the end of the record");
+		return gender(in.get());
+	}
+
+	/**
+	 * Reads a String written by writeString.
+	 * @param in Where to read the String from
+	 * @return The String, or null if it was null
+	 * @throws IOException If the buffer ends too soon or the length is not valid
+	 */
+	static String readString(ByteBuffer in) throws IOException {
+		if (in.remaining() < Integer.BYTES)
+			throw new EOFException(String.format("String length expected with %d bytes remaining", in.remaining()));
+		int length = in.getInt();
+		if (length == -1)
+			return null;
+		if (length < 0 || length > in.remaining())
+			throw new IOException(String.format("Invalid string length %d with %d bytes remaining", length, in.remaining()));
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static void writeString(DataOutput out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a String written by writeString. As the remaining size of the input is unknown, the bytes are read in
+	 * growing chunks: a corrupted length runs into the end of the input long before allocating that much.
+	 * @param in Where to read the String from
+	 * @return The String, or null if it was null
+	 * @throws IOException If the input fails, ends too soon or the length is not valid
+	 */
+	static String readString(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length == -1)
+			return null;
+		if (length < 0)
+			throw new IOException(String.format("Invalid string length %d", length));
+
+		byte[] bytes = new byte[Math.min(length, READ_CHUNK)];
+		int read = 0;
+		try {
+			while (read < length) {
+				if (read == bytes.length)
+					bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * bytes.length));
+				in.readFully(bytes, read, bytes.length - read);
+				read = bytes.length;
+			}
+		} catch (EOFException e) {
+			throw new EOFException(String.format("String of %d bytes runs past the end of the input", length));
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static Gender gender(byte ordinal) throws IOException {
+		if (ordinal < -1 || ordinal >= GENDERS.length)
+			throw new IOException(String.format("Invalid gender %d", ordinal));
+		return (ordinal >= 0) ? GENDERS[ordinal] : null;
+	}
+
+}
@@ -0,0 +1,235 @@
+package com.agilecontent.test.stores;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Type-ahead search over the usernames and names of the Users: prefixes of usernames, and names similar to a
+ * (possibly partial or misspelt) query. Only usernames are kept, the Users are looked up by whoever calls it.
+ *
+ * Usernames are kept sorted, ignoring case, so the ones starting with a prefix are a range of them, found in
+ * logarithmic time. Names are split into trigrams, after being padded with two spaces in front and one behind, and
+ * each trigram points to the distinct names holding it: as many Users share the same name, this keeps the posting
+ * lists far shorter than one entry per User. A query is split the same way, without the padding behind so a partial
+ * last word still matches, and the names sharing most of its trigrams are ranked by their similarity to it
+ * (shared trigrams / trigrams of both). Only the MAX_CANDIDATES names found first are ranked, and the rarest
+ * trigrams of the query are looked up first, so very common trigrams do not make a query slow.
+ *
+ * Every method is safe to call concurrently. The usernames of a name are kept by the order they were added in.
+ *
+ * @author Carlos Melero
+ *
+ */
+public class UserSearchIndex {
+
+	/**
+	 * Maximum amount of distinct names ranked by a query.
+	 */
+	static final int MAX_CANDIDATES = 2000;
+
+	// Usernames by their lowercase form plus the username itself, which keeps them unique.
+	private final ConcurrentSkipListMap<String, String> usernames = new ConcurrentSkipListMap<String, String>();
+
+	// Usernames holding each (normalized) name, by the order they were added in.
+	private final ConcurrentHashMap<String, ConcurrentSkipListMap<Long, String>> names = new ConcurrentHashMap<String, ConcurrentSkipListMap<Long, String>>();
+
+	// Names holding each trigram.
+	private final ConcurrentHashMap<String, Set<String>> trigrams = new ConcurrentHashMap<String, Set<String>>();
+
+	/**
+	 * Adds a User to the index.
+	 * @param username The username of the User
+	 * @param name The name of the User, may be null
+	 * @param sequence A number ordering the Users of a name, unique for each of them
+	 */
+	public void add(String username, String name, long sequence) {
+		usernames.put(usernameKey(username), username);
+
+		String key = normalize(name);
+		if (key == null)
+			return;
+		names.compute(key, (k, holders) -> {
+			if (holders == null) {
+				holders = new ConcurrentSkipListMap<Long, String>();
+				for (String trigram : trigramsOf(k, true)) {
+					trigrams.compute(trigram, (t, holding) -> {
+						if (holding == null)
+							holding = ConcurrentHashMap.newKeySet();
+						holding.add(k);
+						return holding;
+					});
+				}
+			}
+			holders.put(sequence, username);
+			return holders;
+		});
+	}
+
+	/**
+	 * Removes a User from the index.
+	 * @param username The username of the User
+	 * @param name The name the User was added with, may be null
+	 * @param sequence The number the User was added with
+	 */
+	public void remove(String username, String name, long sequence) {
+		usernames.remove(usernameKey(username));
+
+		String key = normalize(name);
+		if (key == null)
+			return;
+		names.computeIfPresent(key, (k, holders) -> {
+			holders.remove(sequence);
+			if (!holders.isEmpty())
+				return holders;
+
+			for (String trigram : trigramsOf(k, true)) {
+				trigrams.computeIfPresent(trigram, (t, holding) -> {
+					holding.remove(k);
+					return holding.isEmpty() ? null : holding;
+				});
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Finds the usernames starting with a prefix, ignoring case, in alphabetical order.
+	 * @param prefix The prefix to search for
+	 * @param limit Maximum amount of usernames to return
+	 * @return The usernames found
+	 */
+	public List<String> findByUsernamePrefix(String prefix, int limit) {
+		String from = prefix.toLowerCase(Locale.ROOT);
+		List<String> found = new ArrayList<String>(Math.min(limit, 64));
+		for (String username : usernames.subMap(from, from + Character.MAX_VALUE).values()) {
+			if (found.size() == limit)
+				break;
+			found.add(username);
+		}
+		return found;
+	}
+
+	/**
+	 * Finds the usernames of the Users with the names most similar to a query, the most similar first.
+	 * @param query The (partial) name to search for
+	 * @param limit Maximum amount of usernames to return
+	 * @return The usernames found
+	 */
+	public List<String> findByName(String query, int limit) {
+		String key = normalize(query);
+		List<String> found = new ArrayList<String>(Math.min(limit, 64));
+		if (key == null || key.isEmpty())
+			return found;
+
+		// Rarest trigrams first
+		Set<String> queryTrigrams = trigramsOf(key, false);
+		List<Set<String>> postings = new ArrayList<Set<String>>(queryTrigrams.size());
+		for (String trigram : queryTrigrams) {
+			Set<String> holding = trigrams.get(trigram);
+			if (holding != null)
+				postings.add(holding);
+		}
+		postings.sort(Comparator.comparingInt(Set::size));
+
+		// Shared trigrams of each candidate name. Once there are candidates, the trigrams held by too many names
+		// are only checked against them, instead of going through all of those names
+		Map<String, Integer> shared = new HashMap<String, Integer>();
+		for (Set<String> holding : postings) {
+			if (!shared.isEmpty() && holding.size() > MAX_CANDIDATES) {
+				for (Map.Entry<String, Integer> e : shared.entrySet()) {
+					if (holding.contains(e.getKey()))
+						e.setValue(e.getValue() + 1);
+				}
+				continue;
+			}
+			for (String name : holding) {
+				Integer count = shared.get(name);
+				if (count != null)
+					shared.put(name, count + 1);
+				else if (shared.size() < MAX_CANDIDATES)
+					shared.put(name, 1);
+			}
+		}
+
+		List<Candidate> ranked = new ArrayList<Candidate>(shared.size());
+		for (Map.Entry<String, Integer> e : shared.entrySet()) {
+			int hits = e.getValue();
+			// Trigrams of the padded name, counting repeated ones (rare in names) as different
+			int nameTrigrams = e.getKey().length() + 1;
+			ranked.add(new Candidate(e.getKey(), (double) hits / (queryTrigrams.size() + nameTrigrams - hits)));
+		}
+		Collections.sort(ranked);
+
+		for (Candidate c : ranked) {
+			ConcurrentSkipListMap<Long, String> holders = names.get(c.name);
+			if (holders == null)
+				continue;
+			for (String username : holders.values()) {
+				if (found.size() == limit)
+					return found;
+				found.add(username);
+			}
+		}
+		return found;
+	}
+
+	private static String usernameKey(String username) {
+		return username.toLowerCase(Locale.ROOT) + '\u0000' + username;
+	}
+
+	/**
+	 * Normalizes a name: lowercase, trimmed, with single spaces between words.
+	 * @param name The name to normalize
+	 * @return The normalized name, or null if null
+	 */
+	static String normalize(String name) {
+		if (name == null)
+			return null;
+		return name.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Splits a normalized name into its trigrams.
+	 * @param name The normalized name
+	 * @param whole true to pad the end too (a whole name), false to leave it open (a query being typed)
+	 * @return The distinct trigrams, in order
+	 */
+	static Set<String> trigramsOf(String name, boolean whole) {
+		String padded = "  " + name + (whole ? " " : "");
+		Set<String> found = new LinkedHashSet<String>();
+		for (int i = 0; i + 3 <= padded.length(); i++)
+			found.add(padded.substring(i, i + 3));
+		return found;
+	}
+
+	/**
+	 * A name ranked by its similarity to a query. The most similar go first, then the shortest, then alphabetically.
+	 */
+	private static class Candidate implements Comparable<Candidate> {
+		final String name;
+		final double similarity;
+
+		Candidate(String name, double similarity) {
+			this.name = name;
+			this.similarity = similarity;
+		}
+
+		@Override
+		public int compareTo(Candidate other) {
+			int c = Double.compare(other.similarity, similarity);
+			if (c == 0)
+				c = Integer.compare(name.length(), other.name.length());
+			return (c != 0) ? c : name.compareTo(other.name);
+		}
+	}
+
+}
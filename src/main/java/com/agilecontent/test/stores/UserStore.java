@@ -0,0 +1,169 @@
+package com.agilecontent.test.stores;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.UserPage;
+
+/**
+ * Storage abstraction for the Users managed by the UserService. Implementations keep the Users in
+ * insertion order (used for pagination) and indexed by their username (used for everything else).
+ * Every implementation must be safe to use from concurrent requests.
+ * 
+ * @author Carlos Melero
+ *
+ */
+public interface UserStore extends Iterable<User> {
+
+	/**
+	 * Finds a User by their username.
+	 * @param username The username to search for
+	 * @return The stored User, or null if not found
+	 */
+	User get(String username);
+
+	/**
+	 * Gets the version a User was last changed at, out of a counter of the changes of the store: it changes whenever
+	 * the User is created or updated, and never goes back, even if the username is removed and created again. It is
+	 * given once the User has changed, so it must be read before the User: if the User changes in between, the
+	 * version read is just older than the User. Lets clients tell whether a User changed since they last read it
+	 * (see UserController's ETags) without reading it again.
+	 * @param username The username of the User
+	 * @return The version of the User, or 0 if not stored (or not known)
+	 */
+	long getVersion(String username);
+
+	/**
+	 * Finds the Users of several usernames. Stores where each lookup is a round trip should override it with a bulk lookup.
+	 * @param usernames The usernames to search for
+	 * @return The stored Users found, by username
+	 */
+	default Map<String, User> getAll(Collection<String> usernames) {
+		Map<String, User> found = new HashMap<String, User>();
+		for (String username : usernames) {
+			User u = get(username);
+			if (u != null)
+				found.put(username, u);
+		}
+		return found;
+	}
+
+	/**
+	 * Finds which of the given usernames are already taken. This is called with every batch of generated Users,
+	 * so stores where each lookup is a round trip should override it with a bulk lookup.
+	 * @param usernames The usernames to check
+	 * @return The usernames taken
+	 */
+	default Set<String> findTaken(Collection<String> usernames) {
+		Set<String> taken = new HashSet<String>();
+		for (String username : usernames) {
+			if (get(username) != null)
+				taken.add(username);
+		}
+		return taken;
+	}
+
+	/**
+	 * Stores a new User at the end of the ordering, unless its username is already taken.
+	 * @param user The User to store
+	 * @return null if the User was stored, or the User already stored under that username
+	 */
+	User insert(User user);
+
+	/**
+	 * Stores a collection of Users at the end of the ordering, as a single mutation. Users whose username
+	 * is already taken (either in the store or earlier in the same collection) are skipped.
+	 * @param users The Users to store
+	 * @return The Users that were actually stored, in order
+	 */
+	List<User> insertAll(Collection<User> users);
+
+	/**
+	 * Replaces the information of a stored User with the one of the given User, identified by username.
+	 * @param user The User holding the new information
+	 * @return The updated stored User, or null if no User has that username
+	 */
+	User update(User user);
+
+	/**
+	 * Updates a collection of Users, the same way as update. Stores should override it to apply the whole collection
+	 * as a single mutation (one lock, transaction or log commit); by default they are updated one by one.
+	 * @param users The Users holding the new information
+	 * @return The updated stored Users, in order, leaving out the ones not found
+	 */
+	default List<User> updateAll(Collection<User> users) {
+		List<User> updated = new ArrayList<User>(users.size());
+		for (User user : users) {
+			User u = update(user);
+			if (u != null)
+				updated.add(u);
+		}
+		return updated;
+	}
+
+	/**
+	 * Removes a User from the store.
+	 * @param username The username of the User to remove
+	 * @return The removed User, or null if not found
+	 */
+	User remove(String username);
+
+	/**
+	 * Removes a collection of Users, the same way as remove. Stores should override it to apply the whole collection
+	 * as a single mutation (one lock, transaction or log commit); by default they are removed one by one.
+	 * @param usernames The usernames of the Users to remove
+	 * @return The removed Users, in order, leaving out the ones not found
+	 */
+	default List<User> removeAll(Collection<String> usernames) {
+		List<User> removed = new ArrayList<User>(usernames.size());
+		for (String username : usernames) {
+			User u = remove(username);
+			if (u != null)
+				removed.add(u);
+		}
+		return removed;
+	}
+
+	/**
+	 * Gets the amount of Users stored.
+	 * @return The amount of Users
+	 */
+	int size();
+
+	/**
+	 * Gets the amount of pages the stored Users are split into. An empty store still has one (empty) page.
+	 * @return The last page index + 1
+	 */
+	int getPages();
+
+	/**
+	 * Returns a copy of one page of Users, in insertion order.
+	 * @param pageIndex The index of the page to return
+	 * @return The page found, or null if out of bounds
+	 */
+	List<User> getPage(int pageIndex);
+
+	/**
+	 * Returns a page of Users in insertion order, starting right after the given cursor. This does not depend
+	 * on any server side position, so every client can page through the store independently.
+	 * @param cursor The cursor returned along with the previous page, or null to start from the beginning
+	 * @param pageSize The maximum amount of Users to return
+	 * @return The page found, with the cursor to the following one
+	 */
+	UserPage getPageAfter(String cursor, int pageSize);
+
+	/**
+	 * Iterates every stored User in insertion order. The iterator never throws
+	 * ConcurrentModificationException, but is not guaranteed to reflect mutations made after its creation.
+	 */
+	@Override
+	Iterator<User> iterator();
+
+}
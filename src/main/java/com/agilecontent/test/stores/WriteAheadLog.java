@@ -0,0 +1,372 @@
+package com.agilecontent.test.stores;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.agilecontent.test.metrics.UserMetrics;
+import com.agilecontent.test.utils.ErrorUtils;
+
+/**
+ * Append-only log of opaque records, made durable with group commit. Appending only queues the record in memory;
+ * a single writer thread takes everything queued so far, writes it with one call to the FileChannel and forces it
+ * to disk once. Every record appended while a force is in progress thus shares the next one, so the amount of
+ * forces per second stays bounded by the disk, not by the amount of appends.
+ *
+ * Each record is framed as [length (int)][crc32 (int)][payload]. A record cut short by a crash, or whose checksum
+ * does not match, ends the log: it is truncated away when the log is opened.
+ *
+ * The log can be rolled over to a new file (a new segment), so that older segments can be deleted once
+ * their contents are safely stored somewhere else, such as in a snapshot.
+ *
+ * @author Carlos Melero
+ *
+ */
+public class WriteAheadLog implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+
+	private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+	/**
+	 * Largest record accepted, as a sanity check when reading the length of a record back.
+	 */
+	private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+	// Segment being written. Only replaced by roll, while nothing is pending.
+	private Path file;
+
+	private FileChannel channel;
+
+	private final UserMetrics metrics;
+
+	private final Thread writer;
+
+	// Records appended but not written yet. Guarded by this log's monitor, like every field below.
+	private List<byte[]> pending = new ArrayList<byte[]>();
+
+	// Sequence of the last record appended, and of the last one forced to disk.
+	private long appended = 0L;
+	private long durable = 0L;
+
+	// Set when a write fails. From then on, every append fails.
+	private IOException failure;
+
+	private boolean closed;
+
+	// Reused between batches, only grown when a batch does not fit.
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+
+	/**
+	 * Opens a log, creating it if it does not exist. Every valid record already in the log is handed to the replayer,
+	 * in order, before this returns; anything after the last valid record is truncated.
+	 *
+	 * @param file The log file
+	 * @param replayer Receives the payload of every record already in the log
+	 * @param metrics Where to record the size and duration of every group commit
+	 * @throws IOException If the log cannot be opened or read
+	 */
+	public WriteAheadLog(Path file, Consumer<byte[]> replayer, UserMetrics metrics) throws IOException {
+		this.file = file;
+		this.metrics = metrics;
+
+		Path parent = file.toAbsolutePath().getParent();
+		if (parent != null)
+			Files.createDirectories(parent);
+
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			long end = replay(channel, file, replayer);
+			if (end < channel.size()) {
+				log.warn("Truncating {} torn bytes at the end of {}", channel.size() - end, file);
+				channel.truncate(end);
+				channel.force(true);
+			}
+			channel.position(end);
+			forceDirectory(file);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+
+		this.writer = new Thread(this::writeLoop, "user-wal-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Queues a record to be written. This never blocks on the disk: call awaitDurable with the returned sequence
+	 * to wait until the record is safely stored. Records are written in the same order they are appended.
+	 *
+	 * @param payload The record to write
+	 * @return The sequence of the record
+	 */
+	public synchronized long append(byte[] payload) {
+		checkWritable();
+
+		pending.add(payload);
+		if (pending.size() == 1)
+			notifyAll();
+		return ++appended;
+	}
+
+	/**
+	 * Waits until a record, and thus every record appended before it, has been forced to disk.
+	 * Throws an UncheckedIOException if the log could not be written.
+	 *
+	 * @param sequence The sequence returned by append
+	 */
+	public synchronized void awaitDurable(long sequence) {
+		boolean interrupted = false;
+		try {
+			while (durable < sequence) {
+				if (failure != null)
+					throw storageError();
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					// The record is already on its way to the disk, so we keep waiting for it
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Appends a record and waits until it has been forced to disk.
+	 *
+	 * @param payload The record to write
+	 */
+	public void write(byte[] payload) {
+		awaitDurable(append(payload));
+	}
+
+	/**
+	 * Gets the current size of the segment being written.
+	 * @return The size in bytes
+	 * @throws IOException If the size cannot be read
+	 */
+	public synchronized long size() throws IOException {
+		return channel.size();
+	}
+
+	/**
+	 * Waits until every record appended so far is on disk, then goes on writing to a new, empty segment.
+	 * Every record appended before this call is in the previous segment, every record appended after it in the new one.
+	 *
+	 * @param next The file of the new segment, which must not exist
+	 * @throws IOException If the new segment cannot be created
+	 */
+	public synchronized void roll(Path next) throws IOException {
+		checkWritable();
+		awaitDurable(appended);
+
+		FileChannel nextChannel = FileChannel.open(next, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		forceDirectory(next);
+
+		channel.close();
+		channel = nextChannel;
+		file = next;
+	}
+
+	/**
+	 * Reads every valid record of a segment that is not being written anymore.
+	 *
+	 * @param file The segment file
+	 * @param replayer Receives the payload of every valid record
+	 * @throws IOException If the file cannot be read
+	 */
+	public static void replay(Path file, Consumer<byte[]> replayer) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long end = replay(channel, file, replayer);
+			if (end < channel.size())
+				log.warn("Ignoring {} invalid bytes at the end of {}", channel.size() - end, file);
+		}
+	}
+
+	/**
+	 * Forces the directory entry of a file to disk, so that a newly created or renamed file survives a crash.
+	 * Windows cannot open directories, so this does nothing there.
+	 *
+	 * @param file The file created or renamed
+	 * @throws IOException If the directory cannot be forced
+	 */
+	static void forceDirectory(Path file) throws IOException {
+		if (System.getProperty("os.name").startsWith("Windows"))
+			return;
+
+		try (FileChannel dir = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+			dir.force(true);
+		}
+	}
+
+	/**
+	 * Writes every record still queued, then closes the file. Appending afterwards fails.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			notifyAll();
+		}
+
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+	}
+
+	/**
+	 * Body of the writer thread: takes every queued record at once, writes and forces them, then wakes up
+	 * whoever is waiting for them. Exits once closed and drained, or on the first failure.
+	 */
+	private void writeLoop() {
+		while (true) {
+			List<byte[]> batch;
+			long last;
+
+			synchronized (this) {
+				while (pending.isEmpty() && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// Only close() stops the writer
+					}
+				}
+				if (pending.isEmpty())
+					return;
+
+				batch = pending;
+				last = appended;
+				pending = new ArrayList<byte[]>(batch.size());
+			}
+
+			long start = System.nanoTime();
+			try {
+				writeBatch(batch);
+			} catch (IOException e) {
+				log.error("Could not write to {}", file, e);
+				synchronized (this) {
+					failure = e;
+					notifyAll();
+				}
+				return;
+			}
+			metrics.walCommit(batch.size(), System.nanoTime() - start);
+
+			synchronized (this) {
+				durable = last;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Frames a batch of records into the buffer, writes it and forces it to disk.
+	 * @param batch The records to write
+	 * @throws IOException If the write fails
+	 */
+	private void writeBatch(List<byte[]> batch) throws IOException {
+		int size = 0;
+		for (byte[] payload : batch)
+			size += HEADER_SIZE + payload.length;
+		if (buffer.capacity() < size)
+			buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(size - 1) << 1);
+
+		CRC32 crc = new CRC32();
+		buffer.clear();
+		for (byte[] payload : batch) {
+			crc.reset();
+			crc.update(payload, 0, payload.length);
+			buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+		}
+		buffer.flip();
+
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		channel.force(false);
+	}
+
+	/**
+	 * Reads every valid record from the start of a file.
+	 * @param channel The open file
+	 * @param file The path of the file, for logging
+	 * @param replayer Receives the payload of every valid record
+	 * @return The position right after the last valid record
+	 * @throws IOException If the file cannot be read
+	 */
+	private static long replay(FileChannel channel, Path file, Consumer<byte[]> replayer) throws IOException {
+		long position = 0L;
+		long size = channel.size();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		CRC32 crc = new CRC32();
+		int records = 0;
+
+		while (position + HEADER_SIZE <= size) {
+			header.clear();
+			readFully(channel, header, position);
+			header.flip();
+			int length = header.getInt();
+			int checksum = header.getInt();
+
+			if (length < 0 || length > MAX_RECORD_SIZE || position + HEADER_SIZE + length > size)
+				break;
+
+			ByteBuffer payload = ByteBuffer.allocate(length);
+			readFully(channel, payload, position + HEADER_SIZE);
+
+			crc.reset();
+			crc.update(payload.array(), 0, length);
+			if ((int) crc.getValue() != checksum)
+				break;
+
+			replayer.accept(payload.array());
+			position += HEADER_SIZE + length;
+			records++;
+		}
+
+		log.info("Replayed {} records from {}", records, file);
+		return position;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+		while (target.hasRemaining()) {
+			if (channel.read(target, position + target.position()) < 0)
+				throw new IOException("Unexpected end of file");
+		}
+	}
+
+	/**
+	 * Throws if nothing can be appended anymore, either because the log is closed or because a write failed.
+	 */
+	public synchronized void checkWritable() {
+		if (failure != null)
+			throw storageError();
+		if (closed)
+			throw new IllegalStateException(String.format(ErrorUtils.ErrorMsg.STORAGE_ERROR.getMsg(), "the log is closed"));
+	}
+
+	private UncheckedIOException storageError() {
+		return new UncheckedIOException(String.format(ErrorUtils.ErrorMsg.STORAGE_ERROR.getMsg(), failure.getMessage()), failure);
+	}
+
+}
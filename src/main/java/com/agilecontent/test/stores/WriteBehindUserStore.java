@@ -0,0 +1,517 @@
+package com.agilecontent.test.stores;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.agilecontent.test.metrics.UserMetrics;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.UserPage;
+import com.agilecontent.test.utils.ErrorUtils;
+
+/**
+ * UserStore that persists into a slower store (e.g. a JpaUserStore) without making anyone wait for it. Every
+ * mutation is applied to an in-memory store, which answers every read, and returns right away; a background writer
+ * then applies the pending mutations to the persistent store, in batches.
+ *
+ * Pending mutations are coalesced per username, so a User inserted and updated several times before a flush is
+ * written only once, and one inserted and removed is not written at all. The writer flushes everything pending
+ * every "flushInterval", or as soon as the queue is full. The queue is bounded: once it holds "capacity" usernames,
+ * mutations wait for the writer to make room (the limit is checked before each mutation, so a single batch can
+ * go past it). A failed flush is retried until it succeeds, while new mutations keep queuing behind it.
+ *
+ * Mutations are applied and queued under a single lock, so the queue holds them in the very order they were applied.
+ * Closing the store (Spring does it on shutdown) flushes everything pending before returning.
+ *
+ * @author Carlos Melero
+ *
+ */
+public class WriteBehindUserStore implements UserStore, Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(WriteBehindUserStore.class);
+
+	/**
+	 * Time between two attempts of a failed flush.
+	 */
+	private static final long RETRY_MILLIS = 1000L;
+
+	/**
+	 * Attempts of the last flush, once closed, before giving up.
+	 */
+	private static final int CLOSING_ATTEMPTS = 3;
+
+	private static final byte INSERT = 1;
+	private static final byte UPDATE = 2;
+	// Removal of a persisted User followed by the insertion of a new one with the same username
+	private static final byte REPLACE = 3;
+	private static final byte REMOVE = 4;
+
+	private final UserStore memory;
+
+	private final UserStore persistent;
+
+	private final UserMetrics metrics;
+
+	private final int capacity;
+
+	private final long flushIntervalNanos;
+
+	// Guards everything below, and keeps the queue in the order of the mutations.
+	private final ReentrantLock lock = new ReentrantLock();
+
+	// Signalled when the writer should flush: something got queued, the queue is full, or the store is closing.
+	private final Condition flushNeeded = lock.newCondition();
+
+	// Signalled after every flush.
+	private final Condition flushed = lock.newCondition();
+
+	// Last mutation of each username not yet written, in the order the usernames were queued.
+	private LinkedHashMap<String, Pending> pending = new LinkedHashMap<String, Pending>();
+
+	// Sequence of the last mutation queued, and of the last one written to the persistent store.
+	private long queuedSequence;
+	private long flushedSequence;
+
+	private volatile int queueDepth;
+
+	private boolean closed;
+
+	private final Thread writer;
+
+	/**
+	 * Parameterized constructor. Loads every User of the persistent store into the in-memory one.
+	 *
+	 * @param memory The in-memory store answering every read, which must be empty
+	 * @param persistent The store the mutations are written to, in the background
+	 * @param capacity Amount of usernames with pending mutations from which mutations wait for the writer
+	 * @param flushInterval Time between two flushes, in milliseconds
+	 * @param metrics Where to record the queue depth and the flushes
+	 */
+	public WriteBehindUserStore(UserStore memory, UserStore persistent, int capacity, long flushInterval, UserMetrics metrics) {
+		if (capacity <= 0 || flushInterval <= 0)
+			throw new IllegalArgumentException("The capacity and flush interval of the write-behind queue must be positive");
+
+		this.memory = memory;
+		this.persistent = persistent;
+		this.capacity = capacity;
+		this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+		this.metrics = metrics;
+
+		long start = System.nanoTime();
+		List<User> users = new ArrayList<User>(persistent.size());
+		for (User u : persistent)
+			users.add(u);
+		memory.insertAll(users);
+		log.info("Loaded {} users into memory in {} ms", users.size(), (System.nanoTime() - start) / 1000000);
+
+		metrics.bindWriteBehind(this);
+		this.writer = new Thread(this::write, "user-write-behind");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Override
+	public User get(String username) {
+		return memory.get(username);
+	}
+
+	@Override
+	public long getVersion(String username) {
+		return memory.getVersion(username);
+	}
+
+	@Override
+	public User insert(User user) {
+		lock.lock();
+		try {
+			awaitRoom();
+			User existing = memory.insert(user);
+			if (existing == null)
+				queueInsert(user);
+			return existing;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public List<User> insertAll(Collection<User> users) {
+		lock.lock();
+		try {
+			awaitRoom();
+			List<User> inserted = memory.insertAll(users);
+			for (User u : inserted)
+				queueInsert(u);
+			return inserted;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public User update(User user) {
+		lock.lock();
+		try {
+			awaitRoom();
+			return updateLocked(user);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public List<User> updateAll(Collection<User> users) {
+		List<User> updated = new ArrayList<User>(users.size());
+
+		lock.lock();
+		try {
+			awaitRoom();
+			for (User user : users) {
+				User u = updateLocked(user);
+				if (u != null)
+					updated.add(u);
+			}
+			return updated;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public User remove(String username) {
+		lock.lock();
+		try {
+			awaitRoom();
+			return removeLocked(username);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public List<User> removeAll(Collection<String> usernames) {
+		List<User> removed = new ArrayList<User>(usernames.size());
+
+		lock.lock();
+		try {
+			awaitRoom();
+			for (String username : usernames) {
+				User u = removeLocked(username);
+				if (u != null)
+					removed.add(u);
+			}
+			return removed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		return memory.size();
+	}
+
+	@Override
+	public int getPages() {
+		return memory.getPages();
+	}
+
+	@Override
+	public List<User> getPage(int pageIndex) {
+		return memory.getPage(pageIndex);
+	}
+
+	@Override
+	public UserPage getPageAfter(String cursor, int pageSize) {
+		return memory.getPageAfter(cursor, pageSize);
+	}
+
+	@Override
+	public Iterator<User> iterator() {
+		return memory.iterator();
+	}
+
+	/**
+	 * Gets the amount of usernames with mutations not yet written to the persistent store.
+	 * @return The depth of the queue
+	 */
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	/**
+	 * Waits until every mutation applied so far is written to the persistent store.
+	 */
+	public void flush() {
+		lock.lock();
+		try {
+			long target = queuedSequence;
+			flushNeeded.signal();
+			while (flushedSequence < target && writer.isAlive())
+				flushed.awaitUninterruptibly();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Flushes every pending mutation, then stops the writer. Mutating afterwards fails.
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			flushNeeded.signal();
+			flushed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Waits until the queue has room for another mutation. Must hold the lock.
+	 */
+	private void awaitRoom() {
+		while (pending.size() >= capacity && !closed && writer.isAlive()) {
+			flushNeeded.signal();
+			flushed.awaitUninterruptibly();
+		}
+		if (closed)
+			throw new IllegalStateException(String.format(ErrorUtils.ErrorMsg.STORAGE_ERROR.getMsg(), "the store is closed"));
+	}
+
+	/**
+	 * Queues the insertion of a User just inserted in memory. Must hold the lock.
+	 * @param user The User inserted
+	 */
+	private void queueInsert(User user) {
+		Pending previous = pending.remove(user.getUsername());
+		// Removed and inserted again: the persisted User must go too, so the new one ends up last
+		byte kind = (previous != null && previous.kind == REMOVE) ? REPLACE : INSERT;
+		queue(user.getUsername(), new Pending(kind, copy(user)));
+	}
+
+	/**
+	 * Queues the last mutation of a username, replacing any previous one. Must hold the lock.
+	 * @param username The username mutated
+	 * @param mutation What must be written for it
+	 */
+	private void queue(String username, Pending mutation) {
+		boolean wasEmpty = pending.isEmpty();
+		pending.put(username, mutation);
+		queuedSequence++;
+		queueDepth = pending.size();
+
+		if (wasEmpty || pending.size() >= capacity)
+			flushNeeded.signal();
+	}
+
+	/**
+	 * Updates a User in memory and queues it. Must hold the lock.
+	 * @param user The User holding the new information
+	 * @return The updated User, or null if not found
+	 */
+	private User updateLocked(User user) {
+		User updated = memory.update(user);
+		if (updated == null)
+			return null;
+
+		Pending previous = pending.get(user.getUsername());
+		// A User not persisted yet is still inserted, just with the new data
+		byte kind = (previous != null && previous.kind != REMOVE) ? previous.kind : UPDATE;
+		queue(user.getUsername(), new Pending(kind, copy(updated)));
+		return updated;
+	}
+
+	/**
+	 * Removes a User from memory and queues its removal. Must hold the lock.
+	 * @param username The username of the User to remove
+	 * @return The removed User, or null if not found
+	 */
+	private User removeLocked(String username) {
+		User removed = memory.remove(username);
+		if (removed == null)
+			return null;
+
+		Pending previous = pending.get(username);
+		if (previous != null && previous.kind == INSERT) {
+			// Never persisted, so there is nothing to write
+			pending.remove(username);
+			queuedSequence++;
+			queueDepth = pending.size();
+		} else {
+			queue(username, new Pending(REMOVE, null));
+		}
+		return removed;
+	}
+
+	/**
+	 * Loop of the writer: waits for mutations, gives them some time to coalesce, then writes them all.
+	 */
+	private void write() {
+		while (true) {
+			LinkedHashMap<String, Pending> batch;
+			long batchSequence;
+
+			lock.lock();
+			try {
+				while (pending.isEmpty() && flushedSequence == queuedSequence && !closed)
+					flushNeeded.awaitUninterruptibly();
+
+				// The first mutation of a batch waits for the others, unless there is a hurry
+				long remaining = flushIntervalNanos;
+				while (remaining > 0 && pending.size() < capacity && !closed && !hasWaiters())
+					remaining = awaitNanos(remaining);
+
+				if (pending.isEmpty() && closed) {
+					// Anything left was coalesced away, so everything is written
+					flushedSequence = queuedSequence;
+					flushed.signalAll();
+					return;
+				}
+
+				batch = pending;
+				batchSequence = queuedSequence;
+				pending = new LinkedHashMap<String, Pending>();
+				queueDepth = 0;
+			} finally {
+				lock.unlock();
+			}
+
+			writeBatch(batch);
+
+			lock.lock();
+			try {
+				flushedSequence = batchSequence;
+				flushed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Writes a batch to the persistent store, retrying until it succeeds. Once closed, it gives up after a
+	 * few attempts, so that shutting down never hangs on a store that is gone.
+	 * @param batch The last mutation of every username, in order
+	 */
+	private void writeBatch(Map<String, Pending> batch) {
+		if (batch.isEmpty())
+			return;
+
+		for (int attempt = 1;; attempt++) {
+			long start = System.nanoTime();
+			try {
+				apply(batch);
+				metrics.writeBehindFlush(batch.size(), System.nanoTime() - start);
+				return;
+			} catch (RuntimeException e) {
+				metrics.writeBehindFailure();
+				if (isClosed() && attempt >= CLOSING_ATTEMPTS) {
+					log.error("Gave up writing {} pending users on close", batch.size(), e);
+					return;
+				}
+				log.error("Could not write {} pending users, retrying", batch.size(), e);
+				try {
+					Thread.sleep(RETRY_MILLIS);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Applies a batch to the persistent store. Every step can be repeated safely, so a failed batch can be retried
+	 * as a whole: removals first, then the insertions in a single insertAll, which keeps their order, then the updates.
+	 * @param batch The last mutation of every username, in order
+	 */
+	private void apply(Map<String, Pending> batch) {
+		List<String> removals = new ArrayList<String>();
+		List<User> inserts = new ArrayList<User>();
+		List<User> updates = new ArrayList<User>();
+
+		for (Map.Entry<String, Pending> e : batch.entrySet()) {
+			Pending p = e.getValue();
+			if (p.kind == REMOVE || p.kind == REPLACE)
+				removals.add(e.getKey());
+			if (p.kind == INSERT || p.kind == REPLACE)
+				inserts.add(p.user);
+			else if (p.kind == UPDATE)
+				updates.add(p.user);
+		}
+
+		if (!removals.isEmpty())
+			persistent.removeAll(removals);
+		if (!inserts.isEmpty())
+			persistent.insertAll(inserts);
+		if (!updates.isEmpty())
+			persistent.updateAll(updates);
+	}
+
+	/**
+	 * Tells whether anyone is waiting on the writer: mutations waiting for room, or a flush. Must hold the lock.
+	 */
+	private boolean hasWaiters() {
+		return lock.hasWaiters(flushed);
+	}
+
+	private long awaitNanos(long nanos) {
+		try {
+			return flushNeeded.awaitNanos(nanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return 0L;
+		}
+	}
+
+	private boolean isClosed() {
+		lock.lock();
+		try {
+			return closed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Copies a User as it is now, so that later updates in memory do not change what is about to be written.
+	 */
+	private static User copy(User user) {
+		return new User(user.getUsername(), user.getName(), user.getEmail(), user.getGender(), user.getPicture());
+	}
+
+	/**
+	 * Last mutation of a username, not yet written.
+	 */
+	private static final class Pending {
+
+		private final byte kind;
+
+		// The User to write, as it was when queued. Null for removals.
+		private final User user;
+
+		private Pending(byte kind, User user) {
+			this.kind = kind;
+			this.user = user;
+		}
+	}
+
+}
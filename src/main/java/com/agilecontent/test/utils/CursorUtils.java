@@ -0,0 +1,74 @@
+package com.agilecontent.test.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Encoding and decoding of the opaque cursor tokens used by the stateless pagination.
+ * A token is just the insertion sequence of the last User of a page, encoded as URL-safe base64; or, for the sorted
+ * listings, the sort key of the last User of the page.
+ * 
+ * @author Carlos Melero
+ *
+ */
+public class CursorUtils {
+
+	/**
+	 * Encodes an insertion sequence as a cursor token.
+	 * @param sequence The insertion sequence of the last User returned
+	 * @return The cursor token
+	 */
+	public static String encode(long sequence) {
+		byte[] bytes = ByteBuffer.allocate(Long.BYTES).putLong(sequence).array();
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+	}
+
+	/**
+	 * Decodes a cursor token. A null or empty token means the start of the listing.
+	 * Throws an IllegalArgumentException if the token is not valid.
+	 * @param cursor The cursor token
+	 * @return The insertion sequence after which the next page starts
+	 */
+	public static long decode(String cursor) {
+		if (cursor == null || cursor.isEmpty())
+			return 0L;
+
+		try {
+			byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+			if (bytes.length == Long.BYTES)
+				return ByteBuffer.wrap(bytes).getLong();
+		} catch (IllegalArgumentException e) {
+			// Falls through to the error below
+		}
+
+		throw new IllegalArgumentException(String.format(ErrorUtils.ErrorMsg.INVALID_CURSOR.getMsg(), cursor));
+	}
+
+	/**
+	 * Encodes the sort key of a sorted listing as a cursor token.
+	 * @param key The sort key of the last User returned
+	 * @return The cursor token
+	 */
+	public static String encodeKey(String key) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Decodes a cursor token of a sorted listing. A null or empty token means the start of the listing.
+	 * Throws an IllegalArgumentException if the token is not valid.
+	 * @param cursor The cursor token
+	 * @return The sort key after which the next page starts, or null for the start
+	 */
+	public static String decodeKey(String cursor) {
+		if (cursor == null || cursor.isEmpty())
+			return null;
+
+		try {
+			return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(String.format(ErrorUtils.ErrorMsg.INVALID_CURSOR.getMsg(), cursor));
+		}
+	}
+
+}
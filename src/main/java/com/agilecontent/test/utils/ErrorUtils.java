@@ -16,7 +16,18 @@ public class ErrorUtils {
 		INCONSISTENT_DATA("JSON input and URI parameters are not consistent with each other"),
 		PARSING_ERROR("The data obtained from the random generator seems to be not valid."),
 		GENERATOR_ERROR("The random user generator is not working."),
-		TOO_MANY_REQUESTS("%s");
+		TOO_MANY_REQUESTS("%s"),
+		INVALID_CURSOR("Cursor '%s' is not valid."),
+		STORE_FULL("The store holds %d users at most."),
+		STORAGE_ERROR("The users could not be stored durably: %s"),
+		INVALID_FORMAT("Format '%s' is not valid."),
+		INVALID_GENDER("Gender '%s' is not valid."),
+		INVALID_SORT("Sort '%s' is not valid."),
+		BATCH_TOO_LARGE("Batches hold %d items at most."),
+		JOB_NOT_FOUND("Generation job '%s' does not exist."),
+		JOB_NOT_DONE("Generation job '%s' is not done."),
+		TOO_MANY_JOBS("Too many generation jobs are running already, try again later."),
+		INDEXES_DISABLED("Finding, searching and sorting the users needs the indexes, see store.indexes.enabled.");
 		
 		String msg;
 		
@@ -0,0 +1,51 @@
+package com.agilecontent.test.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to the virtual threads of Java 21 and later. The project is still built for Java 8, so they are reached
+ * through reflection, and only when the application runs on a JDK that has them.
+ *
+ * @author Carlos Melero
+ *
+ */
+public class VirtualThreadUtils {
+
+	/**
+	 * Checks if the running JDK has virtual threads.
+	 * @return true if it does
+	 */
+	public static boolean isSupported() {
+		try {
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Creates an executor that runs every task on a new virtual thread, named after a prefix and a counter.
+	 * Throws an IllegalStateException if the running JDK has no virtual threads.
+	 * @param prefix The prefix of the thread names
+	 * @return The executor
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor(String prefix) {
+		try {
+			// Thread.ofVirtual().name(prefix, 1).factory()
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+			ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+
+			Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			return (ExecutorService) newExecutor.invoke(null, factory);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Virtual threads need Java 21 or later, running on " + System.getProperty("java.version"), e);
+		}
+	}
+
+}
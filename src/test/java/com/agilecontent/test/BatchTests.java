@@ -0,0 +1,113 @@
+package com.agilecontent.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.agilecontent.test.controllers.UserController;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.models.UserBatchResult;
+import com.agilecontent.test.models.UserBatchResult.Status;
+import com.agilecontent.test.services.UserService;
+
+/**
+ * Tests for the batch endpoints: every item of a batch must get its own status, in order.
+ *
+ * @author Carlos Melero
+ *
+ */
+class BatchTests {
+
+	UserService userService;
+
+	UserController userController;
+
+	@BeforeEach
+	void initController() {
+		userService = new UserService(Arrays.asList(
+				new User("test", "Test", "test@gmail.com", Gender.MALE, null),
+				new User("test2", "Test 2", "test2@gmail.com", Gender.FEMALE, null)));
+		userController = new UserController(userService);
+	}
+
+	/**
+	 * Creates a batch holding new, existing, repeated and missing Users.
+	 */
+	@Test
+	void createBatch() {
+		UserBatchResult result = userController.createUsers(Arrays.asList(
+				new User("test3", "Test 3", null, null, null),
+				new User("test", "Taken", null, null, null),
+				new User("test3", "Repeated", null, null, null),
+				null));
+
+		assertThat(result.getItems()).extracting(UserBatchResult.Item::getStatus)
+				.containsExactly(Status.CREATED, Status.EXISTING, Status.INVALID, Status.INVALID);
+		assertThat(userService.getOne("test3").getName()).isEqualTo("Test 3");
+		assertThat(userService.getOne("test").getName()).isEqualTo("Test");
+	}
+
+	/**
+	 * Upserts a batch: existing Users are updated, the rest created, and the indexes follow both.
+	 */
+	@Test
+	void upsertBatch() {
+		UserBatchResult result = userController.upsertUsers(Arrays.asList(
+				new User("test", "Updated", "updated@yahoo.com", Gender.MALE, null),
+				new User("test3", "Created", "test3@yahoo.com", Gender.FEMALE, null)));
+
+		assertThat(result.getItems()).extracting(UserBatchResult.Item::getStatus).containsExactly(Status.UPDATED, Status.CREATED);
+		assertThat(result.getItems().get(0).getUser().getName()).isEqualTo("Updated");
+		assertThat(userService.getPageByDomain("yahoo.com", null, 10).getUsers()).extracting(User::getUsername)
+				.containsExactly("test", "test3");
+		assertThat(userService.getPage(null, 10).getUsers()).extracting(User::getUsername).containsExactly("test", "test2", "test3");
+	}
+
+	/**
+	 * Deletes and gets batches of usernames, found or not.
+	 */
+	@Test
+	void deleteAndGetBatch() {
+		UserBatchResult found = userController.getUsers(Arrays.asList("test2", "missing", null, "test"));
+		assertThat(found.getItems()).extracting(UserBatchResult.Item::getStatus)
+				.containsExactly(Status.FOUND, Status.NOT_FOUND, Status.INVALID, Status.FOUND);
+		assertThat(found.getItems().get(3).getUser().getName()).isEqualTo("Test");
+
+		UserBatchResult deleted = userController.deleteUsers(Arrays.asList("test", "missing", "test"));
+		assertThat(deleted.getItems()).extracting(UserBatchResult.Item::getStatus)
+				.containsExactly(Status.DELETED, Status.NOT_FOUND, Status.INVALID);
+		assertThat(userService.getOne("test")).isNull();
+		assertThat(userService.getPageByEmail("test@gmail.com", null, 10).getUsers()).isEmpty();
+
+		List<String> tooMany = new ArrayList<String>();
+		for (int i = 0; i <= 10000; i++)
+			tooMany.add("user" + i);
+		Assertions.assertThrows(IllegalArgumentException.class, () -> userController.deleteUsers(tooMany));
+	}
+
+	/**
+	 * Creates, updates and deletes a batch of a thousand distinct Users: every one of them must be applied.
+	 */
+	@Test
+	void largeBatches() {
+		List<User> batch = new ArrayList<User>();
+		List<String> usernames = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++) {
+			batch.add(new User("batch" + i, "Batch " + i, "batch" + i + "@gmail.com", Gender.OTHER, null));
+			usernames.add("batch" + i);
+		}
+
+		assertThat(userService.createAll(batch).count(Status.CREATED)).isEqualTo(batch.size());
+		assertThat(userService.upsertAll(batch).count(Status.UPDATED)).isEqualTo(batch.size());
+		assertThat(userService.deleteAll(usernames).count(Status.DELETED)).isEqualTo(batch.size());
+		assertThat(userService.getPage(null, 10).getUsers()).extracting(User::getUsername).containsExactly("test", "test2");
+	}
+
+}
@@ -0,0 +1,171 @@
+package com.agilecontent.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.agilecontent.test.controllers.UserController;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.services.UserService;
+import com.agilecontent.test.stores.ConcurrentUserStore;
+
+/**
+ * Concurrency tests. Hammers the UserController from several threads at once and checks the
+ * store stays consistent. See ConcurrencyBenchmark for the throughput reached.
+ * 
+ * @author Carlos Melero
+ *
+ */
+class ConcurrencyTests {
+
+	/**
+	 * Operations performed by each thread.
+	 */
+	static final int OPERATIONS_PER_THREAD = 2000;
+
+	ConcurrentUserStore store;
+	UserController userController;
+	ExecutorService executor;
+
+	/**
+	 * Generate a Controller over an empty store, plus a pool with one thread per core.
+	 */
+	@BeforeEach
+	void initController() {
+		store = new ConcurrentUserStore(10);
+		userController = new UserController(new UserService(store));
+		executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+	}
+
+	@AfterEach
+	void shutdownExecutor() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Many threads try to create the same username at the same time. Only one of them must succeed.
+	 */
+	@Test
+	void concurrentCreatesOfSameUsername() throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors() * 4;
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicInteger created = new AtomicInteger();
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+
+		for (int i = 0; i < threads; i++) {
+			final int n = i;
+			futures.add(executor.submit(() -> {
+				start.await();
+				try {
+					userController.createUser("same", newUser("same", n));
+					created.incrementAndGet();
+				} catch (IllegalArgumentException e) {
+					// Expected for every thread but one
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> f : futures)
+			f.get(30, TimeUnit.SECONDS);
+
+		assertThat(created.get()).isEqualTo(1);
+		assertThat(store.size()).isEqualTo(1);
+		assertThat(store.getPage(0)).hasSize(1);
+	}
+
+	/**
+	 * Updates a User already handed out. The instance read before must stay as it was, while the map, the
+	 * pages and the cursor pages all hold the new one.
+	 */
+	@Test
+	void updatesNeverChangeReadUsers() {
+		store.insert(newUser("same", 0));
+		User read = store.get("same");
+
+		User updated = store.update(newUser("same", 1));
+		assertThat(updated).isNotSameAs(read);
+		assertThat(read.getName()).isEqualTo("Name 0");
+		assertThat(read.getEmail()).isEqualTo("same@mail.com");
+		assertThat(store.get("same")).isSameAs(updated);
+		assertThat(store.getPage(0)).containsExactly(updated);
+		assertThat(store.getPageAfter(null, 10).getUsers()).containsExactly(updated);
+	}
+
+	/**
+	 * Runs a mix of create/get/update/page/delete operations through the Controller from one thread per core,
+	 * checking the final contents of the store.
+	 */
+	@Test
+	void hammerControllerEndpoints() throws Exception {
+		runMixedLoad(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Each thread works on its own usernames: creates one, reads it, updates it, reads a page and deletes every
+	 * second User it created. The store must end up holding exactly the surviving Users, each one on a single page.
+	 * 
+	 * @param threads The amount of threads to use
+	 */
+	private void runMixedLoad(int threads) throws Exception {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+
+		for (int t = 0; t < threads; t++) {
+			final String prefix = "t" + t + "-";
+			futures.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					start.await();
+					int alive = 0;
+					for (int i = 0; i < OPERATIONS_PER_THREAD / 5; i++) {
+						String username = prefix + i;
+						userController.createUser(username, newUser(username, i));
+						assertThat(userController.getUser(username, null).getUsername()).isEqualTo(username);
+						userController.updateUser(username, newUser(username, i + 1));
+						userController.getPage();
+						if (i % 2 == 0)
+							userController.deleteUser(username);
+						else
+							alive++;
+					}
+					return alive;
+				}
+			}));
+		}
+
+		start.countDown();
+		int expected = 0;
+		for (Future<Integer> f : futures)
+			expected += f.get(5, TimeUnit.MINUTES);
+
+		assertThat(store.size()).isEqualTo(expected);
+
+		Set<String> seen = new HashSet<String>();
+		for (int p = 0; p < store.getPages(); p++) {
+			for (User u : store.getPage(p))
+				assertThat(seen.add(u.getUsername())).isTrue();
+		}
+		assertThat(seen).hasSize(expected);
+	}
+
+	private static User newUser(String username, int n) {
+		return new User(username, "Name " + n, username + "@mail.com", Gender.values()[n % 3], "picture" + n + ".jpg");
+	}
+
+}
@@ -0,0 +1,110 @@
+package com.agilecontent.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.agilecontent.test.config.ContentConfig;
+import com.agilecontent.test.controllers.UserController;
+import com.agilecontent.test.generators.SyntheticUserGenerator;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.models.UserPage;
+import com.agilecontent.test.services.UserService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+
+/**
+ * Tests for the formats of the responses and requests, chosen by the Accept and Content-Type headers.
+ *
+ * @author Carlos Melero
+ *
+ */
+class ContentNegotiationTests {
+
+	UserService userService;
+
+	MockMvc mockMvc;
+
+	ObjectMapper json = builder().build();
+
+	ObjectMapper cbor = builder().factory(new CBORFactory()).build();
+
+	ObjectMapper smile = builder().factory(new SmileFactory()).build();
+
+	@BeforeEach
+	void initController() {
+		userService = new UserService(new SyntheticUserGenerator(3, 100).generate(100));
+		userService.create(new User("test", "Test", "test@gmail.com", Gender.MALE, null));
+
+		ContentConfig config = new ContentConfig();
+		mockMvc = MockMvcBuilders.standaloneSetup(new UserController(userService))
+				.setMessageConverters(new MappingJackson2HttpMessageConverter(json),
+						config.cborHttpMessageConverter(builder()),
+						config.smileHttpMessageConverter(builder()))
+				.build();
+	}
+
+	/**
+	 * Gets a User and a page in every format, JSON when nothing is asked for, and reads them back.
+	 */
+	@Test
+	void negotiateResponses() throws Exception {
+		assertThat(perform("/user/test", null).getResponse().getContentType()).startsWith("application/json");
+
+		MvcResult user = perform("/user/test", "application/cbor");
+		assertThat(user.getResponse().getContentType()).isEqualTo("application/cbor");
+		assertThat(cbor.readValue(user.getResponse().getContentAsByteArray(), User.class).getName()).isEqualTo("Test");
+
+		byte[] jsonPage = perform("/user/page/100", "application/json").getResponse().getContentAsByteArray();
+		byte[] cborPage = perform("/user/page/100", "application/cbor").getResponse().getContentAsByteArray();
+		byte[] smilePage = perform("/user/page/100", "application/x-jackson-smile").getResponse().getContentAsByteArray();
+
+		UserPage fromJson = json.readValue(jsonPage, UserPage.class);
+		assertThat(cbor.readValue(cborPage, UserPage.class).getUsers()).usingFieldByFieldElementComparator().isEqualTo(fromJson.getUsers());
+		assertThat(smile.readValue(smilePage, UserPage.class).getUsers()).usingFieldByFieldElementComparator().isEqualTo(fromJson.getUsers());
+		assertThat(cborPage.length).isLessThan(jsonPage.length);
+		assertThat(smilePage.length).isLessThan(jsonPage.length);
+
+		assertThat(perform("/user/test", "application/xml").getResponse().getStatus()).isEqualTo(406);
+	}
+
+	/**
+	 * Sends a batch as Smile, getting the result as CBOR.
+	 */
+	@Test
+	void negotiateRequests() throws Exception {
+		byte[] batch = smile.writeValueAsBytes(Arrays.asList(new User("test2", "Test 2", null, Gender.FEMALE, null)));
+
+		MvcResult result = mockMvc.perform(post("/user/batch/create").contentType("application/x-jackson-smile")
+				.accept("application/cbor").content(batch)).andReturn();
+
+		assertThat(result.getResponse().getStatus()).isEqualTo(200);
+		assertThat(cbor.readTree(result.getResponse().getContentAsByteArray()).at("/items/0/status").asText()).isEqualTo("CREATED");
+		assertThat(userService.getOne("test2").getName()).isEqualTo("Test 2");
+	}
+
+	/**
+	 * Builds the mappers like Spring Boot does, whose builder also reads the creators' parameter names.
+	 */
+	private static Jackson2ObjectMapperBuilder builder() {
+		return Jackson2ObjectMapperBuilder.json().modulesToInstall(new ParameterNamesModule());
+	}
+
+	private MvcResult perform(String uri, String accept) throws Exception {
+		return mockMvc.perform((accept != null) ? get(uri).accept(accept) : get(uri)).andReturn();
+	}
+
+}
@@ -0,0 +1,273 @@
+package com.agilecontent.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.agilecontent.test.generators.SyntheticUserGenerator;
+import com.agilecontent.test.metrics.UserMetrics;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.stores.ConcurrentUserStore;
+import com.agilecontent.test.stores.DurableUserStore;
+import com.agilecontent.test.stores.UserStore;
+import com.agilecontent.test.stores.WriteAheadLog;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests for the durable store: every mutation must be found again after reopening its directory,
+ * whether it comes from the write-ahead log or from a snapshot.
+ *
+ * @author Carlos Melero
+ *
+ */
+class DurabilityTests {
+
+	@TempDir
+	Path dir;
+
+	User user1 = new User("test", "Test", "test@gmail.com", Gender.MALE, "https://test.com/image.jpg");
+	User user2 = new User("test2", "Test 2", "test2@gmail.com", Gender.FEMALE, null);
+	User user3 = new User("test3", "Test 3", "test3@gmail.com", null, "https://test3.com/image.jpg");
+
+	/**
+	 * Makes every kind of mutation, reopens the log and checks the Users and their order are the same.
+	 */
+	@Test
+	void replayEveryMutation() throws IOException {
+		try (DurableUserStore store = open()) {
+			assertThat(store.insert(user1)).isNull();
+			assertThat(store.insertAll(Arrays.asList(user1, user2, user3))).containsExactly(user2, user3);
+			store.update(new User("test2", "Updated", "updated@gmail.com", Gender.OTHER, "https://updated.com/image.jpg"));
+			store.remove("test");
+			// Rejected mutations are not logged
+			assertThat(store.insert(user2).getName()).isEqualTo("Updated");
+			assertThat(store.remove("test")).isNull();
+			store.insert(user1);
+		}
+
+		try (DurableUserStore store = open()) {
+			assertThat(store.size()).isEqualTo(3);
+			assertThat(store.getPage(0)).extracting("username").containsExactly("test2", "test3", "test");
+			User updated = store.get("test2");
+			assertThat(updated.getName()).isEqualTo("Updated");
+			assertThat(updated.getGender()).isEqualTo(Gender.OTHER);
+			assertThat(store.get("test3").getGender()).isNull();
+			assertThat(store.get("test").getPicture()).isEqualTo(user1.getPicture());
+		}
+	}
+
+	/**
+	 * Updates and removes Users in batches, reopens the log and checks only the Users found were logged.
+	 */
+	@Test
+	void replayBatches() throws IOException {
+		try (DurableUserStore store = open()) {
+			store.insertAll(Arrays.asList(user1, user2, user3));
+			assertThat(store.updateAll(Arrays.asList(
+					new User("test", "Updated", null, Gender.OTHER, null),
+					new User("missing", "Missing", null, null, null)))).extracting("username").containsExactly("test");
+			assertThat(store.removeAll(Arrays.asList("test2", "missing"))).containsExactly(user2);
+		}
+
+		try (DurableUserStore store = open()) {
+			assertThat(store.getPage(0)).extracting("username").containsExactly("test", "test3");
+			assertThat(store.get("test").getName()).isEqualTo("Updated");
+		}
+	}
+
+	/**
+	 * Cuts the log in the middle of its last record, as a crash while writing would. Every previous
+	 * record must be replayed, and the torn one dropped, so that new records can follow.
+	 */
+	@Test
+	void dropTornRecord() throws IOException {
+		try (DurableUserStore store = open()) {
+			store.insert(user1);
+			store.insert(user2);
+		}
+		try (FileChannel channel = FileChannel.open(dir.resolve("wal-0000000000.log"), StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+
+		try (DurableUserStore store = open()) {
+			assertThat(store.size()).isEqualTo(1);
+			store.insert(user3);
+		}
+		try (DurableUserStore store = open()) {
+			assertThat(store.getPage(0)).extracting("username").containsExactly("test", "test3");
+		}
+	}
+
+	/**
+	 * Logs a record that passes its checksum but claims a username of 2 GB. Opening the store must fail
+	 * telling what is wrong with the record, instead of allocating the whole length.
+	 */
+	@Test
+	void rejectCorruptedLength() throws IOException {
+		try (WriteAheadLog wal = new WriteAheadLog(dir.resolve("wal-0000000000.log"), r -> {}, UserMetrics.noop())) {
+			wal.write(ByteBuffer.allocate(5).put((byte) 1).putInt(Integer.MAX_VALUE).array());
+		}
+
+		UncheckedIOException e = Assertions.assertThrows(UncheckedIOException.class, () -> open());
+		assertThat(e.getMessage()).contains("String of 2147483647 bytes runs past the end");
+	}
+
+	/**
+	 * Inserts from many threads at once. Every insertion must be replayed, and the group commit
+	 * should have forced several records to disk at once. See DurableUserStoreBenchmark for the throughput reached.
+	 */
+	@Test
+	void groupCommitConcurrentInserts() throws Exception {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		int threads = 16, perThread = 50;
+		List<User> users = new SyntheticUserGenerator(3, threads * perThread).generate(threads * perThread);
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try (DurableUserStore store = new DurableUserStore(new ConcurrentUserStore(10), dir, new UserMetrics(registry))) {
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for (int t = 0; t < threads; t++) {
+				final List<User> own = users.subList(t * perThread, (t + 1) * perThread);
+				tasks.add(() -> {
+					for (User u : own)
+						assertThat(store.insert(u)).isNull();
+					return null;
+				});
+			}
+			for (Future<Void> f : executor.invokeAll(tasks))
+				f.get();
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertThat(registry.get("store.wal.commit").timer().count()).isLessThan(users.size());
+
+		try (DurableUserStore store = open()) {
+			assertThat(store.size()).isEqualTo(users.size());
+		}
+	}
+
+	/**
+	 * Updates the same User from many threads at once. Whichever update is applied last in memory must also be
+	 * the last one in the log, so reopening finds the very same User.
+	 */
+	@Test
+	void applyInLogOrder() throws Exception {
+		int threads = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		String name;
+		try (DurableUserStore store = open()) {
+			store.insert(user1);
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for (int t = 0; t < threads; t++) {
+				final int thread = t;
+				tasks.add(() -> {
+					for (int i = 0; i < 50; i++)
+						assertThat(store.update(new User("test", "Test " + thread + "-" + i, null, null, null))).isNotNull();
+					return null;
+				});
+			}
+			for (Future<Void> f : executor.invokeAll(tasks))
+				f.get();
+			name = store.get("test").getName();
+		} finally {
+			executor.shutdownNow();
+		}
+
+		try (DurableUserStore store = open()) {
+			assertThat(store.get("test").getName()).isEqualTo(name);
+		}
+	}
+
+	/**
+	 * Takes a snapshot, then keeps mutating. Reopening must load the snapshot and replay only the mutations
+	 * made after it, and the files of the previous generation must be gone.
+	 */
+	@Test
+	void snapshotAndReplayTail() throws IOException {
+		try (DurableUserStore store = open()) {
+			store.insertAll(Arrays.asList(user1, user2, user3));
+			store.snapshot();
+			store.update(new User("test", "Updated", "updated@gmail.com", Gender.OTHER, null));
+			store.remove("test2");
+			store.insert(new User("test4", "Test 4", "test4@gmail.com", Gender.FEMALE, null));
+		}
+		assertThat(dir.toFile().list()).containsExactlyInAnyOrder("snapshot-0000000001.bin", "wal-0000000001.log");
+
+		try (DurableUserStore store = open()) {
+			assertThat(store.getPage(0)).extracting("username").containsExactly("test", "test3", "test4");
+			assertThat(store.get("test").getName()).isEqualTo("Updated");
+			assertThat(store.get("test").getPicture()).isNull();
+			assertThat(store.get("test3").getEmail()).isEqualTo(user3.getEmail());
+		}
+	}
+
+	/**
+	 * Loads a snapshot, then snapshots the loaded Users again (most of them never decoded) and reloads them.
+	 */
+	@Test
+	void snapshotLoadedUsers() throws IOException {
+		List<User> users;
+
+		try (DurableUserStore store = open()) {
+			// The synthetic generator may repeat some usernames, which are skipped
+			users = store.insertAll(new SyntheticUserGenerator(5, 5000).generate(5000));
+			store.snapshot();
+		}
+
+		try (DurableUserStore store = open()) {
+			assertThat(store.size()).isEqualTo(users.size());
+			store.update(new User(users.get(7).getUsername(), "Updated", null, null, null));
+			store.snapshot();
+		}
+
+		try (DurableUserStore store = open()) {
+			assertThat(store.size()).isEqualTo(users.size());
+			assertThat(store.get(users.get(7).getUsername()).getName()).isEqualTo("Updated");
+			List<User> lastPage = store.getPage(store.getPages() - 1);
+			User last = lastPage.get(lastPage.size() - 1);
+			User expected = users.get(users.size() - 1);
+			assertThat(last.getUsername()).isEqualTo(expected.getUsername());
+			assertThat(last.getName()).isEqualTo(expected.getName());
+			assertThat(last.getEmail()).isEqualTo(expected.getEmail());
+			assertThat(last.getGender()).isEqualTo(expected.getGender());
+			assertThat(last.getPicture()).isEqualTo(expected.getPicture());
+		}
+	}
+
+	/**
+	 * Mutates a store after closing it. This should throw an exception.
+	 */
+	@Test
+	void mutateClosedStore() throws IOException {
+		UserStore store = open();
+		((DurableUserStore) store).close();
+
+		Assertions.assertThrows(IllegalStateException.class, () -> {
+			store.insert(user1);
+		});
+		assertThat(store.get(user1.getUsername())).isNull();
+	}
+
+	private DurableUserStore open() throws IOException {
+		return new DurableUserStore(new ConcurrentUserStore(10), dir, UserMetrics.noop());
+	}
+
+}
@@ -0,0 +1,159 @@
+package com.agilecontent.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import com.agilecontent.test.controllers.UserController;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.services.UserService;
+import com.agilecontent.test.stores.ConcurrentUserStore;
+import com.agilecontent.test.stores.OffHeapUserStore;
+import com.agilecontent.test.stores.UserStore;
+
+/**
+ * Tests for the conditional GETs: ETags follow the versions of the store and of each User, and a matching
+ * If-None-Match is answered with a 304 without a body.
+ *
+ * @author Carlos Melero
+ *
+ */
+class ETagTests {
+
+	UserService userService;
+
+	UserController userController;
+
+	MockHttpServletResponse response;
+
+	@BeforeEach
+	void initController() {
+		userService = new UserService(Arrays.asList(
+				new User("test", "Test", "test@gmail.com", Gender.MALE, null),
+				new User("test2", "Test 2", "test2@gmail.com", Gender.FEMALE, null)));
+		userController = new UserController(userService);
+	}
+
+	/**
+	 * Gets a User again with its ETag: not modified until it is updated, while other Users change freely.
+	 */
+	@Test
+	void conditionalGetUser() {
+		assertThat(userController.getUser("test", request(null, null))).isNotNull();
+		String etag = response.getHeader("ETag");
+		assertThat(etag).startsWith("\"").endsWith("\"");
+		assertThat(response.getHeader("Vary")).isEqualTo("Accept");
+
+		assertThat(userController.getUser("test", request(etag, null))).isNull();
+		assertThat(response.getStatus()).isEqualTo(304);
+
+		userService.update(new User("test2", "Updated", null, Gender.FEMALE, null));
+		assertThat(userController.getUser("test", request(etag, null))).isNull();
+
+		userService.update(new User("test", "Updated", null, Gender.MALE, null));
+		assertThat(userController.getUser("test", request(etag, null)).getName()).isEqualTo("Updated");
+		assertThat(response.getStatus()).isEqualTo(200);
+		assertThat(response.getHeader("ETag")).isNotEqualTo(etag);
+	}
+
+	/**
+	 * The versions of the Users are kept by every store, not by the indexes: without them, updating another User
+	 * still leaves a User not modified.
+	 */
+	@Test
+	void conditionalGetUserWithoutIndexes() {
+		for (UserStore store : new UserStore[] { new ConcurrentUserStore(10), new OffHeapUserStore(10, 1 << 16) }) {
+			store.insertAll(Arrays.asList(new User("test", "Test", "test@gmail.com", Gender.MALE, null),
+					new User("test2", "Test 2", "test2@gmail.com", Gender.FEMALE, null)));
+			UserService plain = new UserService(store);
+			UserController controller = new UserController(plain);
+
+			controller.getUser("test", request(null, null));
+			String etag = response.getHeader("ETag");
+
+			plain.update(new User("test2", "Updated", null, Gender.FEMALE, null));
+			plain.create(new User("test3", "Test 3", null, null, null));
+			plain.delete("test3");
+			assertThat(controller.getUser("test", request(etag, null))).as(store.getClass().getSimpleName()).isNull();
+
+			plain.update(new User("test", "Updated", null, Gender.MALE, null));
+			assertThat(controller.getUser("test", request(etag, null)).getName()).isEqualTo("Updated");
+			assertThat(response.getHeader("ETag")).isNotEqualTo(etag);
+		}
+	}
+
+	/**
+	 * Gets a page again with its ETag: not modified until any User is created, updated or deleted.
+	 */
+	@Test
+	void conditionalGetPage() {
+		assertThat(userController.getPageAfter(10, null, "name", request(null, null)).getUsers()).hasSize(2);
+		String etag = response.getHeader("ETag");
+
+		assertThat(userController.getPageAfter(10, null, "name", request(etag, null))).isNull();
+		assertThat(response.getStatus()).isEqualTo(304);
+
+		userService.create(new User("test3", "Test 3", null, null, null));
+		assertThat(userController.getPageAfter(10, null, "name", request(etag, null)).getUsers()).hasSize(3);
+		String created = response.getHeader("ETag");
+		assertThat(created).isNotEqualTo(etag);
+
+		userService.delete("test3");
+		assertThat(userController.getPageAfter(10, null, "name", request(created, null)).getUsers()).hasSize(2);
+	}
+
+	/**
+	 * Every Accept header that ends up in the same format shares its ETag, while each format has its own.
+	 */
+	@Test
+	void etagPerFormat() {
+		userController.getUser("test", request(null, "application/json"));
+		String json = response.getHeader("ETag");
+
+		for (String accept : new String[] { null, "*/*", "application/*", "text/plain, application/json", "application/cbor;q=0.5, application/json" }) {
+			assertThat(userController.getUser("test", request(json, accept))).as(accept).isNull();
+			assertThat(response.getStatus()).isEqualTo(304);
+		}
+
+		assertThat(userController.getUser("test", request(json, "application/cbor"))).isNotNull();
+		String cbor = response.getHeader("ETag");
+		assertThat(cbor).isNotEqualTo(json);
+		assertThat(userController.getUser("test", request(cbor, "application/json;q=0.5, application/cbor"))).isNull();
+		assertThat(userController.getUser("test", request(cbor, "application/x-jackson-smile"))).isNotNull();
+	}
+
+	/**
+	 * Without an HTTP request (or with another store, e.g. after a restart), nothing is ever not modified.
+	 */
+	@Test
+	void unconditionalGets() {
+		assertThat(userController.getUser("test", null)).isNotNull();
+		assertThat(userController.getPageAfter(10, null, null, null)).isNotNull();
+
+		userController.getUser("test", request(null, null));
+		String etag = response.getHeader("ETag");
+
+		UserController restarted = new UserController(new UserService(Arrays.asList(
+				new User("test", "Test", "test@gmail.com", Gender.MALE, null))));
+		assertThat(restarted.getUser("test", request(etag, null))).isNotNull();
+		assertThat(response.getHeader("ETag")).isNotEqualTo(etag);
+	}
+
+	private ServletWebRequest request(String ifNoneMatch, String accept) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/user");
+		if (ifNoneMatch != null)
+			request.addHeader("If-None-Match", ifNoneMatch);
+		if (accept != null)
+			request.addHeader("Accept", accept);
+		response = new MockHttpServletResponse();
+		return new ServletWebRequest(request, response);
+	}
+
+}
@@ -0,0 +1,143 @@
+package com.agilecontent.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.agilecontent.test.controllers.UserController;
+import com.agilecontent.test.generators.SyntheticUserGenerator;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.services.UserService;
+import com.agilecontent.test.stores.ConcurrentUserStore;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests for the streaming export of every User, as a JSON array and as NDJSON.
+ *
+ * @author Carlos Melero
+ *
+ */
+class ExportTests {
+
+	ObjectMapper objectMapper = new ObjectMapper();
+
+	ConcurrentUserStore store;
+
+	UserController userController;
+
+	@BeforeEach
+	void initController() {
+		store = new ConcurrentUserStore(10);
+		store.insertAll(Arrays.asList(
+				new User("test", "Test", "test@gmail.com", Gender.MALE, "https://test.com/image.jpg"),
+				new User("test2", "Tëst \"2\"", null, null, null)));
+		userController = new UserController(new UserService(store), objectMapper);
+	}
+
+	/**
+	 * Exports as a JSON array, which must hold every User in order.
+	 */
+	@Test
+	void exportJsonArray() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = userController.exportUsers("json", null);
+		assertThat(response.getHeaders().getContentType().toString()).isEqualTo("application/json");
+
+		List<Map<String, Object>> users = objectMapper.readValue(write(response.getBody()),
+				new TypeReference<List<Map<String, Object>>>() {});
+		assertThat(users).extracting(u -> u.get("username")).containsExactly("test", "test2");
+		assertThat(users.get(1).get("name")).isEqualTo("Tëst \"2\"");
+	}
+
+	/**
+	 * Exports as NDJSON, which must hold one User per line, in order.
+	 */
+	@Test
+	void exportNdjson() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = userController.exportUsers("ndjson", null);
+		assertThat(response.getHeaders().getContentType().toString()).isEqualTo("application/x-ndjson");
+
+		BufferedReader lines = new BufferedReader(new StringReader(write(response.getBody())));
+		List<String> usernames = new ArrayList<String>();
+		for (String line = lines.readLine(); line != null; line = lines.readLine())
+			usernames.add(objectMapper.readTree(line).get("username").asText());
+		assertThat(usernames).containsExactly("test", "test2");
+
+		Assertions.assertThrows(IllegalArgumentException.class, () -> userController.exportUsers("xml", null));
+	}
+
+	/**
+	 * Exports a few thousand Users to an output that only counts bytes and flushes: the Users must come out in
+	 * many small chunks, one per flush, rather than in one go at the end. See UserServiceBenchmark for its speed.
+	 */
+	@Test
+	void streamInChunks() throws IOException {
+		store.insertAll(new SyntheticUserGenerator(2, 2560).generate(2560));
+		int size = store.size();
+
+		CountingOutputStream out = new CountingOutputStream();
+		userController.exportUsers("ndjson", null).getBody().writeTo(out);
+
+		assertThat(out.newlines).isEqualTo(size);
+		assertThat(out.flushes).isGreaterThanOrEqualTo(size / 256);
+		// No chunk holds more than a few hundred Users
+		assertThat(out.largestChunk).isLessThan(out.bytes / 5);
+	}
+
+	private static String write(StreamingResponseBody body) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		body.writeTo(out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Output that throws its bytes away, counting them, along with the lines and flushes.
+	 */
+	static class CountingOutputStream extends OutputStream {
+
+		long bytes;
+		long newlines;
+		int flushes;
+		long chunk;
+		long largestChunk;
+
+		@Override
+		public void write(int b) {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			for (int i = off; i < off + len; i++) {
+				if (b[i] == '\n')
+					newlines++;
+			}
+			bytes += len;
+			chunk += len;
+		}
+
+		@Override
+		public void flush() {
+			flushes++;
+			largestChunk = Math.max(largestChunk, chunk);
+			chunk = 0;
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+package com.agilecontent.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.agilecontent.test.controllers.UserController;
+import com.agilecontent.test.generators.SyntheticUserGenerator;
+import com.agilecontent.test.generators.UserGenerator;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.UserPage;
+import com.agilecontent.test.services.GenerationJob;
+import com.agilecontent.test.services.GenerationJob.Status;
+import com.agilecontent.test.services.GenerationJobs;
+import com.agilecontent.test.services.UserService;
+import com.agilecontent.test.stores.ConcurrentUserStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests for the random generations run in the background, polled and cancelled by id.
+ *
+ * @author Carlos Melero
+ *
+ */
+class GenerationJobTests {
+
+	/**
+	 * Runs a job generating several batches, polling it until done: the Users are only visible in the store then.
+	 * Polling only returns the progress, while the Users are paged apart.
+	 */
+	@Test
+	void runJob() throws Exception {
+		UserService userService = new UserService(new ConcurrentUserStore(10), new SyntheticUserGenerator(1, 1000), 4);
+		UserController userController = new UserController(userService, new ObjectMapper(), new GenerationJobs(userService));
+
+		GenerationJob job = userController.startGeneration(2500).getBody();
+		while (!job.getStatus().isFinished())
+			Thread.sleep(5);
+
+		GenerationJob polled = userController.getGeneration(job.getId());
+		assertThat(polled.getStatus()).isEqualTo(Status.DONE);
+		assertThat(polled.getAccepted()).isEqualTo(2500);
+		assertThat(new ObjectMapper().writeValueAsString(polled)).doesNotContain("users");
+
+		List<User> paged = new ArrayList<User>();
+		String cursor = null;
+		do {
+			UserPage page = userController.getGeneratedUsers(job.getId(), 1000, cursor);
+			paged.addAll(page.getUsers());
+			cursor = page.getNextCursor();
+		} while (cursor != null);
+		assertThat(paged).isEqualTo(polled.getUsers()).hasSize(2500);
+		assertThat(userService.getOne(paged.get(0).getUsername())).isNotNull();
+		Assertions.assertThrows(IllegalArgumentException.class, () -> userController.getGeneratedUsers(job.getId(), 10, "bad"));
+
+		Assertions.assertThrows(IllegalArgumentException.class, () -> userController.getGeneration("missing"));
+	}
+
+	/**
+	 * Cancels a job while it waits for the generator, and another one while queued behind it: neither stores anything.
+	 */
+	@Test
+	void cancelJobs() throws Exception {
+		BlockingGenerator generator = new BlockingGenerator();
+		UserService userService = new UserService(new ConcurrentUserStore(10), generator, 4);
+		GenerationJobs jobs = new GenerationJobs(userService, 1, 1, 60000);
+		UserController userController = new UserController(userService, new ObjectMapper(), jobs);
+
+		GenerationJob running = userController.startGeneration(100).getBody();
+		assertThat(generator.called.await(5, TimeUnit.SECONDS)).isTrue();
+		GenerationJob queued = userController.startGeneration(100).getBody();
+		ResponseStatusException notDone = Assertions.assertThrows(ResponseStatusException.class,
+				() -> userController.getGeneratedUsers(running.getId(), 10, null));
+		assertThat(notDone.getStatus()).isEqualTo(HttpStatus.CONFLICT);
+
+		ResponseStatusException rejected = Assertions.assertThrows(ResponseStatusException.class,
+				() -> userController.startGeneration(100));
+		assertThat(rejected.getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+
+		assertThat(userController.cancelGeneration(queued.getId()).getStatus()).isEqualTo(Status.CANCELLED);
+		assertThat(userController.cancelGeneration(running.getId()).getStatus()).isEqualTo(Status.CANCELLED);
+		generator.release.countDown();
+
+		jobs.shutdown();
+		assertThat(userService.getPage(null, 10).getUsers()).isEmpty();
+		assertThat(running.getUsers()).isNull();
+	}
+
+	/**
+	 * Generator that waits until released, to keep a job running.
+	 */
+	static class BlockingGenerator implements UserGenerator {
+
+		final CountDownLatch called = new CountDownLatch(1);
+
+		final CountDownLatch release = new CountDownLatch(1);
+
+		final SyntheticUserGenerator generator = new SyntheticUserGenerator(1);
+
+		@Override
+		public int getMaxResults() {
+			return generator.getMaxResults();
+		}
+
+		@Override
+		public List<User> generate(int number) {
+			called.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return generator.generate(number);
+		}
+	}
+
+}
@@ -0,0 +1,318 @@
+package com.agilecontent.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import com.agilecontent.test.generators.GeneratedUserReader;
+import com.agilecontent.test.generators.LocalServerUserGenerator;
+import com.agilecontent.test.generators.RandomUserApiGenerator;
+import com.agilecontent.test.generators.SyntheticUserGenerator;
+import com.agilecontent.test.metrics.UserMetrics;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.services.GenerationDeduplicator;
+import com.agilecontent.test.services.GenerationDeduplicator.BatchReport;
+import com.agilecontent.test.services.GenerationJob;
+import com.agilecontent.test.services.UserService;
+import com.agilecontent.test.stores.ConcurrentUserStore;
+import com.agilecontent.test.stores.UserStore;
+import com.agilecontent.test.utils.VirtualThreadUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests for the random user generation pipeline that don't need the external random user generator api.
+ * 
+ * @author Carlos Melero
+ *
+ */
+class GeneratorTests {
+
+	/**
+	 * A response of the random user generator api with two results, including fields we don't use.
+	 */
+	static final String RESPONSE = "{\"results\":["
+			+ "{\"gender\":\"female\",\"name\":{\"title\":\"Ms\",\"first\":\"Ada\",\"last\":\"Byron\"},"
+			+ "\"location\":{\"street\":{\"number\":1,\"name\":\"Main\"},\"city\":\"London\"},"
+			+ "\"email\":\"ada@example.com\",\"login\":{\"uuid\":\"x\",\"username\":\"ada\",\"password\":\"p\"},"
+			+ "\"picture\":{\"large\":\"l.jpg\",\"medium\":\"m.jpg\",\"thumbnail\":\"t.jpg\"},\"nat\":\"GB\"},"
+			+ "{\"gender\":\"male\",\"name\":{\"first\":\"Alan\",\"last\":\"Turing\"},\"email\":\"alan@example.com\","
+			+ "\"login\":{\"username\":\"alan\"},\"picture\":{\"medium\":\"m2.jpg\"}}"
+			+ "],\"info\":{\"seed\":\"abc\",\"results\":2,\"page\":1,\"version\":\"1.3\"}}";
+
+	/**
+	 * Reads a response and checks every User gets all of its fields.
+	 */
+	@Test
+	void readResponse() {
+		List<User> users = new ArrayList<User>();
+
+		assertThat(GeneratedUserReader.read(new StringReader(RESPONSE), users::add)).isEqualTo(2);
+		assertThat(users.get(0)).hasFieldOrPropertyWithValue("username", "ada")
+			.hasFieldOrPropertyWithValue("name", "Ada Byron")
+			.hasFieldOrPropertyWithValue("email", "ada@example.com")
+			.hasFieldOrPropertyWithValue("gender", Gender.FEMALE)
+			.hasFieldOrPropertyWithValue("picture", "m.jpg");
+		assertThat(users.get(1)).hasFieldOrPropertyWithValue("username", "alan")
+			.hasFieldOrPropertyWithValue("gender", Gender.MALE);
+	}
+
+	/**
+	 * Offers batches with Users already stored and Users repeated between and within batches,
+	 * checking only new usernames are accepted, up to the requested amount.
+	 */
+	@Test
+	void deduplicateBatches() {
+		UserStore store = new ConcurrentUserStore(10);
+		store.insert(newUser("stored"));
+		GenerationDeduplicator deduplicator = new GenerationDeduplicator(store, 4);
+
+		BatchReport first = deduplicator.offer(Arrays.asList(newUser("a"), newUser("stored"), newUser("b"), newUser("a")));
+		assertThat(first.getAccepted()).isEqualTo(2);
+		assertThat(first.getAlreadyStored()).isEqualTo(1);
+		assertThat(first.getRepeated()).isEqualTo(1);
+		assertThat(deduplicator.getMissing()).isEqualTo(2);
+
+		BatchReport second = deduplicator.offer(Arrays.asList(newUser("b"), newUser("c"), newUser("d"), newUser("e")));
+		assertThat(second.getAccepted()).isEqualTo(2);
+		assertThat(second.getDiscarded()).isEqualTo(1);
+		assertThat(second.getUnused()).isEqualTo(1);
+
+		assertThat(deduplicator.isComplete()).isTrue();
+		assertThat(deduplicator.getAccepted()).extracting("username").containsExactly("a", "b", "c", "d");
+	}
+
+	/**
+	 * Checks two synthetic generators with the same seed generate the same Users.
+	 */
+	@Test
+	void syntheticGeneratorIsDeterministic() {
+		List<User> first = new SyntheticUserGenerator(7).generate(100);
+		List<User> second = new SyntheticUserGenerator(7).generate(100);
+
+		assertThat(first).hasSize(100);
+		assertThat(first).extracting("username").isEqualTo(second.stream().map(User::getUsername).collect(Collectors.toList()));
+		assertThat(new SyntheticUserGenerator(7).generate(RandomUserApiGenerator.MAX_RESULTS + 1)).hasSize(RandomUserApiGenerator.MAX_RESULTS);
+	}
+
+	/**
+	 * Generates more Users than fit in one batch with the synthetic generator, checking usernames are unique.
+	 */
+	@Test
+	void generateManySyntheticUsers() {
+		UserService userService = new UserService(new ConcurrentUserStore(10), new SyntheticUserGenerator(1, 1000), 4);
+
+		List<User> resp = userService.generateRandom(12345);
+
+		assertThat(resp).hasSize(12345);
+		assertThat(resp.stream().map(User::getUsername).distinct().count()).isEqualTo(12345);
+	}
+
+	/**
+	 * Generates Users with the calls to the generator on virtual threads, when the JDK has them.
+	 */
+	@Test
+	void generateOnVirtualThreads() {
+		Assumptions.assumeTrue(VirtualThreadUtils.isSupported(), "Virtual threads need Java 21 or later");
+		UserService userService = new UserService(new ConcurrentUserStore(10), new SyntheticUserGenerator(1, 1000), 4,
+				UserMetrics.noop(), true);
+
+		List<User> resp = userService.generateRandom(12345);
+
+		assertThat(resp).hasSize(12345);
+		assertThat(resp.stream().map(User::getUsername).distinct().count()).isEqualTo(12345);
+	}
+
+	/**
+	 * Generates Users through the local stand-in of the api, which repeats a third of the usernames it serves.
+	 */
+	@Test
+	void generateThroughLocalServer() throws Exception {
+		try (LocalServerUserGenerator generator = new LocalServerUserGenerator(3, 5, 0, 0.3, 4)) {
+			UserService userService = new UserService(new ConcurrentUserStore(10), generator, 4);
+
+			List<User> resp = userService.generateRandom(7000);
+
+			assertThat(resp).hasSize(7000);
+			assertThat(resp.stream().map(User::getUsername).distinct().count()).isEqualTo(7000);
+			assertThat(userService.getOne(resp.get(6999).getUsername())).isSameAs(resp.get(6999));
+		}
+	}
+
+	/**
+	 * Generates Users through the local stand-in of the api and does some CRUD, checking the meters recorded.
+	 */
+	@Test
+	void recordMetrics() throws Exception {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		UserMetrics metrics = new UserMetrics(registry);
+
+		try (LocalServerUserGenerator generator = new LocalServerUserGenerator(5, 0, 0, 0.3, 4, metrics)) {
+			UserService userService = new UserService(new ConcurrentUserStore(10), generator, 4, metrics);
+
+			List<User> resp = userService.generateRandom(100);
+			userService.delete(resp.get(0).getUsername());
+			Assertions.assertThrows(IllegalArgumentException.class, () -> {
+				userService.delete(resp.get(0).getUsername());
+			});
+
+			assertThat(registry.get("users.mutations").tag("operation", "generate").counter().count()).isEqualTo(100);
+			assertThat(registry.get("users.mutations").tag("operation", "delete").counter().count()).isEqualTo(1);
+			assertThat(registry.get("users.rejections").tag("reason", "not_found").counter().count()).isEqualTo(1);
+			assertThat(registry.get("generator.discarded").counter().count()).isPositive();
+			assertThat(registry.get("generator.fetch").timer().count()).isEqualTo(registry.get("generator.batch").timer().count());
+			assertThat(registry.get("generator.response.read").timer().count()).isPositive();
+			assertThat(registry.get("users.stored").gauge().value()).isEqualTo(99);
+		}
+	}
+
+	/**
+	 * Generates Users through the local stand-in of the api while it fails every request. This should throw an exception.
+	 */
+	@Test
+	void generateThroughFailingLocalServer() throws Exception {
+		try (LocalServerUserGenerator generator = new LocalServerUserGenerator(3, 0, 1, 0, 4)) {
+			UserService userService = new UserService(new ConcurrentUserStore(10), generator, 4);
+
+			Assertions.assertThrows(RuntimeException.class, () -> {
+				userService.generateRandom(10);
+			});
+		}
+	}
+
+	/**
+	 * Generates Users in several batches while the first two calls to the generator fail: they must be called again,
+	 * and the generation succeed as a whole.
+	 */
+	@Test
+	void retryFailedBatches() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		FailingGenerator generator = new FailingGenerator(2);
+		UserService userService = new UserService(new ConcurrentUserStore(10), generator, 4, new UserMetrics(registry));
+
+		assertThat(userService.generateRandom(2500)).hasSize(2500);
+		assertThat(registry.get("generator.retries").counter().count()).isEqualTo(2);
+	}
+
+	/**
+	 * Generates a single batch while every call to the generator fails: it is called a few times, then the
+	 * generation fails without storing anything.
+	 */
+	@Test
+	void giveUpOnFailingBatch() {
+		FailingGenerator generator = new FailingGenerator(Integer.MAX_VALUE);
+		UserService userService = new UserService(new ConcurrentUserStore(10), generator, 4);
+
+		Assertions.assertThrows(IllegalStateException.class, () -> userService.generateRandom(10));
+		assertThat(generator.calls.get()).isEqualTo(3);
+		assertThat(userService.getPage(null, 10).getUsers()).isEmpty();
+	}
+
+	/**
+	 * Generates five batches one call at a time while the first call returns every User needed, then five more while
+	 * the job is cancelled during the first call: the batches queued behind it must never call the generator.
+	 */
+	@Test
+	void skipUnneededBatches() {
+		CountingGenerator generator = new CountingGenerator(500, null);
+		UserService userService = new UserService(new ConcurrentUserStore(10), generator, 1);
+
+		assertThat(userService.generateRandom(500)).hasSize(500);
+		assertThat(generator.calls.get()).isEqualTo(1);
+
+		GenerationJob job = new GenerationJob("cancelled", 500);
+		job.start();
+		CountingGenerator cancelling = new CountingGenerator(100, job);
+		UserService cancelled = new UserService(new ConcurrentUserStore(10), cancelling, 1);
+
+		Assertions.assertThrows(CancellationException.class, () -> cancelled.generateRandom(500, job));
+		assertThat(cancelling.calls.get()).isEqualTo(1);
+		assertThat(cancelled.getPage(null, 10).getUsers()).isEmpty();
+	}
+
+	/**
+	 * Reads an error response of the api. This should throw an exception.
+	 */
+	@Test
+	void readErrorResponse() {
+		Assertions.assertThrows(RuntimeException.class, () -> {
+			GeneratedUserReader.read(new StringReader("{\"error\":\"Uh oh, something has gone wrong.\"}"), u -> {});
+		});
+	}
+
+	/**
+	 * Reads a truncated response. This should throw an exception.
+	 */
+	@Test
+	void readTruncatedResponse() {
+		Assertions.assertThrows(RuntimeException.class, () -> {
+			GeneratedUserReader.read(new StringReader(RESPONSE.substring(0, 200)), u -> {});
+		});
+	}
+
+	private static User newUser(String username) {
+		return new User(username, "Name", username + "@mail.com", Gender.OTHER, "picture.jpg");
+	}
+
+	/**
+	 * Synthetic generator whose first calls fail.
+	 */
+	static class FailingGenerator extends SyntheticUserGenerator {
+
+		final AtomicInteger calls = new AtomicInteger();
+
+		private final int failures;
+
+		FailingGenerator(int failures) {
+			super(7, 1000);
+			this.failures = failures;
+		}
+
+		@Override
+		public List<User> generate(int number) {
+			if (calls.incrementAndGet() <= failures)
+				throw new IllegalStateException("Failure " + calls.get());
+			return super.generate(number);
+		}
+	}
+
+	/**
+	 * Synthetic generator of batches of 100 Users, counting its calls, whose first call either returns the given
+	 * amount of Users, as an api answering with more than asked would, or cancels the given job.
+	 */
+	static class CountingGenerator extends SyntheticUserGenerator {
+
+		final AtomicInteger calls = new AtomicInteger();
+
+		private final int first;
+
+		private final GenerationJob job;
+
+		CountingGenerator(int first, GenerationJob job) {
+			super(7, 100);
+			this.first = first;
+			this.job = job;
+		}
+
+		@Override
+		public List<User> generate(int number) {
+			if (calls.incrementAndGet() > 1)
+				return super.generate(number);
+			if (job != null)
+				job.cancel();
+			return new SyntheticUserGenerator(8, first).generate(first);
+		}
+	}
+
+}
@@ -0,0 +1,159 @@
+package com.agilecontent.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.agilecontent.test.controllers.UserController;
+import com.agilecontent.test.generators.SyntheticUserGenerator;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.models.UserPage;
+import com.agilecontent.test.services.UserService;
+import com.agilecontent.test.stores.ConcurrentUserStore;
+import com.agilecontent.test.stores.IndexedUserStore;
+
+/**
+ * Tests for the secondary indexes by email, domain and gender, and the endpoints searching through them.
+ *
+ * @author Carlos Melero
+ *
+ */
+class IndexTests {
+
+	UserService userService;
+
+	UserController userController;
+
+	@BeforeEach
+	void initController() {
+		userService = new UserService(Arrays.asList(
+				new User("test", "Test", "test@gmail.com", Gender.MALE, null),
+				new User("test2", "Test 2", "test2@Gmail.com", Gender.FEMALE, null),
+				new User("test3", "Test 3", "test3@yahoo.com", Gender.FEMALE, null),
+				new User("test4", "Test 4", null, null, null)));
+		userController = new UserController(userService);
+	}
+
+	/**
+	 * Pages through the Users holding an email, ignoring case.
+	 */
+	@Test
+	void pageByEmail() {
+		assertThat(userController.getPageByEmail("TEST2@gmail.com", 10, null, null).getUsers()).extracting(User::getUsername)
+				.containsExactly("test2");
+
+		userService.create(new User("test5", "Test 5", "test@gmail.com", Gender.OTHER, null));
+		UserPage page = userController.getPageByEmail("test@gmail.com", 1, null, null);
+		assertThat(page.getUsers()).extracting(User::getUsername).containsExactly("test");
+		page = userController.getPageByEmail("test@gmail.com", 1, page.getNextCursor(), null);
+		assertThat(page.getUsers()).extracting(User::getUsername).containsExactly("test5");
+		assertThat(page.getNextCursor()).isNull();
+
+		assertThat(userController.getPageByEmail("nobody@gmail.com", 10, null, null).getUsers()).isEmpty();
+	}
+
+	/**
+	 * Pages through the Users of a gender and of a domain, with cursors.
+	 */
+	@Test
+	void pageByGenderAndDomain() {
+		UserPage page = userController.getPageByGender("female", 1, null, null);
+		assertThat(page.getUsers()).extracting(User::getUsername).containsExactly("test2");
+		page = userController.getPageByGender("FEMALE", 1, page.getNextCursor(), null);
+		assertThat(page.getUsers()).extracting(User::getUsername).containsExactly("test3");
+		assertThat(page.getNextCursor()).isNull();
+
+		assertThat(userController.getPageByGender("other", 10, null, null).getUsers()).isEmpty();
+		Assertions.assertThrows(IllegalArgumentException.class, () -> userController.getPageByGender("unknown", 10, null, null));
+
+		assertThat(userController.getPageByDomain("gmail.com", 10, null, null).getUsers()).extracting(User::getUsername)
+				.containsExactly("test", "test2");
+	}
+
+	/**
+	 * Updates and deletions move the Users between the indexes. Updated Users keep their place.
+	 */
+	@Test
+	void followMutations() {
+		userService.update(new User("test", "Test", "test@yahoo.com", Gender.FEMALE, null));
+		assertThat(userService.getPageByEmail("test@gmail.com", null, 10).getUsers()).isEmpty();
+		assertThat(userService.getPageByDomain("yahoo.com", null, 10).getUsers()).extracting(User::getUsername)
+				.containsExactly("test", "test3");
+		assertThat(userService.getPageByGender(Gender.FEMALE, null, 10).getUsers()).extracting(User::getUsername)
+				.containsExactly("test", "test2", "test3");
+		assertThat(userService.getPageByGender(Gender.MALE, null, 10).getUsers()).isEmpty();
+
+		userService.delete("test3");
+		assertThat(userService.getPageByDomain("yahoo.com", null, 10).getUsers()).extracting(User::getUsername)
+				.containsExactly("test");
+		assertThat(userService.getPageByEmail("test3@yahoo.com", null, 10).getUsers()).isEmpty();
+	}
+
+	/**
+	 * Without the indexes, finding and sorting are not available, while the rest keeps working.
+	 */
+	@Test
+	void withoutIndexes() {
+		UserService plain = new UserService(new ConcurrentUserStore(Arrays.asList(new User("test", "Test", "test@gmail.com", Gender.MALE, null)), 10));
+
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> plain.getPageByGender(Gender.MALE, null, 10));
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> plain.search("test", 10));
+		assertThat(plain.getPage(null, 10).getUsers()).extracting(User::getUsername).containsExactly("test");
+		assertThat(plain.getVersion("test")).isPositive();
+	}
+
+	/**
+	 * Without the indexes, the endpoints finding the Users answer 501 instead of failing.
+	 */
+	@Test
+	void endpointsWithoutIndexes() {
+		UserController plain = new UserController(new UserService(new ConcurrentUserStore(10)));
+
+		for (Executable endpoint : new Executable[] {
+				() -> plain.getPageByEmail("test@gmail.com", 10, null, null),
+				() -> plain.getPageByGender("male", 10, null, null),
+				() -> plain.getPageByDomain("gmail.com", 10, null, null) }) {
+			ResponseStatusException e = Assertions.assertThrows(ResponseStatusException.class, endpoint);
+			assertThat(e.getStatus()).isEqualTo(HttpStatus.NOT_IMPLEMENTED);
+		}
+	}
+
+	/**
+	 * Indexes a store already holding Users, then checks that the pages of a gender hold every User of it, and only
+	 * those.
+	 */
+	@Test
+	void indexFilledStore() {
+		ConcurrentUserStore store = new ConcurrentUserStore(10);
+		store.insertAll(new SyntheticUserGenerator(2, 1000).generate(1000));
+		IndexedUserStore indexed = new IndexedUserStore(store);
+
+		int female = 0;
+		for (User u : store) {
+			if (u.getGender() == Gender.FEMALE)
+				female++;
+		}
+
+		List<User> found = new ArrayList<User>();
+		UserPage page = indexed.getPageByGender(Gender.FEMALE, null, 100);
+		found.addAll(page.getUsers());
+		while (page.getNextCursor() != null) {
+			page = indexed.getPageByGender(Gender.FEMALE, page.getNextCursor(), 100);
+			found.addAll(page.getUsers());
+		}
+
+		assertThat(found).hasSize(female).allMatch(u -> u.getGender() == Gender.FEMALE);
+		assertThat(indexed.getPageByDomain("example.com", null, 10).getNextCursor()).isNotNull();
+	}
+
+}
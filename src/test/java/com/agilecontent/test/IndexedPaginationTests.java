@@ -0,0 +1,103 @@
+package com.agilecontent.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.agilecontent.test.models.IndexedPagedList;
+import com.agilecontent.test.models.PagedList;
+
+/**
+ * Pagination tests for the IndexedPagedList variant. Runs every test of PaginationTests against it,
+ * plus some tests of its own that compare it with the plain ArrayList based PagedList.
+ * 
+ * @author Carlos Melero
+ *
+ */
+class IndexedPaginationTests extends PaginationTests {
+
+	@Override
+	PagedList<Integer> newPagedList(int pageSize) {
+		return new IndexedPagedList<Integer>(pageSize);
+	}
+
+	/**
+	 * Inserts elements at given pages and positions, checking they end up where expected.
+	 */
+	@Test
+	void addByPageAndPosition() {
+		mockPagedList.add(1, 1, 100);
+		mockPagedList.add(0, 200);
+
+		assertThat(mockPagedList.getPage(0)).containsExactly(200, 0, 1);
+		assertThat(mockPagedList.getPage(1)).containsExactly(2, 3, 100);
+		assertThat(mockPagedList.getPageOf(100)).containsExactly(2, 3, 100);
+		assertThat(mockPagedList.getPages()).isEqualTo(4);
+	}
+
+	/**
+	 * Tries to add an element that is already contained. This should throw an exception.
+	 */
+	@Test
+	void addDuplicatedElement() {
+		Assertions.assertThrows(IllegalArgumentException.class, () -> {
+			mockPagedList.add(3);
+		});
+	}
+
+	/**
+	 * Builds the list from an initial collection, then sorts it, checking the pages every time.
+	 */
+	@Test
+	void buildFromCollectionAndSort() {
+		PagedList<Integer> list = new IndexedPagedList<Integer>(Arrays.asList(5, 3, 9, 1, 7), 2);
+
+		assertThat(list.getAllElements()).containsExactly(5, 3, 9, 1, 7);
+		assertThat(list.getLastPage()).containsExactly(7);
+
+		list.sort(null);
+		assertThat(list.getAllElements()).containsExactly(1, 3, 5, 7, 9);
+		assertThat(list.getPageOf(7)).containsExactly(5, 7);
+	}
+
+	/**
+	 * Performs a long random sequence of positional insertions and removals on both PagedList variants,
+	 * checking they always hold the same contents and pages.
+	 */
+	@Test
+	void sameBehaviourAsPagedList() {
+		Random random = new Random(42);
+		PagedList<Integer> expected = new PagedList<Integer>(7);
+		PagedList<Integer> actual = new IndexedPagedList<Integer>(7);
+
+		for (int i = 0; i < 5000; i++) {
+			int size = expected.size();
+			if (size > 0 && random.nextInt(3) == 0) {
+				Integer e = expected.getAllElements().get(random.nextInt(size));
+				assertThat(actual.remove(e)).isEqualTo(expected.remove(e));
+			} else {
+				int index = random.nextInt(size + 1);
+				expected.add(index, i);
+				actual.add(index, i);
+			}
+
+			if (i % 250 == 0) {
+				assertThat(actual.getAllElements()).isEqualTo(expected.getAllElements());
+				assertThat(actual.getPages()).isEqualTo(expected.getPages());
+			}
+		}
+
+		List<Integer> all = new ArrayList<Integer>(expected.getAllElements());
+		for (Integer e : all) {
+			assertThat(actual.getPageOf(e)).isEqualTo(expected.getPageOf(e));
+			assertThat(actual.contains(e)).isTrue();
+		}
+	}
+
+}
@@ -0,0 +1,162 @@
+package com.agilecontent.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.agilecontent.test.generators.SyntheticUserGenerator;
+import com.agilecontent.test.metrics.UserMetrics;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.models.UserPage;
+import com.agilecontent.test.repositories.UserRepository;
+import com.agilecontent.test.services.UserService;
+import com.agilecontent.test.stores.ConcurrentUserStore;
+import com.agilecontent.test.stores.IndexedUserStore;
+import com.agilecontent.test.stores.JpaUserStore;
+import com.agilecontent.test.stores.WriteBehindUserStore;
+
+/**
+ * Tests for the JPA store, over an embedded H2 database. The store manages its own transactions,
+ * so the tests do not run within one.
+ *
+ * @author Carlos Melero
+ *
+ */
+@DataJpaTest(properties = {
+		"spring.autoconfigure.exclude=",
+		"spring.jpa.properties.hibernate.jdbc.batch_size=500",
+		"spring.jpa.properties.hibernate.order_inserts=true",
+		"spring.jpa.properties.hibernate.generate_statistics=true" })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class JpaStoreTests {
+
+	@Autowired
+	UserRepository repository;
+
+	@Autowired
+	EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	JpaUserStore store;
+
+	User user1 = new User("test", "Test", "test@gmail.com", Gender.MALE, "https://test.com/image.jpg");
+	User user2 = new User("test2", "Test 2", "test2@gmail.com", Gender.FEMALE, "https://test2.com/image.jpg");
+	User user3 = new User("test3", "Test 3", "test3@gmail.com", Gender.OTHER, null);
+
+	/**
+	 * Starts every test with an empty table.
+	 */
+	@BeforeEach
+	void initStore() {
+		repository.deleteAllInBatch();
+		EntityManager entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+		store = new JpaUserStore(repository, entityManager, transactionManager, 2, 500);
+	}
+
+	/**
+	 * Goes through every operation of the store.
+	 */
+	@Test
+	void crud() {
+		assertThat(store.insert(user1)).isNull();
+		assertThat(store.insert(new User("test", "Other", null, null, null)).getName()).isEqualTo("Test");
+		assertThat(store.insertAll(Arrays.asList(user2, user1, user3, user2))).extracting("username").containsExactly("test2", "test3");
+
+		assertThat(store.size()).isEqualTo(3);
+		assertThat(store.getPages()).isEqualTo(2);
+		assertThat(store.getPage(1)).extracting("username").containsExactly("test3");
+		assertThat(store.getPage(2)).isNull();
+
+		long version = store.getVersion("test2");
+		assertThat(version).isPositive();
+		assertThat(store.update(new User("test2", "Updated", null, Gender.OTHER, null)).getName()).isEqualTo("Updated");
+		assertThat(store.getVersion("test2")).isGreaterThan(version);
+		assertThat(store.getVersion("missing")).isZero();
+		assertThat(store.get("test2").getGender()).isEqualTo(Gender.OTHER);
+		assertThat(store.update(new User("missing", null, null, null, null))).isNull();
+
+		assertThat(store.remove("test").getUsername()).isEqualTo("test");
+		assertThat(store.remove("test")).isNull();
+		assertThat(store.findTaken(Arrays.asList("test", "test2", "test3"))).containsExactlyInAnyOrder("test2", "test3");
+
+		List<String> usernames = new ArrayList<String>();
+		store.forEach(u -> usernames.add(u.getUsername()));
+		assertThat(usernames).containsExactly("test2", "test3");
+	}
+
+	/**
+	 * Pages through the Users with cursors, which the database answers with keyset queries.
+	 */
+	@Test
+	void pageWithCursor() {
+		store.insertAll(new SyntheticUserGenerator(9, 25).generate(25));
+		int total = store.size();
+
+		List<String> seen = new ArrayList<String>();
+		String cursor = null;
+		do {
+			UserPage page = store.getPageAfter(cursor, 10);
+			page.getUsers().forEach(u -> seen.add(u.getUsername()));
+			cursor = page.getNextCursor();
+		} while (cursor != null);
+
+		List<String> expected = new ArrayList<String>();
+		store.forEach(u -> expected.add(u.getUsername()));
+		assertThat(seen).hasSize(total).isEqualTo(expected);
+	}
+
+	/**
+	 * Generates 4000 Users into the database. The insertions must go out as JDBC batches, and the usernames
+	 * must be checked in bulk, instead of doing one round trip per User.
+	 */
+	@Test
+	void generateInBatches() {
+		Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		UserService userService = new UserService(store, new SyntheticUserGenerator(1, 1000), 4);
+		statistics.clear();
+
+		List<User> generated = userService.generateRandom(4000);
+
+		assertThat(generated).hasSize(4000);
+		assertThat(store.size()).isEqualTo(4000);
+		assertThat(statistics.getEntityInsertCount()).isEqualTo(4000);
+		assertThat(statistics.getPrepareStatementCount()).isLessThan(100);
+	}
+
+	/**
+	 * Closes an indexed write-behind store, as Spring does on shutdown: the mutations still queued must reach the database.
+	 */
+	@Test
+	void flushIndexedWriteBehindOnClose() throws IOException {
+		IndexedUserStore indexed = new IndexedUserStore(new WriteBehindUserStore(new ConcurrentUserStore(2), store, 100, 60000, UserMetrics.noop()));
+		indexed.insertAll(Arrays.asList(user1, user2, user3));
+		indexed.update(new User("test2", "Updated", null, Gender.OTHER, null));
+		indexed.remove("test3");
+
+		indexed.close();
+
+		assertThat(store.getPage(0)).extracting("username").containsExactly("test", "test2");
+		assertThat(store.get("test2").getName()).isEqualTo("Updated");
+	}
+
+}
@@ -0,0 +1,198 @@
+package com.agilecontent.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.agilecontent.test.generators.SyntheticUserGenerator;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.models.UserPage;
+import com.agilecontent.test.stores.ConcurrentUserStore;
+import com.agilecontent.test.stores.OffHeapUserStore;
+import com.agilecontent.test.stores.UserStore;
+
+/**
+ * Tests for the off-heap store: it must behave exactly like the in-memory one, while packing its Users.
+ *
+ * @author Carlos Melero
+ *
+ */
+class OffHeapStoreTests {
+
+	User user1 = new User("test", "Test", "test@gmail.com", Gender.MALE, "https://test.com/image.jpg");
+	User user2 = new User("tëst2", "Tëst 2", "no-domain", Gender.FEMALE, "no-prefix");
+	User user3 = new User("test3", null, null, null, null);
+
+	/**
+	 * Stores Users with every kind of field, and checks they are decoded back as they were.
+	 */
+	@Test
+	void decodeEveryField() {
+		OffHeapUserStore store = new OffHeapUserStore(2);
+		assertThat(store.insertAll(Arrays.asList(user1, user2, user1, user3))).containsExactly(user1, user2, user3);
+		assertThat(store.insert(new User("test", "Other", null, null, null)).getName()).isEqualTo("Test");
+
+		for (User u : Arrays.asList(user1, user2, user3))
+			assertThat(store.get(u.getUsername())).isEqualToComparingFieldByField(u);
+		assertThat(store.get("missing")).isNull();
+
+		// Longer than the record, so it moves
+		User updated = new User("test3", "A much longer name than before", "test3@other.com", Gender.OTHER, "https://other.com/3.jpg");
+		assertThat(store.update(updated)).isEqualToComparingFieldByField(updated);
+		assertThat(store.getPage(1)).extracting("username").containsExactly("test3");
+		assertThat(store.getDeadBytes()).isPositive();
+
+		assertThat(store.remove("tëst2")).isEqualToComparingFieldByField(user2);
+		assertThat(store.remove("tëst2")).isNull();
+		assertThat(store.findTaken(Arrays.asList("test", "tëst2", "test3"))).containsExactlyInAnyOrder("test", "test3");
+		assertThat(store.getPages()).isEqualTo(1);
+		assertThat(store.getPage(0)).extracting("username").containsExactly("test", "test3");
+	}
+
+	/**
+	 * Applies the same random mutations to an off-heap store and to an in-memory one, small enough to need
+	 * several slabs and compactions, and checks both always hold the same Users in the same order.
+	 */
+	@Test
+	void behaveLikeConcurrentStore() {
+		OffHeapUserStore offHeap = new OffHeapUserStore(7, 4096);
+		UserStore reference = new ConcurrentUserStore(7);
+		List<User> users = new SyntheticUserGenerator(3, 5000).generate(5000);
+		Random random = new Random(3);
+
+		for (int i = 0; i < 20000; i++) {
+			User u = users.get(random.nextInt(users.size()));
+			switch (random.nextInt(4)) {
+			case 0:
+				assertThat(offHeap.insert(u) == null).isEqualTo(reference.insert(u) == null);
+				break;
+			case 1:
+				int from = random.nextInt(users.size() - 10);
+				List<User> batch = users.subList(from, from + 10);
+				assertThat(offHeap.insertAll(batch)).isEqualTo(reference.insertAll(batch));
+				break;
+			case 2:
+				User changed = new User(u.getUsername(), u.getName() + i, u.getEmail(), u.getGender(), u.getPicture());
+				assertThat(offHeap.update(changed) == null).isEqualTo(reference.update(changed) == null);
+				break;
+			default:
+				assertThat(offHeap.remove(u.getUsername()) == null).isEqualTo(reference.remove(u.getUsername()) == null);
+			}
+		}
+
+		assertThat(offHeap.size()).isEqualTo(reference.size());
+		assertThat(offHeap.getPages()).isEqualTo(reference.getPages());
+		for (int p = 0; p < reference.getPages(); p++)
+			assertThat(offHeap.getPage(p)).usingFieldByFieldElementComparator().isEqualTo(reference.getPage(p));
+		assertThat(offHeap.getPage(reference.getPages())).isNull();
+
+		List<User> iterated = new ArrayList<User>();
+		offHeap.forEach(iterated::add);
+		List<User> paged = new ArrayList<User>();
+		String cursor = null;
+		do {
+			UserPage page = offHeap.getPageAfter(cursor, 100);
+			paged.addAll(page.getUsers());
+			cursor = page.getNextCursor();
+		} while (cursor != null);
+
+		List<User> expected = new ArrayList<User>();
+		reference.forEach(expected::add);
+		assertThat(iterated).usingFieldByFieldElementComparator().isEqualTo(expected);
+		assertThat(paged).usingFieldByFieldElementComparator().isEqualTo(expected);
+
+		offHeap.compact();
+		assertThat(offHeap.getDeadBytes()).isZero();
+		assertThat(offHeap.getPage(0)).usingFieldByFieldElementComparator().isEqualTo(reference.getPage(0));
+	}
+
+	/**
+	 * Removes most Users, with long runs of them, and checks cursors and iterators taken before a compaction carry on
+	 * after it without skipping or repeating anyone, while a cursor two compactions old is rejected.
+	 */
+	@Test
+	void followCursorsAcrossCompactions() {
+		OffHeapUserStore store = new OffHeapUserStore(10);
+		List<User> users = new SyntheticUserGenerator(4, 1000).generate(1000);
+		store.insertAll(users);
+		List<User> expected = new ArrayList<User>();
+		for (int i = 0; i < users.size(); i++) {
+			if (i % 5 == 0 && (i < 100 || i >= 900))
+				expected.add(users.get(i));
+			else
+				store.remove(users.get(i).getUsername());
+		}
+
+		UserPage first = store.getPageAfter(null, 10);
+		Iterator<User> iterator = store.iterator();
+		List<User> iterated = new ArrayList<User>();
+		for (int i = 0; i < 15; i++)
+			iterated.add(iterator.next());
+		store.compact();
+		iterator.forEachRemaining(iterated::add);
+
+		List<User> paged = new ArrayList<User>(first.getUsers());
+		String cursor = first.getNextCursor();
+		do {
+			UserPage page = store.getPageAfter(cursor, 10);
+			paged.addAll(page.getUsers());
+			cursor = page.getNextCursor();
+		} while (cursor != null);
+		assertThat(paged).usingFieldByFieldElementComparator().isEqualTo(expected);
+		assertThat(iterated).usingFieldByFieldElementComparator().isEqualTo(expected);
+
+		String stale = store.getPageAfter(null, 10).getNextCursor();
+		store.compact();
+		store.compact();
+		assertThatThrownBy(() -> store.getPageAfter(stale, 10)).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	/**
+	 * Keeps inserting Users and removing older ones, so few are stored at once but many sequences are handed out:
+	 * the arrays indexing them must be renumbered and shrunk, rather than grow with every User ever inserted.
+	 */
+	@Test
+	void shrinkIndexOnChurn() {
+		OffHeapUserStore store = new OffHeapUserStore(10, 4096);
+		List<User> users = new SyntheticUserGenerator(6, 20000).generate(20000);
+		for (int i = 0; i < users.size(); i++) {
+			store.insert(users.get(i));
+			if (i >= 100)
+				store.remove(users.get(i - 100).getUsername());
+		}
+
+		assertThat(store.size()).isEqualTo(100);
+		assertThat(store.getIndexBytes()).isLessThan(64 << 10);
+		assertThat(store.getPage(0)).usingFieldByFieldElementComparator().isEqualTo(users.subList(users.size() - 100, users.size() - 90));
+	}
+
+	/**
+	 * Stores twenty thousand generated Users, in small slabs. Their shared email domains and picture prefixes must be
+	 * dictionary encoded, so that each record takes well under the size of its fields (which, as Strings in the heap,
+	 * would take several times more).
+	 */
+	@Test
+	void packGeneratedUsers() {
+		OffHeapUserStore store = new OffHeapUserStore(10, 64 << 10);
+		SyntheticUserGenerator generator = new SyntheticUserGenerator(5, 10000);
+		long fieldBytes = 0L;
+
+		while (store.size() < 20000) {
+			for (User u : store.insertAll(generator.generate(10000)))
+				fieldBytes += u.getUsername().length() + u.getName().length() + u.getEmail().length() + u.getPicture().length() + 1;
+		}
+
+		assertThat(store.getAllocatedBytes()).isLessThan(fieldBytes * 3 / 4);
+		User last = store.getPage(store.getPages() - 1).get(0);
+		assertThat(store.get(last.getUsername())).isEqualToComparingFieldByField(last);
+	}
+
+}
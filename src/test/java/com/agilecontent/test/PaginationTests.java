@@ -30,7 +30,7 @@ class PaginationTests {
 	 */
 	@BeforeEach
 	void initService() {
-		mockPagedList = new PagedList<Integer>(3);
+		mockPagedList = newPagedList(3);
 		mockPagedList.add(0);
 		mockPagedList.add(1);
 		mockPagedList.add(2);
@@ -41,6 +41,15 @@ class PaginationTests {
 		mockPagedList.add(7);
 	}
 
+	/**
+	 * Creates the empty PagedList to test. Overridden to run these same tests against PagedList variants.
+	 * @param pageSize The size of each page
+	 * @return The new PagedList
+	 */
+	PagedList<Integer> newPagedList(int pageSize) {
+		return new PagedList<Integer>(pageSize);
+	}
+
 	/**
 	 * Gets all the elements in an only ArrayList.
 	 */
@@ -54,7 +63,7 @@ class PaginationTests {
 	 */
 	@Test
 	void getThingsForEmptyList() {
-		PagedList<Integer> mockEmptyPagedList =  new PagedList<Integer>(3);
+		PagedList<Integer> mockEmptyPagedList =  newPagedList(3);
 		assertThat(mockEmptyPagedList.getAllElements()).isEmpty();
 		assertThat(mockEmptyPagedList.getFirstPage()).isEmpty();
 		assertThat(mockEmptyPagedList.getLastPage()).isEmpty();
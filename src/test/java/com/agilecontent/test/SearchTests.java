@@ -0,0 +1,117 @@
+package com.agilecontent.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.agilecontent.test.controllers.UserController;
+import com.agilecontent.test.generators.SyntheticUserGenerator;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.services.UserService;
+import com.agilecontent.test.stores.ConcurrentUserStore;
+import com.agilecontent.test.stores.IndexedUserStore;
+
+/**
+ * Tests for the type-ahead search by username prefix and by name similarity.
+ *
+ * @author Carlos Melero
+ *
+ */
+class SearchTests {
+
+	UserService userService;
+
+	UserController userController;
+
+	@BeforeEach
+	void initController() {
+		userService = new UserService(Arrays.asList(
+				new User("silverfox", "Carlos Melero", null, Gender.MALE, null),
+				new User("SilverCat", "Lucia Garcia", null, Gender.FEMALE, null),
+				new User("goldenfox", "Carla Moreno", null, Gender.FEMALE, null),
+				new User("tinybird", null, null, null, null)));
+		userController = new UserController(userService);
+	}
+
+	/**
+	 * Finds usernames by prefix, ignoring case, in alphabetical order.
+	 */
+	@Test
+	void searchByUsernamePrefix() {
+		assertThat(userController.searchUsers("silver", 10)).extracting(User::getUsername)
+				.startsWith("SilverCat", "silverfox");
+		assertThat(userController.searchUsers("SILVERF", 10)).extracting(User::getUsername).first().isEqualTo("silverfox");
+		assertThat(userController.searchUsers("silver", 1)).extracting(User::getUsername).containsExactly("SilverCat");
+	}
+
+	/**
+	 * Finds names from their beginning, and despite typos, the most similar first.
+	 */
+	@Test
+	void searchByName() {
+		assertThat(userController.searchUsers("carl", 10)).extracting(User::getUsername)
+				.containsExactlyInAnyOrder("silverfox", "goldenfox");
+		assertThat(userController.searchUsers("Carlos Melreo", 10)).extracting(User::getUsername).first().isEqualTo("silverfox");
+		assertThat(userController.searchUsers("lucia garcia", 10)).extracting(User::getUsername).first().isEqualTo("SilverCat");
+		assertThat(userController.searchUsers("xyz", 10)).isEmpty();
+	}
+
+	/**
+	 * Follows creations, updates and deletions.
+	 */
+	@Test
+	void followMutations() {
+		userService.create(new User("bluewolf", "Nora Virtanen", null, Gender.FEMALE, null));
+		assertThat(userController.searchUsers("virtanen", 10)).extracting(User::getUsername).containsExactly("bluewolf");
+
+		userService.update(new User("bluewolf", "Nora Nielsen", null, Gender.FEMALE, null));
+		assertThat(userController.searchUsers("virtanen", 10)).isEmpty();
+		assertThat(userController.searchUsers("nielsen", 10)).extracting(User::getUsername).containsExactly("bluewolf");
+
+		userService.delete("bluewolf");
+		assertThat(userController.searchUsers("nielsen", 10)).isEmpty();
+		assertThat(userController.searchUsers("blue", 10)).isEmpty();
+	}
+
+	/**
+	 * Without the indexes, searching answers 501 instead of failing.
+	 */
+	@Test
+	void searchWithoutIndexes() {
+		UserController plain = new UserController(new UserService(new ConcurrentUserStore(10)));
+
+		ResponseStatusException e = Assertions.assertThrows(ResponseStatusException.class, () -> plain.searchUsers("silver", 10));
+		assertThat(e.getStatus()).isEqualTo(HttpStatus.NOT_IMPLEMENTED);
+	}
+
+	/**
+	 * Searches a store already holding Users, with partial and misspelt queries: the Users matching a misspelt name
+	 * best must come first.
+	 */
+	@Test
+	void searchFilledStore() {
+		ConcurrentUserStore store = new ConcurrentUserStore(10);
+		store.insertAll(new SyntheticUserGenerator(2, 2000).generate(2000));
+		IndexedUserStore indexed = new IndexedUserStore(store);
+
+		for (String query : new String[] { "silverf", "happybe", "Olivia Brow", "mar", "lion" })
+			assertThat(indexed.search(query, 10)).as(query).isNotEmpty();
+
+		int named = 0;
+		for (User u : store) {
+			if (u.getName().equals("Jennifer Wilson"))
+				named++;
+		}
+		assertThat(named).isBetween(1, 10);
+		assertThat(indexed.search("jenifer wilsn", 10).subList(0, named)).allMatch(u -> u.getName().equals("Jennifer Wilson"));
+	}
+
+}
@@ -0,0 +1,123 @@
+package com.agilecontent.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.agilecontent.test.controllers.UserController;
+import com.agilecontent.test.generators.SyntheticUserGenerator;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.models.UserPage;
+import com.agilecontent.test.services.UserService;
+import com.agilecontent.test.stores.ConcurrentUserStore;
+import com.agilecontent.test.stores.IndexedUserStore;
+import com.agilecontent.test.stores.IndexedUserStore.SortedBy;
+
+/**
+ * Tests for the sorted views of the Users, paged through the same endpoint as the insertion order.
+ *
+ * @author Carlos Melero
+ *
+ */
+class SortedViewTests {
+
+	UserService userService;
+
+	UserController userController;
+
+	@BeforeEach
+	void initController() {
+		userService = new UserService(Arrays.asList(
+				new User("carol", "Zoe", "b@test.com", Gender.FEMALE, null),
+				new User("Alice", "mark", null, Gender.FEMALE, null),
+				new User("bob", "Anna", "a@test.com", Gender.MALE, null)));
+		userController = new UserController(userService);
+	}
+
+	/**
+	 * Pages through every sort, ignoring case and with the Users without the field last.
+	 */
+	@Test
+	void pageSorted() {
+		assertThat(usernames(userController.getPageAfter(10, null, null, null))).containsExactly("carol", "Alice", "bob");
+		assertThat(usernames(userController.getPageAfter(10, null, "username", null))).containsExactly("Alice", "bob", "carol");
+		assertThat(usernames(userController.getPageAfter(10, null, "NAME", null))).containsExactly("bob", "Alice", "carol");
+		assertThat(usernames(userController.getPageAfter(10, null, "email", null))).containsExactly("bob", "carol", "Alice");
+
+		UserPage page = userController.getPageAfter(2, null, "username", null);
+		assertThat(usernames(page)).containsExactly("Alice", "bob");
+		page = userController.getPageAfter(2, page.getNextCursor(), "username", null);
+		assertThat(usernames(page)).containsExactly("carol");
+		assertThat(page.getNextCursor()).isNull();
+
+		Assertions.assertThrows(IllegalArgumentException.class, () -> userController.getPageAfter(10, null, "gender", null));
+	}
+
+	/**
+	 * Creations, updates and deletions move the Users within the views, leaving the insertion order alone.
+	 */
+	@Test
+	void followMutations() {
+		userService.create(new User("aaron", "Bea", "c@test.com", Gender.MALE, null));
+		userService.update(new User("carol", "Abby", "b@test.com", Gender.FEMALE, null));
+		userService.delete("bob");
+
+		assertThat(usernames(userService.getPageSortedBy(SortedBy.USERNAME, null, 10))).containsExactly("aaron", "Alice", "carol");
+		assertThat(usernames(userService.getPageSortedBy(SortedBy.NAME, null, 10))).containsExactly("carol", "aaron", "Alice");
+		assertThat(usernames(userService.getPageSortedBy(SortedBy.EMAIL, null, 10))).containsExactly("carol", "aaron", "Alice");
+		assertThat(usernames(userService.getPage(null, 10))).containsExactly("carol", "Alice", "aaron");
+	}
+
+	/**
+	 * Without the indexes, sorted pages answer 501 instead of failing, while the insertion order keeps working.
+	 */
+	@Test
+	void sortWithoutIndexes() {
+		UserController plain = new UserController(new UserService(new ConcurrentUserStore(Arrays.asList(
+				new User("carol", "Zoe", "b@test.com", Gender.FEMALE, null)), 10)));
+
+		ResponseStatusException e = Assertions.assertThrows(ResponseStatusException.class, () -> plain.getPageAfter(10, null, "name", null));
+		assertThat(e.getStatus()).isEqualTo(HttpStatus.NOT_IMPLEMENTED);
+		assertThat(usernames(plain.getPageAfter(10, null, null, null))).containsExactly("carol");
+	}
+
+	/**
+	 * Pages through a store already holding Users sorted by name, repeated ones included, checking the order against a
+	 * full sort.
+	 */
+	@Test
+	void pageFilledStore() {
+		ConcurrentUserStore store = new ConcurrentUserStore(10);
+		store.insertAll(new SyntheticUserGenerator(2, 1000).generate(1000));
+		IndexedUserStore indexed = new IndexedUserStore(store);
+
+		List<User> found = new ArrayList<User>();
+		UserPage page = indexed.getPageSortedBy(SortedBy.NAME, null, 100);
+		found.addAll(page.getUsers());
+		while (page.getNextCursor() != null) {
+			page = indexed.getPageSortedBy(SortedBy.NAME, page.getNextCursor(), 100);
+			found.addAll(page.getUsers());
+		}
+
+		assertThat(found).hasSize(store.size())
+				.isSortedAccordingTo(Comparator.comparing((User u) -> u.getName().toLowerCase()).thenComparing(User::getUsername));
+	}
+
+	private static List<String> usernames(UserPage page) {
+		List<String> usernames = new ArrayList<String>();
+		for (User u : page.getUsers())
+			usernames.add(u.getUsername());
+		return usernames;
+	}
+
+}
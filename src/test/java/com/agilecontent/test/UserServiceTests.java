@@ -11,6 +11,7 @@ import org.junit.jupiter.api.Test;
 
 import com.agilecontent.test.controllers.UserController;
 import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.UserPage;
 import com.agilecontent.test.models.User.Gender;
 import com.agilecontent.test.services.UserService;
 
@@ -75,6 +76,43 @@ class UserServiceTests {
 		assertThat(userService.getPreviousPage(0)).isNull();
 	}
 
+	/**
+	 * Walks every page through cursors, one User per page, and checks the last page carries no cursor.
+	 */
+	@Test
+	void getPagesByCursor() {
+		UserPage first = userService.getPage(null, 1);
+		assertThat(first.getUsers()).containsExactly(user1);
+		assertThat(first.getNextCursor()).isNotNull();
+
+		UserPage second = userService.getPage(first.getNextCursor(), 1);
+		assertThat(second.getUsers()).containsExactly(user2);
+		assertThat(second.getNextCursor()).isNull();
+	}
+
+	/**
+	 * Checks a cursor keeps pointing to the same place after removing the User it was issued for.
+	 */
+	@Test
+	void getPageByCursorAfterDelete() {
+		userService.create(new User("create", "Test", "test@gmail.com", Gender.MALE, "https://test.com/image.jpg"));
+		UserPage first = userService.getPage(null, 1);
+		userService.delete(username1);
+
+		assertThat(userService.getPage(first.getNextCursor(), 10).getUsers())
+			.extracting("username").containsExactly(username2, "create");
+	}
+
+	/**
+	 * Tries to get a page with a made up cursor. This should throw an exception.
+	 */
+	@Test
+	void getPageByWrongCursor() {
+		Assertions.assertThrows(IllegalArgumentException.class, () -> {
+			userService.getPage("not a cursor", 10);
+		});
+	}
+
 	/**
 	 * Return one of our mock Users.
 	 */
@@ -140,6 +178,41 @@ class UserServiceTests {
 		});
 	}
 
+	/**
+	 * Tries to create a User whose username is already in use. This should throw an exception.
+	 */
+	@Test
+	void createExistingUser() {
+		Assertions.assertThrows(IllegalArgumentException.class, () -> {
+			userService.create(new User(username1, "Other", "other@mail.com", Gender.OTHER, "picture.jpg"));
+		});
+	}
+
+	/**
+	 * Tries to build the Service from a list with a repeated username. This should throw an exception.
+	 */
+	@Test
+	void initWithDuplicatedUsers() {
+		List<User> list = new ArrayList<User>();
+		list.add(user1);
+		list.add(new User(username1, "Other", "other@mail.com", Gender.OTHER, "picture.jpg"));
+
+		Assertions.assertThrows(IllegalArgumentException.class, () -> {
+			new UserService(list);
+		});
+	}
+
+	/**
+	 * Deletes a User and checks it can no longer be found, but can be created again.
+	 */
+	@Test
+	void deleteAndRecreateUser() {
+		userService.delete(username1);
+		assertThat(userService.getOne(username1)).isNull();
+		assertThat(userService.create(user1)).isNotNull();
+		assertThat(userService.getOne(username1)).isSameAs(user1);
+	}
+
 	/**
 	 * Generates 10 random users through the random-gen api.
 	 */
@@ -0,0 +1,178 @@
+package com.agilecontent.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.agilecontent.test.metrics.UserMetrics;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.stores.ConcurrentUserStore;
+import com.agilecontent.test.stores.WriteBehindUserStore;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests for the write-behind store: mutations must be acknowledged from memory, and reach the persistent
+ * store later, coalesced and in order.
+ *
+ * @author Carlos Melero
+ *
+ */
+class WriteBehindTests {
+
+	User user1 = new User("test", "Test", "test@gmail.com", Gender.MALE, "https://test.com/image.jpg");
+	User user2 = new User("test2", "Test 2", "test2@gmail.com", Gender.FEMALE, null);
+	User user3 = new User("test3", "Test 3", "test3@gmail.com", null, "https://test3.com/image.jpg");
+
+	/**
+	 * Mutates the same Users several times between two flushes: the persistent store must end up with the
+	 * same Users, in the same order, through one write per username at most.
+	 */
+	@Test
+	void coalescePerUsername() {
+		RecordingStore persistent = new RecordingStore();
+		persistent.insert(user1);
+		persistent.writes.set(0);
+
+		WriteBehindUserStore store = new WriteBehindUserStore(new ConcurrentUserStore(10), persistent, 100, 60000, UserMetrics.noop());
+		assertThat(store.get("test")).isNotNull();
+
+		store.insertAll(Arrays.asList(user2, user3));
+		store.update(new User("test2", "Updated", null, Gender.OTHER, null));
+		store.update(new User("test2", "Updated again", null, Gender.OTHER, null));
+		// Never persisted, so never written
+		store.remove("test3");
+		// Persisted, removed and inserted again: must end up last
+		store.remove("test");
+		store.insert(new User("test", "New", null, null, null));
+		assertThat(persistent.size()).isEqualTo(1);
+
+		store.flush();
+		assertThat(persistent.getPage(0)).extracting("username").containsExactly("test2", "test");
+		assertThat(persistent.get("test2").getName()).isEqualTo("Updated again");
+		assertThat(persistent.get("test").getName()).isEqualTo("New");
+		// A removal and an insertion of "test", an insertion of "test2"
+		assertThat(persistent.writes.get()).isEqualTo(3);
+		assertThat(store.getQueueDepth()).isZero();
+		store.close();
+	}
+
+	/**
+	 * Blocks the persistent store: mutations must be acknowledged until the queue is full, then wait for room.
+	 */
+	@Test
+	void backpressureWhenFull() throws Exception {
+		RecordingStore persistent = new RecordingStore();
+		persistent.gate = new CountDownLatch(1);
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		WriteBehindUserStore store = new WriteBehindUserStore(new ConcurrentUserStore(10), persistent, 2, 1, new UserMetrics(registry));
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			store.insert(user1);
+			// Wait for the writer to take the first batch, and block on it
+			while (store.getQueueDepth() > 0)
+				Thread.sleep(1);
+			store.insert(user2);
+			store.insert(user3);
+			assertThat(registry.get("store.writebehind.queue").gauge().value()).isEqualTo(2.0);
+
+			Future<User> blocked = executor.submit(() -> store.insert(new User("test4", null, null, null, null)));
+			Assertions.assertThrows(TimeoutException.class, () -> blocked.get(200, TimeUnit.MILLISECONDS));
+
+			persistent.gate.countDown();
+			assertThat(blocked.get(5, TimeUnit.SECONDS)).isNull();
+			store.close();
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertThat(persistent.size()).isEqualTo(4);
+		assertThat(registry.get("store.writebehind.flush").timer().count()).isGreaterThanOrEqualTo(2L);
+	}
+
+	/**
+	 * Fails the first flush: it must be retried, and closing must still write everything.
+	 */
+	@Test
+	void retryFailedFlushAndFlushOnClose() {
+		RecordingStore persistent = new RecordingStore();
+		persistent.failures.set(1);
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		WriteBehindUserStore store = new WriteBehindUserStore(new ConcurrentUserStore(10), persistent, 100, 60000, new UserMetrics(registry));
+
+		store.insert(user1);
+		store.insert(user2);
+		store.close();
+
+		assertThat(persistent.getPage(0)).extracting("username").containsExactly("test", "test2");
+		assertThat(registry.get("store.writebehind.failures").counter().count()).isEqualTo(1.0);
+		Assertions.assertThrows(IllegalStateException.class, () -> store.insert(user3));
+	}
+
+	/**
+	 * In-memory store standing for a persistent one, which counts its writes, and can block or fail them.
+	 */
+	static class RecordingStore extends ConcurrentUserStore {
+
+		final AtomicInteger writes = new AtomicInteger();
+
+		final AtomicInteger failures = new AtomicInteger();
+
+		volatile CountDownLatch gate;
+
+		RecordingStore() {
+			super(10);
+		}
+
+		@Override
+		public User insert(User user) {
+			write(1);
+			return super.insert(user);
+		}
+
+		@Override
+		public List<User> insertAll(Collection<User> users) {
+			write(users.size());
+			return super.insertAll(users);
+		}
+
+		@Override
+		public User update(User user) {
+			write(1);
+			return super.update(user);
+		}
+
+		@Override
+		public User remove(String username) {
+			write(1);
+			return super.remove(username);
+		}
+
+		private void write(int amount) {
+			if (failures.getAndDecrement() > 0)
+				throw new IllegalStateException("Failing on purpose");
+			try {
+				if (gate != null)
+					gate.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			writes.addAndGet(amount);
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.agilecontent.test.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.agilecontent.test.controllers.UserController;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.services.UserService;
+import com.agilecontent.test.stores.ConcurrentUserStore;
+
+/**
+ * Measures the throughput of the UserController under contention: every thread runs the same mix of operations as
+ * ConcurrencyTests on its own usernames, against a single shared store. Runs on every core by default; pass -t to
+ * JMH for other amounts of threads.
+ * 
+ * @author Carlos Melero
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Threads(Threads.MAX)
+public class ConcurrencyBenchmark {
+
+	UserController userController;
+
+	@Setup
+	public void setup() {
+		userController = new UserController(new UserService(new ConcurrentUserStore(10)));
+	}
+
+	/**
+	 * The usernames of each thread.
+	 */
+	@State(Scope.Thread)
+	public static class Usernames {
+
+		private static final AtomicInteger threads = new AtomicInteger();
+
+		final String prefix = "t" + threads.getAndIncrement() + "-";
+
+		int next;
+	}
+
+	/**
+	 * Creates a User, reads it, updates it, reads a page and deletes the User, so the store keeps its size.
+	 */
+	@Benchmark
+	public List<User> mixedOperations(Usernames own) {
+		String username = own.prefix + own.next++;
+		userController.createUser(username, newUser(username, 0));
+		userController.getUser(username, null);
+		userController.updateUser(username, newUser(username, 1));
+		List<User> page = userController.getPage();
+		userController.deleteUser(username);
+		return page;
+	}
+
+	private static User newUser(String username, int n) {
+		return new User(username, "Name " + n, username + "@mail.com", Gender.values()[n % 3], "picture" + n + ".jpg");
+	}
+
+}
@@ -0,0 +1,121 @@
+package com.agilecontent.test.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.agilecontent.test.generators.SyntheticUserGenerator;
+import com.agilecontent.test.metrics.UserMetrics;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.stores.ConcurrentUserStore;
+import com.agilecontent.test.stores.DurableUserStore;
+
+/**
+ * Measures the durable store: mutations from many threads at once, which share the forces to disk through the group
+ * commit of the log, and the writing and loading of snapshots of increasing size. Files go to a temporary directory,
+ * so the results depend on the disk behind it.
+ * 
+ * @author Carlos Melero
+ *
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DurableUserStoreBenchmark {
+
+	@Param({"10000", "100000", "1000000"})
+	int size;
+
+	Path dir;
+
+	DurableUserStore store;
+
+	/**
+	 * Opens a store in a new directory, holding about N synthetic Users and a snapshot of them.
+	 */
+	@Setup
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("durable-benchmark");
+		store = open();
+		store.insertAll(new SyntheticUserGenerator(5, size).generate(size));
+		store.snapshot();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		store.close();
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+		}
+	}
+
+	/**
+	 * The usernames of each thread.
+	 */
+	@State(Scope.Thread)
+	public static class Usernames {
+
+		private static final AtomicInteger threads = new AtomicInteger();
+
+		final String prefix = "t" + threads.getAndIncrement() + "-";
+
+		int next;
+	}
+
+	/**
+	 * Inserts a User and removes it, each waiting for its record to be on disk, from 32 threads at once.
+	 */
+	@Benchmark
+	@Threads(32)
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public User insertAndRemove(Usernames own) {
+		String username = own.prefix + own.next++;
+		store.insert(new User(username, "Name", username + "@mail.com", Gender.OTHER, "picture.jpg"));
+		return store.remove(username);
+	}
+
+	/**
+	 * Writes a snapshot of the whole store.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void writeSnapshot() throws IOException {
+		store.snapshot();
+	}
+
+	/**
+	 * Opens the directory again, loading the latest snapshot.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int loadSnapshot() throws IOException {
+		try (DurableUserStore loaded = open()) {
+			return loaded.size();
+		}
+	}
+
+	private DurableUserStore open() throws IOException {
+		return new DurableUserStore(new ConcurrentUserStore(10), dir, UserMetrics.noop());
+	}
+
+}
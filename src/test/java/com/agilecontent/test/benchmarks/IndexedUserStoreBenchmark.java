@@ -0,0 +1,92 @@
+package com.agilecontent.test.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.agilecontent.test.generators.SyntheticUserGenerator;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.models.UserPage;
+import com.agilecontent.test.stores.ConcurrentUserStore;
+import com.agilecontent.test.stores.IndexedUserStore;
+import com.agilecontent.test.stores.IndexedUserStore.SortedBy;
+
+/**
+ * Measures the indexing layer on stores of increasing size: building the indexes of a filled store, reading
+ * the pages they serve, sorted pages included, and searching as a query is typed.
+ * 
+ * @author Carlos Melero
+ *
+ */
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class IndexedUserStoreBenchmark {
+
+	// Prefixes of usernames, partial names and misspelt ones, searched in turn
+	private static final String[] QUERIES = { "silverf", "happybe", "Olivia Brow", "jenifer wilsn", "mar", "lion" };
+
+	@Param({"10000", "100000", "1000000"})
+	int size;
+
+	ConcurrentUserStore store;
+	IndexedUserStore indexed;
+	int next;
+	String cursor;
+
+	/**
+	 * Fills a store with about N synthetic Users, and indexes it.
+	 */
+	@Setup
+	public void setup() {
+		store = new ConcurrentUserStore(10);
+		store.insertAll(new SyntheticUserGenerator(2, size).generate(size));
+		indexed = new IndexedUserStore(store);
+	}
+
+	/**
+	 * Indexes every User of the store.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public IndexedUserStore buildIndexes() {
+		return new IndexedUserStore(store);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public UserPage getPageByGender() {
+		return indexed.getPageByGender(Gender.FEMALE, null, 10);
+	}
+
+	/**
+	 * Gets the pages sorted by name one after the other, following their cursors, and starts over after the last one.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public UserPage getPageSortedByName() {
+		UserPage page = indexed.getPageSortedBy(SortedBy.NAME, cursor, 10);
+		cursor = page.getNextCursor();
+		return page;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public List<User> search() {
+		return indexed.search(QUERIES[next++ % QUERIES.length], 10);
+	}
+
+}
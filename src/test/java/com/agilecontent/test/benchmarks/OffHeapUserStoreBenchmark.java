@@ -0,0 +1,82 @@
+package com.agilecontent.test.benchmarks;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.agilecontent.test.generators.SyntheticUserGenerator;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.stores.ConcurrentUserStore;
+import com.agilecontent.test.stores.OffHeapUserStore;
+import com.agilecontent.test.stores.UserStore;
+
+/**
+ * Compares the off-heap store with the in-memory one on stores of increasing size: filling a new store with generated
+ * Users, which the off-heap store packs into its slabs, and reading them back by username, which it decodes.
+ * 
+ * @author Carlos Melero
+ *
+ */
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g", "-XX:MaxDirectMemorySize=8g" })
+public class OffHeapUserStoreBenchmark {
+
+	@Param({"10000", "100000", "1000000"})
+	int size;
+
+	@Param({"heap", "offheap"})
+	String kind;
+
+	List<User> users;
+	UserStore store;
+	SplittableRandom random;
+
+	/**
+	 * Generates the Users, and fills a store with them for the reads.
+	 */
+	@Setup
+	public void setup() {
+		users = new SyntheticUserGenerator(5, size).generate(size);
+		store = newStore();
+		store.insertAll(users);
+		random = new SplittableRandom(42);
+	}
+
+	/**
+	 * Fills a new store with every generated User.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public UserStore fill() {
+		UserStore filled = newStore();
+		filled.insertAll(users);
+		return filled;
+	}
+
+	/**
+	 * Gets a User by username, reading every field so that the off-heap store decodes it.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public int get() {
+		User u = store.get(users.get(random.nextInt(users.size())).getUsername());
+		return (u != null) ? u.getName().length() + u.getEmail().length() : 0;
+	}
+
+	private UserStore newStore() {
+		return kind.equals("offheap") ? new OffHeapUserStore(10) : new ConcurrentUserStore(10);
+	}
+
+}
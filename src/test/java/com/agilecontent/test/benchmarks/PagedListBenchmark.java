@@ -0,0 +1,119 @@
+package com.agilecontent.test.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.agilecontent.test.models.IndexedPagedList;
+import com.agilecontent.test.models.PagedList;
+
+/**
+ * Compares the ArrayList based PagedList with the tree based IndexedPagedList on their whole API: positional
+ * insertion, appending, removal of an element, finding its page, page slicing and sorting. Every insertion is
+ * paired with a removal, so the list keeps its size across invocations. Every modification also repaginates.
+ * 
+ * @author Carlos Melero
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PagedListBenchmark {
+
+	// Two unrelated orders, so that sorting by one of them always starts from a shuffled list.
+	private static final Comparator<Integer> BY_FIRST_HASH = Comparator.comparingInt(e -> e * 0x9E3779B1);
+	private static final Comparator<Integer> BY_SECOND_HASH = Comparator.comparingInt(e -> Integer.reverse(e * 0x85EBCA6B));
+
+	@Param({"array", "indexed"})
+	String impl;
+
+	@Param({"1000", "10000", "100000", "1000000", "10000000"})
+	int size;
+
+	PagedList<Integer> list;
+	SplittableRandom random;
+	int next;
+	boolean sortedByFirst;
+
+	@Setup
+	public void setup() {
+		List<Integer> elements = new ArrayList<Integer>(size);
+		for (int i = 0; i < size; i++)
+			elements.add(i);
+
+		list = impl.equals("indexed") ? new IndexedPagedList<Integer>(elements, 10) : new PagedList<Integer>(elements, 10);
+		random = new SplittableRandom(42);
+		next = size;
+	}
+
+	/**
+	 * Inserts an element at the front and removes it again.
+	 */
+	@Benchmark
+	public boolean insertAndRemoveAtFront() {
+		Integer e = next++;
+		list.add(0, e);
+		return list.remove(e);
+	}
+
+	/**
+	 * Inserts an element at a random page and position and removes it again.
+	 */
+	@Benchmark
+	public boolean insertAndRemoveAtRandomPosition() {
+		Integer e = next++;
+		list.add(random.nextInt(list.getPages() - 1), random.nextInt(10), e);
+		return list.remove(e);
+	}
+
+	/**
+	 * Appends an element at the end and removes it again.
+	 */
+	@Benchmark
+	public boolean appendAndRemove() {
+		Integer e = next++;
+		list.add(e);
+		return list.remove(e);
+	}
+
+	/**
+	 * Finds the page of a random element.
+	 */
+	@Benchmark
+	public List<Integer> getPageOfElement() {
+		return list.getPageOf(random.nextInt(size));
+	}
+
+	/**
+	 * Slices a random page.
+	 */
+	@Benchmark
+	public List<Integer> getRandomPage() {
+		return list.getPage(random.nextInt(list.getPages()));
+	}
+
+	/**
+	 * Sorts the whole list, which is in an unrelated order every time.
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public PagedList<Integer> sort() {
+		sortedByFirst = !sortedByFirst;
+		list.sort(sortedByFirst ? BY_FIRST_HASH : BY_SECOND_HASH);
+		return list;
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.agilecontent.test.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.agilecontent.test.generators.SyntheticUserGenerator;
+import com.agilecontent.test.models.UserPage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+
+/**
+ * Compares the formats a page of Users can be sent in: JSON, CBOR and Smile, with mappers built like the ones of the
+ * application (see ContentConfig). Measures encoding and decoding a page, and prints the size of the encoded page
+ * once per trial, since JMH only measures time.
+ * 
+ * @author Carlos Melero
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1)
+public class PayloadFormatBenchmark {
+
+	@Param({"json", "cbor", "smile"})
+	String format;
+
+	@Param({"10", "1000"})
+	int pageSize;
+
+	ObjectMapper mapper;
+	UserPage page;
+	byte[] encoded;
+
+	@Setup
+	public void setup() throws IOException {
+		Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json().modulesToInstall(new ParameterNamesModule());
+		if (format.equals("cbor"))
+			builder.factory(new CBORFactory());
+		else if (format.equals("smile"))
+			builder.factory(new SmileFactory());
+		mapper = builder.build();
+
+		page = new UserPage(new SyntheticUserGenerator(42, pageSize).generate(pageSize), "AAAAAAAAA-g");
+		encoded = mapper.writeValueAsBytes(page);
+		System.out.printf("%n%s page of %d users: %d bytes (%d per user)%n", format, pageSize, encoded.length, encoded.length / pageSize);
+	}
+
+	/**
+	 * Encodes a page of Users.
+	 */
+	@Benchmark
+	public byte[] encode() throws IOException {
+		return mapper.writeValueAsBytes(page);
+	}
+
+	/**
+	 * Decodes a page of Users.
+	 */
+	@Benchmark
+	public UserPage decode() throws IOException {
+		return mapper.readValue(encoded, UserPage.class);
+	}
+
+}
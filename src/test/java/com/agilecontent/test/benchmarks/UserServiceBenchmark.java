@@ -0,0 +1,173 @@
+package com.agilecontent.test.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.agilecontent.test.controllers.UserController;
+import com.agilecontent.test.generators.SyntheticUserGenerator;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.UserBatchResult;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.models.UserPage;
+import com.agilecontent.test.services.GenerationDeduplicator;
+import com.agilecontent.test.services.GenerationDeduplicator.BatchReport;
+import com.agilecontent.test.services.UserService;
+import com.agilecontent.test.stores.ConcurrentUserStore;
+import com.agilecontent.test.stores.UserStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Measures the UserService operations behind every endpoint, plus the export and the deduplication step of the random
+ * generation, on stores of increasing size. Creations are paired with deletions, so the store keeps its size across
+ * invocations.
+ * 
+ * @author Carlos Melero
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class UserServiceBenchmark {
+
+	@Param({"1000", "10000", "100000", "1000000", "10000000"})
+	int size;
+
+	UserStore store;
+	UserService userService;
+	UserController userController;
+	SplittableRandom random;
+	List<User> generatedBatch;
+	List<User> newBatch;
+	List<String> newUsernames;
+	List<User> storedBatch;
+	int next;
+
+	/**
+	 * Fills the store with "user0".."userN", and prepares a batch of 5000 generated Users, half of them already stored,
+	 * plus batches of a thousand new and stored Users.
+	 */
+	@Setup
+	public void setup() {
+		List<User> users = new ArrayList<User>(size);
+		for (int i = 0; i < size; i++)
+			users.add(newUser("user" + i));
+
+		store = new ConcurrentUserStore(users, 10);
+		userService = new UserService(store, new SyntheticUserGenerator(42), 1);
+		userController = new UserController(userService, new ObjectMapper());
+		random = new SplittableRandom(42);
+
+		generatedBatch = new SyntheticUserGenerator(42).generate(5000);
+		for (int i = 0; i < generatedBatch.size(); i += 2)
+			generatedBatch.set(i, newUser("user" + random.nextInt(size)));
+
+		newBatch = new ArrayList<User>();
+		newUsernames = new ArrayList<String>();
+		storedBatch = new ArrayList<User>();
+		for (int i = 0; i < 1000; i++) {
+			newBatch.add(newUser("batch" + i));
+			newUsernames.add("batch" + i);
+			storedBatch.add(newUser("user" + random.nextInt(size)));
+		}
+	}
+
+	@Benchmark
+	public User getOne() {
+		return userService.getOne("user" + random.nextInt(size));
+	}
+
+	@Benchmark
+	public User createAndDelete() {
+		String username = "new" + next++;
+		userService.create(newUser(username));
+		return userService.delete(username);
+	}
+
+	@Benchmark
+	public User update() {
+		return userService.update(newUser("user" + random.nextInt(size)));
+	}
+
+	@Benchmark
+	public List<User> getPageByIndex() {
+		return store.getPage(random.nextInt(store.getPages()));
+	}
+
+	@Benchmark
+	public UserPage getFirstPageByCursor() {
+		return userService.getPage(null, 10);
+	}
+
+	/**
+	 * Creates a batch of a thousand new Users, then deletes them.
+	 */
+	@Benchmark
+	public UserBatchResult createAndDeleteBatch() {
+		userService.createAll(newBatch);
+		return userService.deleteAll(newUsernames);
+	}
+
+	/**
+	 * Upserts a batch of a thousand stored Users.
+	 */
+	@Benchmark
+	public UserBatchResult upsertBatch() {
+		return userService.upsertAll(storedBatch);
+	}
+
+	/**
+	 * Streams every User as NDJSON, as the export endpoint does, to an output that throws the bytes away.
+	 */
+	@Benchmark
+	public long exportNdjson() throws IOException {
+		CountingOutputStream out = new CountingOutputStream();
+		userController.exportUsers("ndjson", null).getBody().writeTo(out);
+		return out.bytes;
+	}
+
+	/**
+	 * Deduplicates a batch of 5000 generated Users, as done with every batch of a random generation.
+	 */
+	@Benchmark
+	public BatchReport deduplicateBatch() {
+		return new GenerationDeduplicator(store, generatedBatch.size()).offer(generatedBatch);
+	}
+
+	private static User newUser(String username) {
+		return new User(username, "Name", username + "@mail.com", Gender.OTHER, "picture.jpg");
+	}
+
+	/**
+	 * Output that throws its bytes away, counting them.
+	 */
+	static class CountingOutputStream extends OutputStream {
+
+		long bytes;
+
+		@Override
+		public void write(int b) {
+			bytes++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			bytes += len;
+		}
+	}
+
+}
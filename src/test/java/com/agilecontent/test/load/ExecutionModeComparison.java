@@ -0,0 +1,51 @@
+package com.agilecontent.test.load;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.agilecontent.test.utils.VirtualThreadUtils;
+
+/**
+ * Runs the load harness twice, first with the requests on Tomcat's pool of platform threads and then on virtual
+ * threads, under a load where the generate requests block on a slow generator: the local stand-in of the api, with
+ * 2 seconds of latency. At 1000 requests per second, a tenth of them generating, some 200 generate requests are
+ * blocked at any time, which is the whole default pool: on platform threads, the CRUD requests queue behind them,
+ * while on virtual threads they should keep their usual latency. Needs Java 21 or later.
+ *
+ * Arguments are handed to both runs, after the defaults of the comparison, so they can be overridden the same way
+ * as in UserApiLoadHarness. The results of each run are written to target/load/platform and target/load/virtual.
+ *
+ * @author Carlos Melero
+ *
+ */
+public class ExecutionModeComparison {
+
+	private static final String[] DEFAULTS = { "rate=1000", "duration=30", "warmup=10", "threads=1024", "generate=10",
+			"mix=page=25,get=45,create=10,update=5,delete=5,generate=10", "--generator.backend=local",
+			"--generator.local.latency-ms=2000", "--generator.parallelism=512" };
+
+	public static void main(String[] args) throws Exception {
+		if (!VirtualThreadUtils.isSupported())
+			throw new IllegalStateException("The comparison needs Java 21 or later, running on " + System.getProperty("java.version"));
+
+		System.out.println("=== Platform threads ===");
+		UserApiLoadHarness.main(argsOf(args, "output=target/load/platform", "--spring.threads.virtual.enabled=false"));
+
+		System.out.println("=== Virtual threads ===");
+		UserApiLoadHarness.main(argsOf(args, "output=target/load/virtual", "--spring.threads.virtual.enabled=true"));
+	}
+
+	/**
+	 * Joins the defaults, the mode and the given arguments, the later ones replacing the earlier ones with the same key.
+	 * Spring would join repeated properties instead.
+	 */
+	private static String[] argsOf(String[] args, String... mode) {
+		Map<String, String> all = new LinkedHashMap<String, String>();
+		for (String[] group : new String[][] { DEFAULTS, mode, args }) {
+			for (String arg : group)
+				all.put(arg.contains("=") ? arg.substring(0, arg.indexOf('=')) : arg, arg);
+		}
+		return all.values().toArray(new String[0]);
+	}
+
+}
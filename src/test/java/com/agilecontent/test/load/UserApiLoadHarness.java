@@ -0,0 +1,316 @@
+package com.agilecontent.test.load;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.agilecontent.test.Application;
+import com.agilecontent.test.models.User;
+import com.agilecontent.test.models.User.Gender;
+import com.agilecontent.test.services.UserService;
+
+/**
+ * End-to-end load harness for the /api/user endpoints. Boots the application on an ephemeral port, preloads it with
+ * users, and sends a seeded mix of requests at a fixed arrival rate (open loop: requests are sent on schedule whether
+ * or not earlier ones have completed). Latency is measured from the time each request was scheduled, so queueing
+ * delays are not hidden, and recorded into one HdrHistogram per operation.
+ * 
+ * Settings are given as key=value arguments (defaults between brackets): rate [1000 requests/s], duration [30 s],
+ * warmup [10 s], threads [256], preload [10000 users], generate [100 users per generate request], seed [42],
+ * output [target/load], and mix [page=30,get=40,create=10,update=10,delete=8,generate=2]. Arguments starting
+ * with "--" are handed to Spring, to compare stores or server settings, e.g. --server.tomcat.max-threads=400.
+ * The generator defaults to the synthetic backend, so runs don't depend on the network.
+ * 
+ * @author Carlos Melero
+ *
+ */
+public class UserApiLoadHarness {
+
+	// Creations a deletion stays behind, so that it does not target a user whose creation is still in flight.
+	private static final int DELETE_LAG = 16;
+
+	/**
+	 * Operations of the mix, each one mapped to one endpoint.
+	 */
+	enum Operation {
+		PAGE, GET, CREATE, UPDATE, DELETE, GENERATE;
+	}
+
+	private final Map<String, String> settings;
+	private final String baseUri;
+	private final CloseableHttpClient httpClient;
+	private final ExecutorService executor;
+	private final int threads;
+	private final int preload;
+	private final Operation[] mix;
+
+	private final Map<Operation, Histogram> latencies = new EnumMap<Operation, Histogram>(Operation.class);
+	private final Map<Operation, LongAdder> errors = new EnumMap<Operation, LongAdder>(Operation.class);
+
+	// Counters of the users created and deleted by the load. Only used by the dispatcher thread.
+	private long created = 0, deleted = 0;
+
+	UserApiLoadHarness(Map<String, String> settings, String baseUri) {
+		this.settings = settings;
+		this.baseUri = baseUri;
+		this.threads = Integer.parseInt(settings.get("threads"));
+		this.preload = Integer.parseInt(settings.get("preload"));
+		this.mix = parseMix(settings.get("mix"));
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(threads);
+		connectionManager.setDefaultMaxPerRoute(threads);
+		this.httpClient = HttpClients.custom().setConnectionManager(connectionManager).build();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+		for (Operation op : Operation.values()) {
+			latencies.put(op, new ConcurrentHistogram(3));
+			errors.put(op, new LongAdder());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> settings = new LinkedHashMap<String, String>();
+		settings.put("rate", "1000");
+		settings.put("duration", "30");
+		settings.put("warmup", "10");
+		settings.put("threads", "256");
+		settings.put("preload", "10000");
+		settings.put("generate", "100");
+		settings.put("seed", "42");
+		settings.put("output", "target/load");
+		settings.put("mix", "page=30,get=40,create=10,update=10,delete=8,generate=2");
+
+		List<String> springArgs = new ArrayList<String>();
+		for (String arg : args) {
+			if (arg.startsWith("--"))
+				springArgs.add(arg);
+			else if (arg.contains("="))
+				settings.put(arg.substring(0, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+		}
+
+		// Passed as arguments, since application.properties takes precedence over default properties
+		for (String arg : new String[] { "--server.port=0", "--generator.backend=synthetic", "--logging.level.root=WARN" }) {
+			String key = arg.substring(0, arg.indexOf('=') + 1);
+			if (springArgs.stream().noneMatch(a -> a.startsWith(key)))
+				springArgs.add(arg);
+		}
+
+		ConfigurableApplicationContext app = new SpringApplicationBuilder(Application.class)
+				.run(springArgs.toArray(new String[0]));
+
+		try {
+			String port = app.getEnvironment().getProperty("local.server.port");
+			UserApiLoadHarness harness = new UserApiLoadHarness(settings, "http://localhost:" + port + "/api/user/");
+
+			harness.preload(app.getBean(UserService.class));
+			harness.run();
+		} finally {
+			app.close();
+		}
+	}
+
+	/**
+	 * Fills the store with the users targeted by the get and update operations, straight through the UserService.
+	 */
+	void preload(UserService userService) {
+		for (int i = 0; i < preload; i++)
+			userService.create(newUser("load-user-" + i, i));
+	}
+
+	/**
+	 * Runs the warmup, then the measured phase, then prints and saves the results.
+	 */
+	void run() throws Exception {
+		double rate = Double.parseDouble(settings.get("rate"));
+		SplittableRandom random = new SplittableRandom(Long.parseLong(settings.get("seed")));
+
+		System.out.println("Load settings: " + settings);
+		runPhase(rate, Long.parseLong(settings.get("warmup")), random);
+		for (Operation op : Operation.values()) {
+			latencies.get(op).reset();
+			errors.get(op).reset();
+		}
+
+		long seconds = Long.parseLong(settings.get("duration"));
+		long elapsed = runPhase(rate, seconds, random);
+		report(elapsed);
+
+		executor.shutdown();
+		httpClient.close();
+	}
+
+	/**
+	 * Sends requests at the given rate for the given time, then waits for all of them to complete.
+	 * @return The time elapsed until the last request completed, in nanoseconds
+	 */
+	private long runPhase(double rate, long seconds, SplittableRandom random) throws InterruptedException {
+		long total = (long) (rate * seconds);
+		double interval = 1_000_000_000d / rate;
+		CountDownLatch completed = new CountDownLatch((int) total);
+		long start = System.nanoTime();
+
+		for (long i = 0; i < total; i++) {
+			long intended = start + (long) (i * interval);
+			long wait;
+			while ((wait = intended - System.nanoTime()) > 0)
+				LockSupport.parkNanos(wait);
+
+			HttpUriRequest request = nextRequest(random);
+			Operation op = operationOf(request);
+			executor.execute(() -> {
+				try {
+					send(op, request, intended);
+				} finally {
+					completed.countDown();
+				}
+			});
+		}
+
+		completed.await();
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Picks the next operation of the mix and builds its request. Runs on the dispatcher thread only, so the
+	 * sequence of requests only depends on the seed.
+	 */
+	private HttpUriRequest nextRequest(SplittableRandom random) {
+		Operation op = mix[random.nextInt(mix.length)];
+		String existing = "load-user-" + random.nextInt(preload);
+
+		// Only delete users whose creation was dispatched long enough ago to have completed, or get one instead
+		if (op == Operation.DELETE && deleted >= created - DELETE_LAG)
+			op = Operation.GET;
+
+		switch (op) {
+		case PAGE:
+			return new HttpGet(baseUri + "page/10");
+		case CREATE:
+			String username = "load-new-" + created++;
+			return withBody(new HttpPost(baseUri + username), newUser(username, random.nextInt()));
+		case UPDATE:
+			return withBody(new HttpPut(baseUri + existing), newUser(existing, random.nextInt()));
+		case DELETE:
+			return new HttpDelete(baseUri + "load-new-" + deleted++);
+		case GENERATE:
+			return new HttpGet(baseUri + "generate/" + settings.get("generate"));
+		default:
+			return new HttpGet(baseUri + existing);
+		}
+	}
+
+	private void send(Operation op, HttpUriRequest request, long intended) {
+		try (CloseableHttpResponse response = httpClient.execute(request)) {
+			EntityUtils.consume(response.getEntity());
+			if (response.getStatusLine().getStatusCode() >= 400) {
+				errors.get(op).increment();
+				return;
+			}
+		} catch (IOException e) {
+			errors.get(op).increment();
+			return;
+		}
+		latencies.get(op).recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended));
+	}
+
+	/**
+	 * Prints a summary line per operation, and saves the full latency distribution of each one to the output folder.
+	 */
+	private void report(long elapsedNanos) throws IOException {
+		File output = new File(settings.get("output"));
+		output.mkdirs();
+
+		long total = 0;
+		System.out.println(String.format("%-9s %9s %7s %9s %9s %9s %9s %9s", "operation", "count", "errors",
+				"p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+		for (Operation op : Operation.values()) {
+			Histogram h = latencies.get(op);
+			total += h.getTotalCount() + errors.get(op).sum();
+			System.out.println(String.format("%-9s %9d %7d %9.2f %9.2f %9.2f %9.2f %9.2f", op.name().toLowerCase(),
+					h.getTotalCount(), errors.get(op).sum(), h.getValueAtPercentile(50) / 1000d,
+					h.getValueAtPercentile(90) / 1000d, h.getValueAtPercentile(99) / 1000d,
+					h.getValueAtPercentile(99.9) / 1000d, h.getMaxValue() / 1000d));
+
+			try (PrintStream out = new PrintStream(new FileOutputStream(new File(output, op.name().toLowerCase() + ".hgrm")))) {
+				h.outputPercentileDistribution(out, 1000d);
+			}
+		}
+		System.out.println(String.format("Achieved throughput: %.1f requests/s", total * 1_000_000_000d / elapsedNanos));
+	}
+
+	private static Operation operationOf(HttpUriRequest request) {
+		String method = request.getMethod();
+		String uri = request.getURI().getPath();
+
+		if (method.equals("POST"))
+			return Operation.CREATE;
+		else if (method.equals("PUT"))
+			return Operation.UPDATE;
+		else if (method.equals("DELETE"))
+			return Operation.DELETE;
+		else if (uri.contains("/page/"))
+			return Operation.PAGE;
+		else if (uri.contains("/generate/"))
+			return Operation.GENERATE;
+		return Operation.GET;
+	}
+
+	/**
+	 * Expands a mix such as "get=70,create=30" into an array with 70 GET and 30 CREATE entries to pick from at random.
+	 */
+	private static Operation[] parseMix(String mix) {
+		List<Operation> entries = new ArrayList<Operation>();
+		for (String part : mix.split(",")) {
+			String[] kv = part.split("=");
+			Operation op = Operation.valueOf(kv[0].trim().toUpperCase());
+			for (int i = Integer.parseInt(kv[1].trim()); i > 0; i--)
+				entries.add(op);
+		}
+		return entries.toArray(new Operation[0]);
+	}
+
+	private static HttpUriRequest withBody(HttpEntityEnclosingRequestBase request, User user) {
+		request.setEntity(new StringEntity("{\"username\":\"" + user.getUsername() + "\",\"name\":\"" + user.getName()
+				+ "\",\"email\":\"" + user.getEmail() + "\",\"gender\":\"" + user.getGender() + "\",\"picture\":\""
+				+ user.getPicture() + "\"}", ContentType.APPLICATION_JSON));
+		return request;
+	}
+
+	private static User newUser(String username, int n) {
+		return new User(username, "Load " + n, username + "@load.test", Gender.values()[Math.abs(n % 3)], "https://load.test/" + n + ".jpg");
+	}
+
+}